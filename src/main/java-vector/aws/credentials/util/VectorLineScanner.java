@@ -0,0 +1,58 @@
+package aws.credentials.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Scans bytes a full vector register at a time, comparing every lane against "\n", "=" and "[" at once, and only looking at the positions 
+ * of lanes that matched. Requires jdk 17 or later, run with --add-modules jdk.incubator.vector. See LineScanner.
+ *
+ * @author wrh
+ *
+ */
+public class VectorLineScanner extends LineScanner {
+
+	/**
+	 * No more than 64 lanes (512 bits), so a mask always fits in a long.
+	 */
+	private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+
+	@Override
+	protected void scan(ByteBuffer bytes, int from, int to, int base, LineIndex index) {
+		int i = from;
+		int bound = from + SPECIES.loopBound(to - from);
+		for(; i < bound; i += SPECIES.length()) {
+			ByteVector v = ByteVector.fromByteBuffer(SPECIES, bytes, i, ByteOrder.nativeOrder());
+			VectorMask<Byte> newlines = v.eq((byte) '\n');
+			VectorMask<Byte> delimiters = v.eq((byte) '=');
+			VectorMask<Byte> brackets = v.eq((byte) '[');
+			if(newlines.or(delimiters).or(brackets).anyTrue()) {
+				for(long bits = newlines.toLong(); bits != 0; bits &= bits - 1) {
+					index.addNewline(i + Long.numberOfTrailingZeros(bits) - base);
+				}
+				for(long bits = delimiters.toLong(); bits != 0; bits &= bits - 1) {
+					index.addDelimiter(i + Long.numberOfTrailingZeros(bits) - base);
+				}
+				for(long bits = brackets.toLong(); bits != 0; bits &= bits - 1) {
+					index.addBracket(i + Long.numberOfTrailingZeros(bits) - base);
+				}
+			}
+		}
+		for(; i < to; i++) {
+			byte b = bytes.get(i);
+			if(b == '\n') {
+				index.addNewline(i - base);
+			}
+			else if(b == '=') {
+				index.addDelimiter(i - base);
+			}
+			else if(b == '[') {
+				index.addBracket(i - base);
+			}
+		}
+	}
+}
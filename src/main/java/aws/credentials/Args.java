@@ -3,8 +3,23 @@ package aws.credentials;
 import java.nio.file.FileSystem;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
+import aws.credentials.file.CredentialsFile.FsyncPolicy;
+import aws.credentials.file.CredentialsFile.Type;
+import aws.credentials.file.CredentialsFile.WriteStrategy;
+import aws.credentials.file.CredentialsFileJournal;
+import aws.credentials.file.CredentialsFileLock;
+import aws.credentials.file.FileWatcher;
+import aws.credentials.file.NewestFileEventHandler.Consume;
+import aws.credentials.file.Watcher.Mode;
+import aws.credentials.file.StableFileEventHandler;
 import aws.credentials.util.BasicNameValuePair;
 import aws.credentials.util.NameValuePair;
 import aws.credentials.util.NameValuePairCaselessDecorator;
@@ -18,40 +33,258 @@ import aws.credentials.util.NameValuePairCaselessDecorator;
  */
 class Args {
 	private Path sourceCredsPath;
-	private Path targetCredsPath;
+	private Path sourceDirectory;
+	private String sourcePattern;
+	private FileSystem fs;
+	private List<Path> targetCredsPaths = new ArrayList<Path>();
+	private Map<Path, Type> targetTypes = new HashMap<Path, Type>();
 	private Path propertiesPath;
+	private String fsync;
+	private String write;
+	private String lockTimeout;
+	private String coalesce;
+	private String debounce;
+	private String debounceMax;
+	private String stable;
+	private String stableTimeout;
+	private String consume;
+	private String ignoreOlder;
+	private String watch;
+	private String restore;
 	private StringBuilder msg = new StringBuilder();
 	
 	public Args(String[] args, FileSystem fs) {
+		this.fs = fs;
 		for(String arg : args) {
 			NameValuePair nvp = new NameValuePairCaselessDecorator(new BasicNameValuePair(arg));
 			if(nvp.isPair()) {
 				if(nvp.is("source")) {
-					this.sourceCredsPath = fs.getPath(nvp.getValue());
+					setSource(nvp.getValue());
 				}
 				else if(nvp.is("target")) {
-					this.targetCredsPath = fs.getPath(nvp.getValue());
+					addTarget(nvp.getValue(), fs);
 				}
 				else if(nvp.is("map")) {
 					this.propertiesPath = fs.getPath(nvp.getValue());
 				}
+				else if(nvp.is("fsync")) {
+					this.fsync = nvp.getValue();
+				}
+				else if(nvp.is("write")) {
+					this.write = nvp.getValue();
+				}
+				else if(nvp.is("lock-timeout")) {
+					this.lockTimeout = nvp.getValue();
+				}
+				else if(nvp.is("coalesce")) {
+					this.coalesce = nvp.getValue();
+				}
+				else if(nvp.is("debounce")) {
+					this.debounce = nvp.getValue();
+				}
+				else if(nvp.is("debounce-max")) {
+					this.debounceMax = nvp.getValue();
+				}
+				else if(nvp.is("stable")) {
+					this.stable = nvp.getValue();
+				}
+				else if(nvp.is("stable-timeout")) {
+					this.stableTimeout = nvp.getValue();
+				}
+				else if(nvp.is("consume")) {
+					this.consume = nvp.getValue();
+				}
+				else if(nvp.is("ignore-older")) {
+					this.ignoreOlder = nvp.getValue();
+				}
+				else if(nvp.is("watch")) {
+					this.watch = nvp.getValue();
+				}
+				else if(nvp.is("restore")) {
+					this.restore = nvp.getValue();
+				}
 			}
 		}
 	}
 	
+	/**
+	 * Set the source, which is either the path of the downloaded file, or a directory followed by a "glob:" or "regex:" pattern
+	 * for the names of the downloaded files in it (ie: glob:/Users/wrh/Downloads/credentials*).
+	 * @param value
+	 */
+	private void setSource(String value) {
+		for(String syntax : new String[] { "glob:", "regex:" }) {
+			if(value.regionMatches(true, 0, syntax, 0, syntax.length())) {
+				String path = value.substring(syntax.length());
+				int index = Math.max(path.lastIndexOf('/'), path.lastIndexOf(fs.getSeparator()));
+				if(index > 0) {
+					this.sourceDirectory = fs.getPath(path.substring(0, index));
+				}
+				this.sourcePattern = syntax.toLowerCase() + path.substring(index + 1);
+				return;
+			}
+		}
+		this.sourceCredsPath = fs.getPath(value);
+	}
+	
+	/**
+	 * Add a target, which may be given more than once. The path can be prefixed with the type of the file ("config:" or "credentials:"),
+	 * for a file whose type cannot be told by its name.
+	 * @param value
+	 * @param fs
+	 */
+	private void addTarget(String value, FileSystem fs) {
+		Type type = null;
+		for(Type t : Type.values()) {
+			String prefix = t.name() + ":";
+			if(value.regionMatches(true, 0, prefix, 0, prefix.length())) {
+				type = t;
+				value = value.substring(prefix.length());
+				break;
+			}
+		}
+		Path path = fs.getPath(value);
+		targetCredsPaths.add(path);
+		if(type != null) {
+			targetTypes.put(path, type);
+		}
+	}
+	
+	/**
+	 * @return The downloaded file, or null if the source is a pattern.
+	 */
 	public Path getSourceCredsPath() {
 		return sourceCredsPath;
 	}
+	public boolean isSourcePattern() {
+		return sourcePattern != null;
+	}
+	/**
+	 * @return The directory of the downloaded files if the source is a pattern, or else null.
+	 */
+	public Path getSourceDirectory() {
+		return sourceDirectory;
+	}
+	/**
+	 * @return A matcher for the names of the downloaded files if the source is a pattern, or else null.
+	 * @throws IllegalArgumentException The pattern is invalid.
+	 */
+	public PathMatcher getSourceMatcher() {
+		return sourcePattern == null ? null : fs.getPathMatcher(sourcePattern);
+	}
+	public Consume getConsume() {
+		if(consume == null) {
+			return Consume.KEEP;
+		}
+		return Consume.resolve(consume);
+	}
+	public Mode getWatchMode() {
+		if(watch == null) {
+			return Mode.AUTO;
+		}
+		return Mode.resolve(watch);
+	}
+	/**
+	 * @return Whether a download older than the last one handled is ignored, or null if not true or false.
+	 */
+	public Boolean getIgnoreOlder() {
+		if(ignoreOlder == null || "true".equalsIgnoreCase(ignoreOlder)) {
+			return Boolean.TRUE;
+		}
+		return "false".equalsIgnoreCase(ignoreOlder) ? Boolean.FALSE : null;
+	}
+	/**
+	 * @return The first (or only) target.
+	 */
 	public Path getTargetCredsPath() {
-		if(targetCredsPath == null) {
+		return getTargetCredsPaths().get(0);
+	}
+	public List<Path> getTargetCredsPaths() {
+		if(targetCredsPaths.isEmpty()) {
 			Path home = Paths.get(System.getProperty("user.home"));			
-			return home.resolve(".aws/credentials");				
+			return Collections.singletonList(home.resolve(".aws/credentials"));				
 		}
-		return targetCredsPath;
+		return targetCredsPaths;
+	}
+	/**
+	 * @param target
+	 * @return The type the target was given, or null if it is to be told by its name.
+	 */
+	public Type getTargetType(Path target) {
+		return targetTypes.get(target);
 	}
 	public Path getPropertiesPath() {
 		return propertiesPath;
 	}
+	public FsyncPolicy getFsyncPolicy() {
+		if(fsync == null) {
+			return FsyncPolicy.FILE_AND_DIRECTORY;
+		}
+		return FsyncPolicy.resolve(fsync);
+	}
+	public WriteStrategy getWriteStrategy() {
+		if(write == null) {
+			return WriteStrategy.REWRITE;
+		}
+		return WriteStrategy.resolve(write);
+	}
+	/**
+	 * @return The milliseconds to wait for the target file to be unlocked, or null if not a whole number of zero or more.
+	 */
+	public Long getLockTimeout() {
+		return lockTimeout == null ? Long.valueOf(CredentialsFileLock.DEFAULT_TIMEOUT) : getMillis(lockTimeout);
+	}
+	/**
+	 * @return The milliseconds to wait for more downloads before updating the target file, or null if not a whole number of zero or more.
+	 */
+	public Long getCoalesceWindow() {
+		return coalesce == null ? Long.valueOf(0) : getMillis(coalesce);
+	}
+	/**
+	 * @return The milliseconds a downloaded file must go without another event before it is handled, or null if not a whole number of zero or more.
+	 */
+	public Long getDebounce() {
+		return debounce == null ? Long.valueOf(FileWatcher.DEFAULT_QUIET_PERIOD) : getMillis(debounce);
+	}
+	/**
+	 * @return The most milliseconds the handling of a downloaded file that keeps changing is put off, or null if not a whole number of zero or more.
+	 */
+	public Long getDebounceMax() {
+		return debounceMax == null ? Long.valueOf(FileWatcher.DEFAULT_MAX_DELAY) : getMillis(debounceMax);
+	}
+	/**
+	 * @return The milliseconds a downloaded file must go unchanged to be taken as completely written, or null if not a whole number of zero or more.
+	 */
+	public Long getStablePeriod() {
+		return stable == null ? Long.valueOf(StableFileEventHandler.DEFAULT_STABLE_PERIOD) : getMillis(stable);
+	}
+	/**
+	 * @return The most milliseconds to wait for a downloaded file to be completely written, or null if not a whole number of zero or more.
+	 */
+	public Long getStableTimeout() {
+		return stableTimeout == null ? Long.valueOf(StableFileEventHandler.DEFAULT_TIMEOUT) : getMillis(stableTimeout);
+	}
+	/**
+	 * @return The point to restore the target file to (a transaction id or time), "list", or null to run normally.
+	 */
+	public String getRestore() {
+		return restore;
+	}
+	/**
+	 * Parse a millisecond argument given as a whole number of zero or more, ie: "2500". Surrounding whitespace is ignored, 
+	 * and there are no units or fractions. There is no default here: each getter supplies its own when the argument was not given.
+	 * @param value
+	 * @return The milliseconds, or null if the value is negative or not a whole number, which isValid reports as an invalid argument.
+	 */
+	private Long getMillis(String value) {
+		try {
+			long millis = Long.parseLong(value.trim());
+			return millis < 0 ? null : millis;
+		}
+		catch (NumberFormatException e) {
+			return null;
+		}
+	}
 	private boolean isValidPath(Path p) {
 		if(p == null)
 			return false;
@@ -67,13 +300,59 @@ class Args {
 	private boolean isNullOrInvalidFile(Path p) {
 		return p == null || Files.isRegularFile(p) == false;
 	}
+	private boolean isValidPattern() {
+		try {
+			getSourceMatcher();
+			return true;
+		}
+		catch (IllegalArgumentException e) {
+			// PatternSyntaxException is one of these.
+			return false;
+		}
+	}
 	public boolean isValid() {
 		if( ! isNullOrValidPath(sourceCredsPath))
 			msg.append("  - \"").append(String.valueOf(sourceCredsPath)).append("\" is an invalid source credentials path\n");
-		if( ! isNullOrValidPath(getTargetCredsPath()))
-			msg.append("  - \"").append(String.valueOf(getTargetCredsPath())).append("\" is an invalid target credentials path\n");
-		if(isNullOrInvalidFile(propertiesPath))
+		if(isSourcePattern()) {
+			if(sourceDirectory == null || ! Files.isDirectory(sourceDirectory))
+				msg.append("  - \"").append(String.valueOf(sourceDirectory)).append("\" is an invalid source credentials directory\n");
+			if( ! isValidPattern())
+				msg.append("  - \"").append(sourcePattern).append("\" is an invalid source credentials pattern\n");
+		}
+		if(getConsume() == null)
+			msg.append("  - \"").append(consume).append("\" is an invalid consume option (keep, delete or rotate)\n");
+		// Changes held for a coalesce window are made after the download has been handled, so it could be consumed before they are saved.
+		if(getConsume() != null && getConsume() != Consume.KEEP && getCoalesceWindow() != null && getCoalesceWindow() > 0)
+			msg.append("  - \"").append(consume).append("\" cannot be combined with a coalesce window, downloads are kept until their credentials are saved\n");
+		if(getWatchMode() == null)
+			msg.append("  - \"").append(watch).append("\" is an invalid watch mode (auto, native or poll)\n");
+		if(getIgnoreOlder() == null)
+			msg.append("  - \"").append(ignoreOlder).append("\" is an invalid ignore-older option (true or false)\n");
+		for(Path target : getTargetCredsPaths()) {
+			if( ! isNullOrValidPath(target))
+				msg.append("  - \"").append(String.valueOf(target)).append("\" is an invalid target credentials path\n");
+		}
+		// Restoring the target file needs no map file.
+		if(restore == null && isNullOrInvalidFile(propertiesPath))
 			msg.append("  - \"").append(String.valueOf(propertiesPath)).append("\" is an invalid map file\n");
+		if(getFsyncPolicy() == null)
+			msg.append("  - \"").append(fsync).append("\" is an invalid fsync policy (none, file or directory)\n");
+		if(getWriteStrategy() == null)
+			msg.append("  - \"").append(write).append("\" is an invalid write strategy (rewrite or patch)\n");
+		if(getLockTimeout() == null)
+			msg.append("  - \"").append(lockTimeout).append("\" is an invalid lock timeout (milliseconds)\n");
+		if(getCoalesceWindow() == null)
+			msg.append("  - \"").append(coalesce).append("\" is an invalid coalesce window (milliseconds)\n");
+		if(getDebounce() == null)
+			msg.append("  - \"").append(debounce).append("\" is an invalid debounce quiet period (milliseconds)\n");
+		if(getDebounceMax() == null)
+			msg.append("  - \"").append(debounceMax).append("\" is an invalid debounce max delay (milliseconds)\n");
+		if(getStablePeriod() == null)
+			msg.append("  - \"").append(stable).append("\" is an invalid stable period (milliseconds)\n");
+		if(getStableTimeout() == null)
+			msg.append("  - \"").append(stableTimeout).append("\" is an invalid stable timeout (milliseconds)\n");
+		if(restore != null && ! CredentialsFileJournal.isRestorePoint(restore))
+			msg.append("  - \"").append(restore).append("\" is an invalid restore point (list, a transaction id, or a time like 2024-01-31T09:00:00)\n");
 		return msg.length() == 0;
 	}
 	public void printUsage() {
@@ -81,9 +360,33 @@ class Args {
 				+ msg.toString() + ""
 				+ "USAGE:\n"
 				+ "java -jar AwsCredentials.jar \\\n"
-				+ "   source=path/to/the/source/credentials/file \\\n"
-				+ "   target=path/to/the/target/credentials/file \\\n"
-				+ "   map=path/to/the/aws_account_number/to/profile_name/mapping/properties/file \n"
-				+ "[Note: target is optional and will default to ~/.aws/credentials\n");
+				+ "   source=path/to/the/source/credentials/file|glob:path/to/the/download/directory/pattern|regex:path/to/the/download/directory/pattern \\\n"
+				+ "   target=[config:|credentials:]path/to/the/target/credentials/file \\\n"
+				+ "   map=path/to/the/aws_account_number/to/profile_name/mapping/properties/file \\\n"
+				+ "   fsync=none|file|directory \\\n"
+				+ "   write=rewrite|patch \\\n"
+				+ "   lock-timeout=milliseconds \\\n"
+				+ "   coalesce=milliseconds \\\n"
+				+ "   debounce=milliseconds \\\n"
+				+ "   debounce-max=milliseconds \\\n"
+				+ "   stable=milliseconds \\\n"
+				+ "   stable-timeout=milliseconds \\\n"
+				+ "   consume=keep|delete|rotate \\\n"
+				+ "   ignore-older=true|false \\\n"
+				+ "   watch=auto|native|poll \\\n"
+				+ "   restore=list|transaction-id|time \n"
+				+ "[Note: target is optional and will default to ~/.aws/credentials. Give it more than once to update several files at the same time\n"
+				+ "[Note: fsync is optional and will default to directory (the updated target file is on disk before it is reported as updated)\n"
+				+ "[Note: write is optional and will default to rewrite (the target file is replaced whole, atomically)\n"
+				+ "[Note: lock-timeout is optional and will default to 10000 (how long to wait for another update of the target file to finish)\n"
+				+ "[Note: coalesce is optional and will default to 0 (how long to wait for more downloads, so the target file is written once for all of them)\n"
+				+ "[Note: debounce is optional and will default to 250 (how long a download must go unchanged before it is handled, so saving it is handled once)\n"
+				+ "[Note: debounce-max is optional and will default to 2000 (the longest a download that keeps changing is left unhandled)\n"
+				+ "[Note: stable is optional and will default to 500 (how long a download must go unchanged to be taken as completely written, unless it already holds complete credentials)\n"
+				+ "[Note: stable-timeout is optional and will default to 10000 (how long to wait for a download to be completely written before skipping it)\n"
+				+ "[Note: consume is optional and will default to keep. For a source pattern, delete or rotate (move into a \"consumed\" subdirectory) each download once handled\n"
+				+ "[Note: ignore-older is optional and will default to true. For a source pattern, skip a download older than the last one handled\n"
+				+ "[Note: watch is optional and will default to auto (poll for downloads on a network or shared file system, where the file system does not tell of them)\n"
+				+ "[Note: restore is optional. It restores the target file to how it was at an earlier point recorded in its journal (restore=list shows them) and exits\n");
 	}
 }
\ No newline at end of file
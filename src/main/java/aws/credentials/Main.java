@@ -1,27 +1,38 @@
 package aws.credentials;
 
+import java.io.IOException;
 import java.nio.file.FileSystems;
+import java.nio.file.Path;
 
 import aws.credentials.file.CredentialsFileEventHandler;
+import aws.credentials.file.CredentialsFileJournal;
 import aws.credentials.file.FileEventHandler;
 import aws.credentials.file.FileWatcher;
+import aws.credentials.file.NewestFileEventHandler;
+import aws.credentials.file.PollingFileWatcher;
+import aws.credentials.file.StableFileEventHandler;
+import aws.credentials.file.Watcher;
+import aws.credentials.file.Watcher.Mode;
 import aws.credentials.profile.NamedProfileMapper;
 
 /**
  * This is the main method for this application. Provided are three args:
  *   1) The path of the properties file that maps aws account numbers to profile names.
- *   2) The path of the credentials file whose content changes from downloads.
+ *   2) The path of the credentials file whose content changes from downloads, or a glob or regex pattern for the downloaded files.
  *   3) [Optional] The path of the credentials file that contains the named profiles to be modified by the new downloaded content.
- *      Defaults to ~/.aws/credentials
+ *      Defaults to ~/.aws/credentials. Can be given more than once, in which case every target is updated at the same time.
+ * On startup, any update of a target credentials file that a crash left half done is finished from its journal first.
+ * Given a restore arg, the target credentials files are restored from its journal instead, and the application exits.
+ * Downloads are watched for as the file system tells of them, or polled for where it would not (see Watcher.Mode).
  * Execution should be continuous and only exit in the event of an exception, or the process thread is terminated manually.
  * @author wrh
  *
  */
 public class Main {
 
-	static FileWatcher watcher;
+	static Watcher watcher;
 	static Thread watcherThread;
-	static FileEventHandler handler;
+	static CredentialsFileEventHandler handler;
 	
 	public static void main(String[] argArray) {
 
@@ -32,27 +43,114 @@ public class Main {
 			return;
 		}
 				
+		if(args.getRestore() != null) {
+			for(Path target : args.getTargetCredsPaths()) {
+				restore(journal(target, args), target, args);
+			}
+			return;
+		}
+		
 		try {
-			handler = new CredentialsFileEventHandler(
+			CredentialsFileEventHandler handler = new CredentialsFileEventHandler(
 					FileSystems.getDefault(), 
-					args.getTargetCredsPath(), 
-					new NamedProfileMapper(args.getPropertiesPath()));
+					new NamedProfileMapper(args.getPropertiesPath()))
+					.setFsyncPolicy(args.getFsyncPolicy())
+					.setWriteStrategy(args.getWriteStrategy())
+					.setLockTimeout(args.getLockTimeout())
+					.setCoalesceWindow(args.getCoalesceWindow());
 			
-			watcher = new FileWatcher(
-					args.getSourceCredsPath(), 
-					handler, 
-					FileSystems.getDefault());
+			for(Path target : args.getTargetCredsPaths()) {
+				CredentialsFileJournal journal = journal(target, args);
+				try {
+					journal.recover(args.getFsyncPolicy(), args.getLockTimeout());
+				}
+				catch (Exception e) {
+					// Keep going: downloads can still be handled, and recovery is tried again on the next start.
+					System.err.format("Could not recover \"%s\" from its journal\n", target);
+					e.printStackTrace();
+				}
+				handler.addTarget(target, args.getTargetType(target), journal);
+			}
+			Main.handler = handler;
+			
+			// Downloads are only read once the browser has finished writing them.
+			if(args.isSourcePattern()) {
+				NewestFileEventHandler newest = new NewestFileEventHandler(args.getSourceDirectory(), args.getSourceMatcher(), handler)
+						.setConsume(args.getConsume())
+						.setIgnoreOlder(args.getIgnoreOlder());
+				watcher = watcher(args, args.getSourceDirectory());
+				watcher.watch(args.getSourceDirectory(), newest::matches, stable(newest, args));
+			}
+			else {
+				Path source = args.getSourceCredsPath();
+				watcher = watcher(args, source.getParent());
+				watcher.watch(source, stable(handler, args));
+			}
 			
 			watcherThread = new Thread(watcher);
 			
+			Runtime.getRuntime().addShutdownHook(new Thread(Main::stop));
+			
 			watcherThread.start();				
 		} 
 		catch (Exception e) {
 			e.printStackTrace();
-			if(watcher != null) {
-				watcher.setStop();
+			stop();
+		}
+	}
+	
+	/**
+	 * Stop watching for downloads, and let the updates of the target files under way finish.
+	 */
+	static void stop() {
+		if(watcher != null) {
+			watcher.setStop();
+		}
+		if(handler != null) {
+			handler.close();
+		}
+	}
+	
+	/**
+	 * Create the watcher for the download directory: told of downloads by the file system, or polling for them where it would not be.
+	 */
+	private static Watcher watcher(Args args, Path directory) throws IOException {
+		Mode mode = args.getWatchMode().select(directory);
+		if(mode == Mode.POLL) {
+			System.out.format("Polling \"%s\" for downloads\n", directory);
+			return new PollingFileWatcher();
+		}
+		return new FileWatcher(FileSystems.getDefault())
+				.setQuietPeriod(args.getDebounce())
+				.setMaxDelay(args.getDebounceMax());
+	}
+	
+	private static FileEventHandler stable(FileEventHandler handler, Args args) {
+		return new StableFileEventHandler(handler)
+				.setStablePeriod(args.getStablePeriod())
+				.setTimeout(args.getStableTimeout());
+	}
+	
+	private static CredentialsFileJournal journal(Path target, Args args) {
+		CredentialsFileJournal journal = new CredentialsFileJournal(target);
+		if(args.getTargetType(target) != null) {
+			journal.setType(args.getTargetType(target));
+		}
+		return journal;
+	}
+	
+	private static void restore(CredentialsFileJournal journal, Path target, Args args) {
+		try {
+			if(CredentialsFileJournal.LIST.equalsIgnoreCase(args.getRestore())) {
+				journal.list(System.out);
+			}
+			else if( ! journal.restore(args.getRestore(), args.getFsyncPolicy(), args.getLockTimeout())) {
+				System.out.format("\"%s\" is already as it was at %s\n", target, args.getRestore());
 			}
 		}
+		catch (Exception e) {
+			e.printStackTrace();
+		}
 	}
 
 }
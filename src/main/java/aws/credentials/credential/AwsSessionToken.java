@@ -3,12 +3,17 @@ package aws.credentials.credential;
 import aws.credentials.profile.NameValuePairProfileDecorator;
 import aws.credentials.profile.NamedProfileElement;
 import aws.credentials.util.BasicNameValuePair;
+import aws.credentials.util.NameValuePair;
 
 public class AwsSessionToken extends NameValuePairProfileDecorator {
 	
 	public AwsSessionToken(String rawText) {
 		super(new BasicNameValuePair(rawText));
 	}
+	
+	public AwsSessionToken(NameValuePair nvp) {
+		super(nvp);
+	}
 
 	@Override
 	public boolean isRecognized() {
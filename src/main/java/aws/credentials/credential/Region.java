@@ -3,12 +3,17 @@ package aws.credentials.credential;
 import aws.credentials.profile.NameValuePairProfileDecorator;
 import aws.credentials.profile.NamedProfileElement;
 import aws.credentials.util.BasicNameValuePair;
+import aws.credentials.util.NameValuePair;
 
 public class Region extends NameValuePairProfileDecorator {
 	
 	public Region(String rawText) {
 		super(new BasicNameValuePair(rawText));
 	}
+	
+	public Region(NameValuePair nvp) {
+		super(nvp);
+	}
 
 	@Override
 	public boolean isRecognized() {
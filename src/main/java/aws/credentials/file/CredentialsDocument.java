@@ -0,0 +1,480 @@
+package aws.credentials.file;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import aws.credentials.file.CredentialsFile.Type;
+import aws.credentials.profile.NamedProfile;
+import aws.credentials.profile.NamedProfileParser;
+import aws.credentials.profile.NamedProfileParser.Section;
+import aws.credentials.util.Fingerprint;
+
+/**
+ * A lossless model of the text of a ~/.aws/config or ~/.aws/credentials file.
+ *
+ * The original text is kept as is and divided into segments: anything before the first named profile (comments, blank lines, etc.),
+ * followed by one segment per named profile that runs from its header line up to the next one. Comment lines directly above a header
+ * lead the segment of the profile they describe rather than trail the one before them. Each profile segment remembers the version of
+ * its profile when it was parsed, so the document can tell which profiles have since been modified.
+ * In lazy mode only the header lines are parsed up front, so a profile that is never looked into is never parsed at all.
+ * When the document is written out, unmodified segments are copied from the original text byte for byte, and only the segments of
+ * modified, added or removed profiles differ. A modified profile is written out in the line endings of the original text and keeps the
+ * comments that lead it and the blank lines that trail it.
+ *
+ * @author wrh
+ *
+ */
+public class CredentialsDocument {
+
+	private CharSequence text;
+	private String lineSeparator;
+	private List<Segment> segments = new ArrayList<Segment>();
+	private boolean restructured;
+	private Long sourceFingerprint;
+	private long byteLength = -1;
+
+	public CredentialsDocument(CharSequence text, Type type) {
+		this(text, type, false);
+	}
+
+	/**
+	 * @param text
+	 * @param type
+	 * @param lazy Only look for headers now, and leave each profile to parse its own lines the first time they are needed.
+	 */
+	public CredentialsDocument(CharSequence text, Type type, boolean lazy) {
+		this.text = text == null ? "" : text;
+		this.lineSeparator = detectLineSeparator(this.text);
+		int position = 0;
+		for(Section section : new NamedProfileParser(type, lazy).parseSections(this.text)) {
+			if(section.getStart() > position) {
+				segments.add(new Segment(position, section.getStart(), section.getStart(), null));
+			}
+			segments.add(new Segment(section.getStart(), section.getHeaderStart(), section.getEnd(), section.getProfile()));
+			position = section.getEnd();
+		}
+		if(position < this.text.length()) {
+			// The text has no named profiles in it at all.
+			segments.add(new Segment(position, this.text.length(), this.text.length(), null));
+		}
+	}
+
+	/**
+	 * Use the line ending of the first line of the text, or that of the platform if the text has only one line.
+	 */
+	private static String detectLineSeparator(CharSequence text) {
+		for(int i = 0; i < text.length(); i++) {
+			if(text.charAt(i) == '\n') {
+				return i > 0 && text.charAt(i - 1) == '\r' ? "\r\n" : "\n";
+			}
+		}
+		return System.lineSeparator();
+	}
+
+	/**
+	 * Get every named profile in the document in the order they appear, including any that share a name with one before it.
+	 * @return
+	 */
+	public List<NamedProfile> getProfiles() {
+		List<NamedProfile> profiles = new ArrayList<NamedProfile>();
+		for(Segment segment : segments) {
+			if(segment.profile != null) {
+				profiles.add(segment.profile);
+			}
+		}
+		return profiles;
+	}
+
+	/**
+	 * Add a named profile to the end of the document.
+	 * @param np
+	 */
+	public void append(NamedProfile np) {
+		segments.add(new Segment(-1, -1, -1, np));
+		restructured = true;
+	}
+
+	/**
+	 * Remove a named profile from the document, along with the comments that lead it and the blank lines that trail it.
+	 * @param np
+	 * @return
+	 */
+	public boolean remove(NamedProfile np) {
+		for(int i = 0; i < segments.size(); i++) {
+			if(segments.get(i).profile == np) {
+				segments.remove(i);
+				restructured = true;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Indicates whether writing the document out would produce anything other than the original text.
+	 * @return
+	 */
+	public boolean isDirty() {
+		if(restructured) {
+			return true;
+		}
+		for(Segment segment : segments) {
+			if(segment.isDirty()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Indicates whether writing the document out would produce different text from the original. Unlike isDirty, modifications that leave 
+	 * the content as it was (ie: a named profile updated with the values it already had) do not count. The two are compared by fingerprint.
+	 * @return
+	 */
+	public boolean isChanged() {
+		return isDirty() && getFingerprint() != getSourceFingerprint();
+	}
+
+	/**
+	 * Indicates whether the only changes to the document are named profiles added to the end of it, so that writing it out amounts to
+	 * appending them to the original text.
+	 * @return
+	 */
+	public boolean isAppendOnly() {
+		int position = 0;
+		boolean appended = false;
+		for(Segment segment : segments) {
+			if(segment.isOriginal() == false) {
+				appended = true;
+			}
+			else if(appended || segment.isDirty() || segment.start != position) {
+				return false;
+			}
+			else {
+				position = segment.end;
+			}
+		}
+		return appended && position == text.length();
+	}
+
+	/**
+	 * Get the fingerprint of the document as it would be written out.
+	 * @return
+	 */
+	public long getFingerprint() {
+		if(isDirty() == false) {
+			return getSourceFingerprint();
+		}
+		Fingerprint fingerprint = new Fingerprint();
+		try {
+			write(fingerprint);
+		}
+		catch (IOException e) {
+			// Fingerprint does not throw IOException
+			throw new RuntimeException(e);
+		}
+		return fingerprint.getValue();
+	}
+
+	/**
+	 * Get the fingerprint of the original text.
+	 * @return
+	 */
+	public long getSourceFingerprint() {
+		if(sourceFingerprint == null) {
+			sourceFingerprint = Fingerprint.of(text);
+		}
+		return sourceFingerprint;
+	}
+
+	/**
+	 * Indicates whether the named profile was added to the document or has been modified since it was parsed.
+	 * @param np
+	 * @return
+	 */
+	public boolean isDirty(NamedProfile np) {
+		for(Segment segment : segments) {
+			if(segment.profile == np) {
+				return segment.isDirty();
+			}
+		}
+		return false;
+	}
+
+	public String getLineSeparator() {
+		return lineSeparator;
+	}
+
+	/**
+	 * Write the document out, copying the original text of every segment that has not changed.
+	 * @param out
+	 * @throws IOException
+	 */
+	public void write(Appendable out) throws IOException {
+		write(out, 0, segments.size());
+	}
+
+	/**
+	 * Write out the segments from index from (inclusive) to index to (exclusive). The segments before from must all be clean.
+	 */
+	private void write(Appendable out, int from, int to) throws IOException {
+		// The number of line breaks at the end of what has been written so far (-1 if nothing has been written).
+		int trailingBreaks = -1;
+		for(int i = 0; i < to; i++) {
+			Segment segment = segments.get(i);
+			if(segment.isDirty() == false) {
+				if(i >= from) {
+					out.append(text, segment.start, segment.end);
+				}
+				trailingBreaks = trailingBreaks(text, segment.start, segment.end, trailingBreaks);
+				continue;
+			}
+			String rendered = render(segment.profile);
+			if(rendered == null) {
+				continue;
+			}
+			if(segment.isOriginal()) {
+				// Keep any comments that lead the profile header.
+				out.append(text, segment.start, segment.headerStart);
+				out.append(rendered);
+				// Keep the blank lines that separated the profile from whatever followed it.
+				int contentEnd = segment.end;
+				while(contentEnd > segment.headerStart && text.charAt(contentEnd - 1) <= ' ') {
+					contentEnd--;
+				}
+				out.append(text, contentEnd, segment.end);
+				trailingBreaks = trailingBreaks(text, contentEnd, segment.end, 0);
+			}
+			else {
+				// A new profile is set apart from what precedes it by a blank line.
+				for(int breaks = Math.max(trailingBreaks, 0); trailingBreaks >= 0 && breaks < 2; breaks++) {
+					out.append(lineSeparator);
+				}
+				out.append(rendered).append(lineSeparator);
+				trailingBreaks = 1;
+			}
+		}
+	}
+
+	/**
+	 * Get the smallest single write that turns the original text, as UTF-8 bytes, into the document as it would be written out.
+	 * Everything before the first segment that was modified, added or removed (or that follows a removed one) is left alone. 
+	 * If the document is the same length as the original, so is everything after the last such segment. Otherwise the rest of the 
+	 * document from the first change on is written, shifting whatever follows it.
+	 * @return
+	 */
+	public Patch getPatch() {
+		indexBytes();
+		// Where the output first departs from the original text.
+		int first = 0;
+		int position = 0;
+		long bytePosition = 0;
+		for(; first < segments.size(); first++) {
+			Segment segment = segments.get(first);
+			if(segment.isDirty() || segment.start != position) {
+				break;
+			}
+			position = segment.end;
+			bytePosition = segment.byteEnd;
+		}
+		if(first == segments.size() && position == text.length()) {
+			return new Patch(byteLength, ByteBuffer.allocate(0), byteLength, byteLength, ByteBuffer.allocate(0));
+		}
+		// Where the output last departs from the original text: the clean segments at the end are written out as they already are.
+		int last = segments.size();
+		int end = text.length();
+		long byteEnd = byteLength;
+		for(; last > first; last--) {
+			Segment segment = segments.get(last - 1);
+			if(segment.isDirty() || segment.end != end) {
+				break;
+			}
+			end = segment.start;
+			byteEnd = segment.byteStart;
+		}
+		StringBuilder changed = new StringBuilder();
+		try {
+			write(changed, first, last);
+		}
+		catch (IOException e) {
+			// StringBuilder does not throw IOException
+			throw new RuntimeException(e);
+		}
+		ByteBuffer bytes = StandardCharsets.UTF_8.encode(CharBuffer.wrap(changed));
+		if(bytes.remaining() == byteEnd - bytePosition) {
+			return new Patch(bytePosition, bytes, byteLength, byteLength, StandardCharsets.UTF_8.encode(CharBuffer.wrap(text, position, end)));
+		}
+		// The changes are not the same length as what they replace, so everything after them shifts.
+		ByteBuffer tail = StandardCharsets.UTF_8.encode(CharBuffer.wrap(text, end, text.length()));
+		ByteBuffer shifted = ByteBuffer.allocate(bytes.remaining() + tail.remaining());
+		shifted.put(bytes).put(tail).flip();
+		return new Patch(bytePosition, shifted, bytePosition + shifted.remaining(), byteLength, StandardCharsets.UTF_8.encode(CharBuffer.wrap(text, position, text.length())));
+	}
+
+	/**
+	 * Find the offset and length in UTF-8 bytes of every original segment (and of the original text), in one pass over the text.
+	 * This is put off until a patch is asked for, since for most uses of a document the character offsets are all that matter.
+	 */
+	private void indexBytes() {
+		if(byteLength >= 0) {
+			return;
+		}
+		int position = 0;
+		long bytes = 0;
+		for(Segment segment : segments) {
+			if(segment.isOriginal()) {
+				bytes += utf8Length(text, position, segment.start);
+				segment.byteStart = bytes;
+				bytes += utf8Length(text, segment.start, segment.end);
+				segment.byteEnd = bytes;
+				position = segment.end;
+			}
+		}
+		byteLength = bytes + utf8Length(text, position, text.length());
+	}
+
+	private static long utf8Length(CharSequence text, int start, int end) {
+		long length = 0;
+		for(int i = start; i < end; i++) {
+			char c = text.charAt(i);
+			if(c < 0x80) {
+				length++;
+			}
+			else if(c < 0x800 || Character.isSurrogate(c)) {
+				// Each half of a surrogate pair accounts for 2 of the 4 bytes of the character.
+				length += 2;
+			}
+			else {
+				length += 3;
+			}
+		}
+		return length;
+	}
+
+	private String render(NamedProfile np) {
+		String raw = np.rawString();
+		if(raw == null) {
+			return null;
+		}
+		return "\n".equals(lineSeparator) ? raw : raw.replace("\n", lineSeparator);
+	}
+
+	/**
+	 * Count the line breaks at the end of a region of text, ignoring any other whitespace between them.
+	 * If the region is nothing but whitespace, its line breaks add to those that preceded it.
+	 */
+	private static int trailingBreaks(CharSequence text, int start, int end, int preceding) {
+		int breaks = 0;
+		for(int i = end - 1; i >= start; i--) {
+			char c = text.charAt(i);
+			if(c == '\n') {
+				breaks++;
+			}
+			else if(c > ' ') {
+				return breaks;
+			}
+		}
+		return Math.max(preceding, 0) + breaks;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(text.length());
+		try {
+			write(sb);
+		}
+		catch (IOException e) {
+			// StringBuilder does not throw IOException
+			throw new RuntimeException(e);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * A region of the original text, start inclusive and end exclusive, and the named profile parsed from it if any.
+	 * Segments for named profiles added after the document was parsed have no region.
+	 *
+	 * @author wrh
+	 *
+	 */
+	private static class Segment {
+		private int start;
+		private int headerStart;
+		private int end;
+		private NamedProfile profile;
+		private int version;
+		private long byteStart;
+		private long byteEnd;
+
+		private Segment(int start, int headerStart, int end, NamedProfile profile) {
+			this.start = start;
+			this.headerStart = headerStart;
+			this.end = end;
+			this.profile = profile;
+			if(profile != null) {
+				this.version = profile.getVersion();
+			}
+		}
+
+		private boolean isOriginal() {
+			return start >= 0;
+		}
+
+		private boolean isDirty() {
+			if(profile == null) {
+				return false;
+			}
+			return isOriginal() == false || profile.getVersion() != version;
+		}
+	}
+
+	/**
+	 * Bytes to write at a position in a file holding the original text (originalLength bytes long), after which the file is length bytes long.
+	 *
+	 * @author wrh
+	 *
+	 */
+	public static class Patch {
+
+		private long position;
+		private ByteBuffer bytes;
+		private long length;
+		private long originalLength;
+		private ByteBuffer originalBytes;
+
+		private Patch(long position, ByteBuffer bytes, long length, long originalLength, ByteBuffer originalBytes) {
+			this.position = position;
+			this.bytes = bytes;
+			this.length = length;
+			this.originalLength = originalLength;
+			this.originalBytes = originalBytes;
+		}
+
+		public long getPosition() {
+			return position;
+		}
+
+		public ByteBuffer getBytes() {
+			return bytes;
+		}
+
+		public long getLength() {
+			return length;
+		}
+
+		public long getOriginalLength() {
+			return originalLength;
+		}
+
+		/**
+		 * @return The bytes of the original text that the patch writes over, from its position on (none for an append).
+		 */
+		public ByteBuffer getOriginalBytes() {
+			return originalBytes;
+		}
+	}
+}
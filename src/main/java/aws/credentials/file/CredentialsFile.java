@@ -1,79 +1,119 @@
 package aws.credentials.file;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
+import java.nio.file.OpenOption;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.WatchEvent.Kind;
 import java.nio.file.WatchEvent.Modifier;
 import java.nio.file.WatchKey;
 import java.nio.file.WatchService;
 import java.nio.file.Watchable;
+import java.nio.file.attribute.FileTime;
 import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.LinkedHashSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.function.Consumer;
 
 import aws.credentials.profile.NamedProfile;
-import aws.credentials.profile.NamedProfileHeader;
+import aws.credentials.util.ChannelWriter;
 import aws.credentials.util.Utils;
 
 /**
  * This class represents a configuration file where named profiles can be stored, such as ~/.aws/config or ~/.aws/credentials.
- * It concerns itself with the named profiles only.
+ * It concerns itself with the named profiles only, but everything else in the file (comments, blank lines, line endings) is kept 
+ * by its CredentialsDocument, so persisting the file only changes the named profiles that were added, removed or modified.
  * 
  * @author wrh
  *
  */
 public class CredentialsFile implements Watchable {
 	
-	private List<String> rawTextLines = new ArrayList<String>();
+	/**
+	 * The key of the default profile in the index. Being an Object rather than a String, it cannot collide with any profile name.
+	 */
+	private static final Object DEFAULT_KEY = new Object();
+	
+	private CredentialsDocument document;
 	private Path credentialsFile;
-	private LinkedHashSet<NamedProfile> namedProfiles = new LinkedHashSet<NamedProfile>();
+	/**
+	 * Named profiles in the order they appear in the file, indexed by profile name, with the default profile under DEFAULT_KEY.
+	 * Profiles are indexed by name rather than hashed by content, since their content changes with updates.
+	 */
+	private LinkedHashMap<Object, NamedProfile> namedProfiles = new LinkedHashMap<Object, NamedProfile>();
+	private Consumer<NamedProfile> nameChangeListener = np -> reindex();
 	private Type type;
+	/**
+	 * Whether the file was read through a memory mapping, which on windows keeps it from being truncated until the mapping is garbage collected.
+	 */
+	private boolean mapped;
+	/**
+	 * When the file was last modified as of reading it, taken before it was read so that a change made while reading it shows too.
+	 */
+	private FileTime readModified;
 	
 	public CredentialsFile(Path credentialsFile) {
+		this(credentialsFile, ReadMode.STREAM);
+	}
+	
+	public CredentialsFile(Path credentialsFile, ReadMode readMode) {
+		this(credentialsFile, readMode, false);
+	}
+	
+	/**
+	 * @param credentialsFile
+	 * @param readMode
+	 * @param lazy Only find the named profile headers now. The lines of each named profile are parsed the first time its content 
+	 * is asked for (ie: through get, getDefault, update), and named profiles that are never looked into are persisted exactly as read.
+	 */
+	public CredentialsFile(Path credentialsFile, ReadMode readMode, boolean lazy) {
+		this(credentialsFile, readMode, lazy, null);
+	}
+	
+	/**
+	 * @param credentialsFile
+	 * @param readMode
+	 * @param lazy
+	 * @param type The type of the file, or null to tell by its name (see Type.resolve).
+	 */
+	public CredentialsFile(Path credentialsFile, ReadMode readMode, boolean lazy, Type type) {
 		this.credentialsFile = credentialsFile;
-		this.rawTextLines.addAll(Utils.readLines(this.credentialsFile));
-		this.type = Type.resolve(credentialsFile);
-		initialize();
+		this.type = type == null ? Type.resolve(credentialsFile) : type;
+		this.mapped = readMode == ReadMode.MAPPED;
+		this.readModified = getLastModifiedTime(credentialsFile);
+		initialize(readMode.read(credentialsFile), lazy);
 	}
 
 	public CredentialsFile(String rawText, Type type) {
-		this.rawTextLines.addAll(Utils.readLines(rawText));
+		this(rawText, type, false);
+	}
+	
+	public CredentialsFile(String rawText, Type type, boolean lazy) {
 		this.type = type;
-		initialize();
+		initialize(rawText, lazy);
 	}
 	
 	public CredentialsFile(InputStream in, Type type) {
-		this.rawTextLines.addAll(Utils.readLines(in));
-		initialize();
-	}
-	
-	private void initialize() {
-		List<String> namedProfileLines = new ArrayList<String>();
-		for (Iterator<String> iterator = rawTextLines.iterator(); iterator.hasNext();) {
-			String line = (String) iterator.next();
-			if( ! line.isBlank()) {
-				if(new NamedProfileHeader(line, type).isHeader()) {
-					if( ! namedProfileLines.isEmpty()) {
-						addNamedProfile(namedProfileLines);
-						namedProfileLines.clear();
-					}
-				}
-				else if(namedProfileLines.isEmpty()) {
-					// A non-header line was encountered before the first named profile header in the file.
-					// The line must be a comment or something not part of a named profile, so skip it.
-					continue;
-				}
-				namedProfileLines.add(line);
-			}
-			if( ! iterator.hasNext() && namedProfileLines.isEmpty() == false) {
-				addNamedProfile(namedProfileLines);
-			}
+		this.type = type;
+		initialize(Utils.readText(in), false);
+	}
+	
+	private void initialize(CharSequence rawText, boolean lazy) {
+		document = new CredentialsDocument(rawText, type, lazy);
+		for(NamedProfile np : document.getProfiles()) {
+			// A duplicate stays in the document, so it is written back out as it was, but it cannot be looked up.
+			index(np);
 		}
 	}
 	
@@ -82,57 +122,90 @@ public class CredentialsFile implements Watchable {
 	}
 	
 	public boolean addNamedProfile(NamedProfile np) {
-		if( ! namedProfiles.add(np)) {
-			System.out.println(String.format("The named profile %s was encountered more than once!", np.getName()));
+		if( ! index(np)) {
 			return false;
 		}
+		document.append(np);
 		return true;
 	}
 	
+	/**
+	 * Add a named profile to the index unless a profile by the same name is already there, in which case that is reported.
+	 * @param np
+	 * @return
+	 */
+	private boolean index(NamedProfile np) {
+		Object key = keyOf(np);
+		if(namedProfiles.containsKey(key)) {
+			System.err.format("The named profile %s was encountered more than once!\n", np.getName());
+			return false;
+		}
+		namedProfiles.put(key, np);
+		np.addNameChangeListener(nameChangeListener);
+		return true;
+	}
+	
+	/**
+	 * Rebuild the index after a named profile has been renamed, keeping the order of the profiles.
+	 * If the new name collides with another profile, the profile that appears first in the file is kept.
+	 */
+	private void reindex() {
+		List<NamedProfile> profiles = new ArrayList<NamedProfile>(namedProfiles.values());
+		namedProfiles.clear();
+		for(NamedProfile np : profiles) {
+			if( ! index(np)) {
+				np.removeNameChangeListener(nameChangeListener);
+			}
+		}
+	}
+	
+	private static Object keyOf(NamedProfile np) {
+		return np.isDefault() ? DEFAULT_KEY : np.getName();
+	}
+	
+	
+	CredentialsDocument getDocument() {
+		return document;
+	}
 	
 	public Path getPath() {
 		return credentialsFile;
 	}
 
+	/**
+	 * Get the content of the file as it would be persisted: the original text, with only the named profiles that were added, removed or modified differing.
+	 */
 	@Override
 	public String toString() {
-		StringBuilder builder = new StringBuilder();
-		for (Iterator<NamedProfile> iterator = namedProfiles.iterator(); iterator.hasNext();) {
-			NamedProfile namedProfile = (NamedProfile) iterator.next();
-			builder.append(namedProfile.rawString());
-			if(iterator.hasNext()) {
-				builder.append("\n\n");
-			}
-		}
-		return builder.toString();
+		return document.toString();
+	}
+	
+	/**
+	 * Indicates whether persisting the file would change it: named profiles were added, removed or modified since the file was read,
+	 * and not just modified back to what they were.
+	 * @return
+	 */
+	public boolean isModified() {
+		return document.isChanged();
 	}
 
-	public Set<NamedProfile> getNamedProfiles() {
-		return namedProfiles;
+	public Collection<NamedProfile> getNamedProfiles() {
+		return Collections.unmodifiableCollection(namedProfiles.values());
 	}
 
 	public NamedProfile get(String profileName) {
-		for (Iterator<NamedProfile> iterator = namedProfiles.iterator(); iterator.hasNext();) {
-			NamedProfile np = (NamedProfile) iterator.next();
-			if(np.getName() != null && np.getName().equals(profileName)) {
-				return np;
-			}
+		if(profileName == null) {
+			return null;
 		}
-		return null;
+		return namedProfiles.get(profileName);
 	}
 
 	public NamedProfile getDefault() {
-		for (Iterator<NamedProfile> iterator = namedProfiles.iterator(); iterator.hasNext();) {
-			NamedProfile np = (NamedProfile) iterator.next();
-			if(np.isDefault()) {
-				return np;
-			}
-		}
-		return null;
+		return namedProfiles.get(DEFAULT_KEY);
 	}
 	
 	public NamedProfile getFirst() {
-		return namedProfiles.iterator().next();
+		return namedProfiles.values().iterator().next();
 	}
 	
 	public boolean has(String profileName) {
@@ -148,12 +221,11 @@ public class CredentialsFile implements Watchable {
 	}
 	
 	public void remove(String profileName) {
-		for (Iterator<NamedProfile> iterator = namedProfiles.iterator(); iterator.hasNext();) {
-			NamedProfile np = (NamedProfile) iterator.next();
-			if(np.getName().equals(profileName)) {
-				iterator.remove();
-				break;
-			}
+		NamedProfile np = get(profileName);
+		if(np != null) {
+			namedProfiles.remove(profileName);
+			np.removeNameChangeListener(nameChangeListener);
+			document.remove(np);
 		}
 	}
 	
@@ -174,21 +246,16 @@ public class CredentialsFile implements Watchable {
 	}	
 
 	private void change(String profileName, NamedProfile namedProfile, boolean replace) {
-		for (Iterator<NamedProfile> iterator = namedProfiles.iterator(); iterator.hasNext();) {
-			NamedProfile np = (NamedProfile) iterator.next();
-			if(np.isDefault()) {
-				if(profileName == null) {
-					change(np, namedProfile, replace);
-					return;
-				}
-			}
-			else if(np.getName().equals(profileName)) {
-				change(np, namedProfile, replace);				
-				return;
-			}
+		NamedProfile np = profileName == null ? getDefault() : get(profileName);
+		if(np != null) {
+			// A swap can rename np, in which case its name change listener keeps the index current.
+			change(np, namedProfile, replace);
+			return;
 		}
 		// No matching profile was found to replace, so just add it.
-		namedProfiles.add(namedProfile);
+		if(index(namedProfile)) {
+			document.append(namedProfile);
+		}
 	}
 	
 	private void change(NamedProfile oldprof, NamedProfile newprof, boolean replace) {
@@ -201,8 +268,190 @@ public class CredentialsFile implements Watchable {
 
 	}
 
+	/**
+	 * Write the file content out as UTF-8 and close the stream. Named profiles that were not changed are written exactly as they were read.
+	 * @param out
+	 */
 	public void persist(OutputStream out) {
-		Utils.readWriteLines(new ByteArrayInputStream(this.toString().getBytes()), out);
+		try(WritableByteChannel channel = Channels.newChannel(out)) {
+			persist(channel);
+		}
+		catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Write the file content out to a channel as UTF-8 through a ChannelWriter, without closing the channel. 
+	 * Named profiles that were not changed are written exactly as they were read, straight from the bytes read if they were all ASCII.
+	 * @param channel
+	 * @throws IOException
+	 */
+	public void persist(WritableByteChannel channel) throws IOException {
+		try(ChannelWriter writer = new ChannelWriter(channel)) {
+			document.write(writer);
+		}
+	}
+
+	/**
+	 * Replace the file on disk with the file content, so that any reader (ie: the aws cli) sees either all of the old content or all of the new.
+	 * The content is written to a temporary file beside this one, which is then renamed over it with an atomic move. A crash at any point 
+	 * leaves the original file in place (and possibly a stray temporary file, which is never read).
+	 * The fsync policy decides what must reach the disk before this returns. See FsyncPolicy.
+	 * @param fsync
+	 * @throws IOException
+	 */
+	public void persist(FsyncPolicy fsync) throws IOException {
+		if(credentialsFile == null) {
+			throw new IOException("Credentials file has no path to persist to");
+		}
+		// Replace the file a symbolic link points to, not the link.
+		Path target = Files.isSymbolicLink(credentialsFile) ? credentialsFile.toRealPath() : credentialsFile.toAbsolutePath();
+		Path directory = target.getParent();
+		Path temp = Files.createTempFile(directory, "." + target.getFileName(), ".tmp");
+		try {
+			try(FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+				persist(channel);
+				if(fsync != FsyncPolicy.NONE) {
+					channel.force(true);
+				}
+			}
+			copyPermissions(target, temp);
+			try {
+				// Whether an atomic move replaces an existing file is left to the file system, so ask for that too.
+				Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			}
+			catch(AtomicMoveNotSupportedException e) {
+				System.err.format("Atomic move not supported, replacing \"%s\" non-atomically\n", target);
+				Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+			if(fsync == FsyncPolicy.FILE_AND_DIRECTORY) {
+				forceDirectory(directory);
+			}
+		}
+		finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+	
+	/**
+	 * Persist the file with the supplied write strategy. See WriteStrategy.
+	 * Whatever the strategy, when the only change to the file is named profiles added to it (ie: a profile downloaded for the first time),
+	 * they are appended to the end of the file, without truncating it or writing out any of the named profiles already in it. 
+	 * Existing named profiles are never disturbed by this, so it is as safe as an atomic rewrite for any reader of them.
+	 * @param fsync
+	 * @param strategy
+	 * @throws IOException
+	 */
+	public void persist(FsyncPolicy fsync, WriteStrategy strategy) throws IOException {
+		if(document.isAppendOnly() && patch(fsync, true)) {
+			return;
+		}
+		if(strategy == WriteStrategy.PATCH && patch(fsync, false)) {
+			return;
+		}
+		persist(fsync);
+	}
+	
+	private static FileTime getLastModifiedTime(Path file) {
+		try {
+			return Files.getLastModifiedTime(file);
+		}
+		catch(IOException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Write only the bytes that changed into the file where it is, or return false without writing anything if that cannot be done safely:
+	 * the content was read through a memory mapping of the file, or the file is no longer the one that was read. The file is taken to be 
+	 * the one that was read only if its length and last modified time are still the same, and the bytes the patch writes over are still 
+	 * the ones that were read, since something else (ie: "aws configure set", or an SSO refresh) can rewrite a key or token with one of 
+	 * the same length. Those bytes are read back through the channel the patch is written with, so a large file is not read whole, and 
+	 * a change elsewhere in the file is kept. Nothing stops the file changing between this check and the write, so concurrent updates 
+	 * still need CredentialsFileLock. An append only patch is written with the file opened for appending.
+	 */
+	private boolean patch(FsyncPolicy fsync, boolean append) throws IOException {
+		if(credentialsFile == null || mapped || ! Files.isRegularFile(credentialsFile)) {
+			return false;
+		}
+		CredentialsDocument.Patch patch = document.getPatch();
+		if(append && patch.getPosition() != patch.getOriginalLength()) {
+			return false;
+		}
+		OpenOption[] options = append 
+				? new OpenOption[] { StandardOpenOption.APPEND } 
+				: new OpenOption[] { StandardOpenOption.READ, StandardOpenOption.WRITE };
+		try(FileChannel channel = FileChannel.open(credentialsFile, options)) {
+			if(channel.size() != patch.getOriginalLength() || ! isUnchangedSinceRead(channel, patch)) {
+				return false;
+			}
+			ByteBuffer bytes = patch.getBytes();
+			long position = patch.getPosition();
+			while(bytes.hasRemaining()) {
+				position += append ? channel.write(bytes) : channel.write(bytes, position);
+			}
+			if(patch.getLength() < patch.getOriginalLength()) {
+				channel.truncate(patch.getLength());
+			}
+			// The file is not renamed, so there is no directory entry to flush for FILE_AND_DIRECTORY.
+			if(fsync != FsyncPolicy.NONE) {
+				channel.force(true);
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * @param channel The file, open for reading unless the patch is an append (which writes over nothing).
+	 * @param patch
+	 * @return Whether the file has the last modified time it had when it was read, and the bytes the patch writes over are unchanged.
+	 * @throws IOException
+	 */
+	private boolean isUnchangedSinceRead(FileChannel channel, CredentialsDocument.Patch patch) throws IOException {
+		FileTime modified = getLastModifiedTime(credentialsFile);
+		if(readModified == null || ! readModified.equals(modified)) {
+			return false;
+		}
+		ByteBuffer original = patch.getOriginalBytes().duplicate();
+		ByteBuffer current = ByteBuffer.allocate(original.remaining());
+		long position = patch.getPosition();
+		while(current.hasRemaining()) {
+			int read = channel.read(current, position);
+			if(read < 0) {
+				return false;
+			}
+			position += read;
+		}
+		current.flip();
+		return current.equals(original);
+	}
+	
+	/**
+	 * Temporary files are created readable by their owner only. Give the new file the permissions of the one it replaces, where there are any.
+	 */
+	private static void copyPermissions(Path from, Path to) {
+		try {
+			if(Files.exists(from)) {
+				Files.setPosixFilePermissions(to, Files.getPosixFilePermissions(from));
+			}
+		}
+		catch(UnsupportedOperationException | IOException e) {
+			// Not a posix file system (ie: windows), where the new file inherits the permissions of the directory.
+		}
+	}
+	
+	/**
+	 * Flush the directory entry of a renamed file to disk. Not every platform or file system allows a directory to be opened (ie: windows), 
+	 * in which case the rename is left for the operating system to flush.
+	 */
+	private static void forceDirectory(Path directory) {
+		try(FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+			channel.force(true);
+		}
+		catch(IOException | UnsupportedOperationException e) {
+			// Cannot be done here.
+		}
 	}
 
 	@Override
@@ -219,6 +468,74 @@ public class CredentialsFile implements Watchable {
 		return type;
 	}
 
+	/**
+	 * How the content of a credentials file is read in.
+	 * STREAM reads the file through an input stream into a byte array, which is parsed straight from the bytes without decoding them if 
+	 * they are all ASCII (the norm), just as MAPPED does.
+	 * MAPPED maps the file into memory and copies the bytes out in bulk, then parses straight from the bytes without decoding them, so only 
+	 * the lines of named profiles ever become Strings. Nothing is left reading from the file itself, so it is safe for another process to 
+	 * truncate or rewrite it afterwards. See Utils.mapText for a caveat about rewriting a mapped file on windows.
+	 * 
+	 * @author wrh
+	 *
+	 */
+	public static enum ReadMode {
+		STREAM, MAPPED;
+		public CharSequence read(Path file) {
+			return this == MAPPED ? Utils.mapText(file) : Utils.streamText(file);
+		}
+	};
+
+	/**
+	 * How persist(FsyncPolicy, WriteStrategy) writes the file:
+	 * REWRITE replaces the whole file with an atomic rename. See persist(FsyncPolicy).
+	 * PATCH writes over the file in place, from where the first modified named profile starts. Everything before it is left untouched, 
+	 * and when the content stays the same length so is everything after the last modified named profile. This writes far fewer bytes 
+	 * to a large file, but is not atomic: a reader may see the file partly patched, and a crash may leave it so.
+	 * PATCH falls back to REWRITE whenever the file cannot be patched safely.
+	 * 
+	 * @author wrh
+	 *
+	 */
+	public static enum WriteStrategy {
+		REWRITE, PATCH;
+		public static WriteStrategy resolve(String name) {
+			for(WriteStrategy strategy : values()) {
+				if(strategy.name().equalsIgnoreCase(name)) {
+					return strategy;
+				}
+			}
+			return null;
+		}
+	};
+
+	/**
+	 * What persist(FsyncPolicy) waits to reach the disk before returning:
+	 * NONE leaves both the content of the new file and its rename to the operating system to flush, so a power loss shortly after may
+	 * find the old file (the rename never happened) or an empty new one (ext4 with delalloc, for example).
+	 * FILE flushes the content of the new file before the rename, so the file is only ever old or new, though it may still be old after a crash.
+	 * FILE_AND_DIRECTORY also flushes the rename, so the new content is durable once persist returns.
+	 * 
+	 * @author wrh
+	 *
+	 */
+	public static enum FsyncPolicy {
+		NONE, FILE, FILE_AND_DIRECTORY;
+		/**
+		 * Get the policy by name, ignoring case, or null if there is none by that name. "directory" is short for FILE_AND_DIRECTORY.
+		 * @param name
+		 * @return
+		 */
+		public static FsyncPolicy resolve(String name) {
+			for(FsyncPolicy policy : values()) {
+				if(policy.name().equalsIgnoreCase(name)) {
+					return policy;
+				}
+			}
+			return "directory".equalsIgnoreCase(name) ? FILE_AND_DIRECTORY : null;
+		}
+	};
+
 	/**
 	 * The type of credentials file is important to know because named profile header conventions are different for config vs credentials files.
 	 * See: https://docs.aws.amazon.com/cli/latest/userguide/cli-configure-profiles.html#cli-configure-profiles-create
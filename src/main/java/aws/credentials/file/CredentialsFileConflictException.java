@@ -0,0 +1,48 @@
+package aws.credentials.file;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Thrown when named profiles could not be updated because the same named profiles were changed in the target credentials file by
+ * someone else (ie: "aws configure set") after the target was read, and the two changes differ.
+ *
+ * @author wrh
+ *
+ */
+public class CredentialsFileConflictException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	private Path path;
+	private List<String> profileNames;
+
+	public CredentialsFileConflictException(Path path, String profileName) {
+		this(path, Collections.singletonList(profileName));
+	}
+
+	public CredentialsFileConflictException(Path path, Collection<String> profileNames) {
+		super(String.format("Named profile(s) %s in \"%s\" changed by another update while being updated", String.join(", ", profileNames), path));
+		this.path = path;
+		this.profileNames = new ArrayList<String>(profileNames);
+	}
+
+	public Path getPath() {
+		return path;
+	}
+
+	/**
+	 * @return The first (or only) named profile in conflict.
+	 */
+	public String getProfileName() {
+		return profileNames.get(0);
+	}
+
+	public List<String> getProfileNames() {
+		return profileNames;
+	}
+}
@@ -1,33 +1,142 @@
 package aws.credentials.file;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.nio.file.FileSystem;
 import java.nio.file.Path;
 import java.nio.file.Watchable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
+import aws.credentials.file.CredentialsFile.FsyncPolicy;
+import aws.credentials.file.CredentialsFile.ReadMode;
+import aws.credentials.file.CredentialsFile.Type;
+import aws.credentials.file.CredentialsFile.WriteStrategy;
 import aws.credentials.profile.NamedProfile;
 import aws.credentials.profile.NamedProfileElement;
 import aws.credentials.profile.NamedProfileMapper;
+import aws.credentials.util.Counters;
 import aws.credentials.util.CredentialsProvider;
 
 /**
- * An instance of this class will modify a named profile in a specified credentials file with 
+ * An instance of this class will modify a named profile in one or more specified credentials files with 
  * the details of a default profile in another specified credentials file.
+ * 
+ * Each target credentials file is updated on a thread of its own, so the targets are updated at the same time, and a slow or failing 
+ * target (ie: a file on a mount from the host of a dev container) holds up or breaks only itself. Updates of the same target are 
+ * still made one at a time and in the order the downloads arrived. A download is only reported as handled once every target has 
+ * been updated (or failed to be), and as not handled (see NotHandledException) if no target could be updated, so it is not discarded 
+ * (see NewestFileEventHandler) before its credentials are saved somewhere, and the watcher carries on. Changes held for a coalesce window are the exception: they are made after the 
+ * download has been reported as handled.
  *  
  * @author wrh
  *
  */
-public class CredentialsFileEventHandler implements FileEventHandler {
+public class CredentialsFileEventHandler implements FileEventHandler, Closeable {
+
+	/**
+	 * Counter of updates of a target that failed.
+	 */
+	public static final String FAILED = "target.failed";
 
 	private FileSystem fs;
-	private Path targetCredFilePath;
+	private List<Target> targets = new CopyOnWriteArrayList<Target>();
 	private NamedProfileMapper mapper;
+	private FsyncPolicy fsyncPolicy = FsyncPolicy.FILE_AND_DIRECTORY;
+	private WriteStrategy writeStrategy = WriteStrategy.REWRITE;
+	private long lockTimeout = CredentialsFileLock.DEFAULT_TIMEOUT;
+	private long coalesceWindow;
+	/**
+	 * Changes waiting for the coalesce window to close, by profile name. A later download for the same profile replaces an earlier one.
+	 */
+	private Map<String, NamedProfile> pending = new LinkedHashMap<String, NamedProfile>();
+	private ScheduledExecutorService scheduler;
+	private volatile boolean closed;
 	
 	public CredentialsFileEventHandler(FileSystem fs, Path targetCredFilePath, NamedProfileMapper mapper) {
+		this(fs, mapper);
+		addTarget(targetCredFilePath, null, null);
+	}
+	
+	/**
+	 * Create a handler with no target credentials files yet. See addTarget.
+	 * @param fs
+	 * @param mapper
+	 */
+	public CredentialsFileEventHandler(FileSystem fs, NamedProfileMapper mapper) {
 		this.fs = fs;
-		this.targetCredFilePath = targetCredFilePath;
 		this.mapper = mapper;
 	}
+	
+	/**
+	 * Add a credentials file to update.
+	 * @param path
+	 * @param type The type of the file, or null to tell by its name (see Type.resolve).
+	 * @param journal The journal to record updates of the file in, or null for none.
+	 * @return
+	 */
+	public CredentialsFileEventHandler addTarget(Path path, Type type, CredentialsFileJournal journal) {
+		targets.add(new Target(path, type, journal));
+		return this;
+	}
+	
+	/**
+	 * Stop updating a credentials file. An update of it already under way is still finished.
+	 * @param path
+	 * @return False if the file was not a target.
+	 */
+	public boolean removeTarget(Path path) {
+		for(Target target : targets) {
+			if(target.path.equals(path)) {
+				targets.remove(target);
+				target.executor.shutdown();
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	public List<Target> getTargets() {
+		return targets;
+	}
+	
+	public CredentialsFileEventHandler setFsyncPolicy(FsyncPolicy fsyncPolicy) {
+		this.fsyncPolicy = fsyncPolicy;
+		return this;
+	}
+	
+	public CredentialsFileEventHandler setWriteStrategy(WriteStrategy writeStrategy) {
+		this.writeStrategy = writeStrategy;
+		return this;
+	}
+	
+	public CredentialsFileEventHandler setLockTimeout(long lockTimeout) {
+		this.lockTimeout = lockTimeout;
+		return this;
+	}
+	
+	/**
+	 * Set how many milliseconds to wait after a download for more downloads before updating the target credentials file, so that
+	 * logging into several accounts back to back rewrites the target once rather than once per account. Zero (the default) updates
+	 * the target as each download arrives.
+	 * @param coalesceWindow
+	 * @return
+	 */
+	public CredentialsFileEventHandler setCoalesceWindow(long coalesceWindow) {
+		this.coalesceWindow = coalesceWindow;
+		return this;
+	}
 
 	/**
 	 * Perform the credentials file update
@@ -37,7 +146,8 @@ public class CredentialsFileEventHandler implements FileEventHandler {
 	 */
 	private void handle(Watchable sourceCredFilePath) throws IOException {
 		
-		CredentialsFile newcreds = new CredentialsFile((Path) sourceCredFilePath);
+		// Only the default profile is needed.
+		CredentialsFile newcreds = new CredentialsFile((Path) sourceCredFilePath, ReadMode.STREAM, true);
 		
 		if( ! newcreds.hasDefault()) {
 			System.err.format(""
@@ -67,11 +177,181 @@ public class CredentialsFileEventHandler implements FileEventHandler {
 			return;
 		}
 		
-		CredentialsFileModifier modifier = new CredentialsFileModifier(fs, newcreds.getPath(), targetCredFilePath);
-		
-		modifier.updateNamedProfile(profileName);
-		
-		System.out.format("Profile %s has been updated!\n", profileName);
+		if(coalesceWindow > 0) {
+			enqueue(profileName, np);
+		}
+		else {
+			if(closed) {
+				throw closed(profileName);
+			}
+			// The profile already read from the download is used as it is, rather than reading the download again.
+			apply(Collections.singletonMap(profileName, np));
+		}
+	}
+	
+	/**
+	 * Make the changes in every target at the same time, and wait for all of them to finish. 
+	 * @param changes
+	 * @throws NotHandledException Every target failed, so the changes were not made anywhere and the download must not be discarded.
+	 * @throws IOException Interrupted while waiting.
+	 */
+	void apply(Map<String, NamedProfile> changes) throws IOException {
+		List<Future<Boolean>> updates = update(changes);
+		NotHandledException failed = null;
+		int failures = 0;
+		for(Future<Boolean> update : updates) {
+			try {
+				update.get();
+			}
+			catch (ExecutionException e) {
+				// Already reported by the target that failed.
+				failures++;
+				if(failed == null) {
+					failed = new NotHandledException(String.format("Could not update profile %s in any target", String.join(", ", changes.keySet())), e.getCause());
+				}
+				else {
+					failed.addSuppressed(e.getCause());
+				}
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while waiting for the targets to be updated", e);
+			}
+		}
+		if(failures > 0 && failures == updates.size()) {
+			throw failed;
+		}
+	}
+	
+	/**
+	 * Hand the changes to every target to make.
+	 * @param changes
+	 * @return Whether each target was rewritten, in the order of the targets, once it has been updated (or failed to be).
+	 */
+	List<Future<Boolean>> update(Map<String, NamedProfile> changes) {
+		List<Future<Boolean>> updates = new ArrayList<Future<Boolean>>();
+		for(Target target : targets) {
+			// Every target gets a copy of the changes of its own type, since the modifier renames and links in the named profiles it adds.
+			Type type = target.getType();
+			Map<String, NamedProfile> copies = new LinkedHashMap<String, NamedProfile>();
+			for(Entry<String, NamedProfile> change : changes.entrySet()) {
+				copies.put(change.getKey(), new NamedProfile(change.getValue().rawString(), type));
+			}
+			updates.add(target.executor.submit(() -> update(target, copies)));
+		}
+		return updates;
+	}
+	
+	private boolean update(Target target, Map<String, NamedProfile> changes) throws IOException {
+		long start = System.nanoTime();
+		String profileNames = String.join(", ", changes.keySet());
+		try {
+			CredentialsFileModifier modifier = new CredentialsFileModifier(fs, target.path)
+					.setFsyncPolicy(fsyncPolicy)
+					.setWriteStrategy(writeStrategy)
+					.setLockTimeout(lockTimeout)
+					.setJournal(target.journal);
+			if(target.type != null) {
+				modifier.setType(target.type);
+			}
+			boolean updated = modifier.updateNamedProfiles(changes);
+			target.latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			report(target, profileNames, updated);
+			return updated;
+		}
+		catch (CredentialsFileConflictException e) {
+			target.latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			Counters.getInstance().increment(FAILED);
+			reportConflict(target, e);
+			throw e;
+		}
+		catch (IOException | RuntimeException e) {
+			target.latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			Counters.getInstance().increment(FAILED);
+			System.err.format("Could not update profile %s in \"%s\" (after %s ms)\n", profileNames, target.path, target.latency);
+			e.printStackTrace();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Hold on to a change until the coalesce window that the first change waiting opened has closed.
+	 * @throws NotHandledException The handler has been closed, so nothing would make the change.
+	 */
+	synchronized void enqueue(String profileName, NamedProfile np) throws NotHandledException {
+		if(closed) {
+			throw closed(profileName);
+		}
+		if(pending.isEmpty()) {
+			if(scheduler == null) {
+				scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+					Thread thread = new Thread(runnable, "coalesce");
+					thread.setDaemon(true);
+					return thread;
+				});
+			}
+			scheduler.schedule(this::flush, coalesceWindow, TimeUnit.MILLISECONDS);
+		}
+		pending.put(profileName, np);
+		System.out.format("Profile %s will be updated with any others downloaded within %s milliseconds\n", profileName, coalesceWindow);
+	}
+	
+	private static NotHandledException closed(String profileName) {
+		return new NotHandledException(String.format("Profile %s was not updated, the handler has been closed", profileName), null);
+	}
+	
+	/**
+	 * Update the target credentials file with every change waiting, persisting it once, and wait for every target to finish.
+	 * The download has already been reported as handled, so changes no target could make are reported here.
+	 */
+	public void flush() {
+		Map<String, NamedProfile> changes;
+		synchronized(this) {
+			changes = pending;
+			pending = new LinkedHashMap<String, NamedProfile>();
+		}
+		if( ! changes.isEmpty()) {
+			try {
+				apply(changes);
+			}
+			catch (NotHandledException e) {
+				// Each target has already reported why it failed.
+				System.err.format("%s\n", e.getMessage());
+			}
+			catch (IOException e) {
+				System.err.format("Could not update profile %s\n", String.join(", ", changes.keySet()));
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	private void report(Target target, String profileNames, boolean updated) {
+		if(updated) {
+			System.out.format("Profile %s has been updated in \"%s\" (%s ms)!\n", profileNames, target.path, target.latency);
+			if(Counters.getInstance().get(CredentialsFileLock.CONTENDED) > 0) {
+				System.out.format("Waited for other updates of \"%s\" %s of %s times (%s ms in total, %s timeouts)\n",
+						target.path,
+						Counters.getInstance().get(CredentialsFileLock.CONTENDED),
+						Counters.getInstance().get(CredentialsFileLock.ACQUIRED),
+						Counters.getInstance().get(CredentialsFileLock.WAITED),
+						Counters.getInstance().get(CredentialsFileLock.TIMEOUTS));
+			}
+		}
+		else {
+			System.out.format("Profile %s is already up to date, \"%s\" was not rewritten (%s ms, skipped %s of %s updates)\n", 
+					profileNames, 
+					target.path, 
+					target.latency,
+					Counters.getInstance().get(CredentialsFileModifier.SKIPPED),
+					Counters.getInstance().get(CredentialsFileModifier.SKIPPED) + Counters.getInstance().get(CredentialsFileModifier.WRITTEN));
+		}
+	}
+	
+	private void reportConflict(Target target, CredentialsFileConflictException e) {
+		System.err.format(""
+				+ "Cannot update profile!\n"
+				+ "Profile %s in \"%s\" was changed by something else while it was being updated.\n"
+				+ "Download the credentials again to overwrite that change.\n", String.join(", ", e.getProfileNames()), target.path);
 	}
 	
 	/**
@@ -95,5 +375,72 @@ public class CredentialsFileEventHandler implements FileEventHandler {
 	public void onDelete(Watchable watchable) {
 		System.out.format("\"%s\" has been deleted\n", watchable);
 	}
-
+	
+	/**
+	 * Make any changes still waiting for the coalesce window to close, then stop the threads of the targets once their updates 
+	 * are finished, waiting for them up to the lock timeout. Downloads that arrive after this are not handled (see NotHandledException).
+	 */
+	@Override
+	public void close() {
+		synchronized(this) {
+			closed = true;
+			if(scheduler != null) {
+				scheduler.shutdownNow();
+			}
+		}
+		flush();
+		for(Target target : targets) {
+			target.executor.shutdown();
+		}
+		try {
+			for(Target target : targets) {
+				if( ! target.executor.awaitTermination(lockTimeout, TimeUnit.MILLISECONDS)) {
+					System.err.format("Gave up waiting for the update of \"%s\" to finish\n", target.path);
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * A credentials file to update, with the thread it is updated on.
+	 */
+	public static class Target {
+		private Path path;
+		private Type type;
+		private CredentialsFileJournal journal;
+		private ExecutorService executor;
+		private volatile long latency = -1;
+		
+		private Target(Path path, Type type, CredentialsFileJournal journal) {
+			this.path = path;
+			this.type = type;
+			this.journal = journal;
+			this.executor = Executors.newSingleThreadExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "target " + path);
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		
+		public Path getPath() {
+			return path;
+		}
+		
+		/**
+		 * @return The type the file was given, or otherwise the type told by its name.
+		 */
+		public Type getType() {
+			return type == null ? Type.resolve(path) : type;
+		}
+		
+		/**
+		 * @return How many milliseconds the last update of the file took, or -1 if it has not been updated yet.
+		 */
+		public long getLatency() {
+			return latency;
+		}
+	}
 }
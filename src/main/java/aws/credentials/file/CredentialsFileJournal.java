@@ -0,0 +1,648 @@
+package aws.credentials.file;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import aws.credentials.file.CredentialsFile.FsyncPolicy;
+import aws.credentials.file.CredentialsFile.ReadMode;
+import aws.credentials.file.CredentialsFile.Type;
+import aws.credentials.profile.NamedProfile;
+import aws.credentials.util.Counters;
+
+/**
+ * An append only log of the changes made to the named profiles of a credentials file, kept next to it ("credentials.journal").
+ *
+ * Every change is written to the journal, and forced to disk, before the credentials file is touched: the name of the named profile
+ * with its text and fingerprint before and after the change. The entry is marked committed once the credentials file has been persisted.
+ * So after a crash, recover finds any update that may have been left half done and finishes it, and restore can put the named profiles
+ * of the credentials file back the way they were at any earlier point the journal still reaches back to.
+ *
+ * The journal holds credentials, so like the credentials file it is readable by its owner only. It is compacted whenever it grows
+ * past a maximum size, by dropping the oldest finished transactions.
+ *
+ * Each line of the journal is one tab separated record:
+ *   CHANGE    id time profile old-hash new-hash old-block new-block  (blocks are base64, or "-" where the profile did not exist)
+ *   PREPARED  id time  (every change of the transaction has been recorded, so the credentials file may now be modified)
+ *   COMMITTED id time
+ *   ABORTED   id time
+ *   COMPACTED id time  (transactions up to this one, made at this time, were dropped)
+ *
+ * All journal updates happen while holding the CredentialsFileLock of the credentials file.
+ *
+ * @author wrh
+ *
+ */
+public class CredentialsFileJournal {
+
+	/**
+	 * Counters of interrupted transactions finished on recovery, of those rolled back because they never started, and of compactions.
+	 */
+	public static final String REPLAYED = "journal.replayed";
+	public static final String ROLLED_BACK = "journal.rolledback";
+	public static final String COMPACTED = "journal.compacted";
+
+	public static final String SUFFIX = ".journal";
+	public static final long DEFAULT_MAX_SIZE = 1 << 20;
+	/**
+	 * The restore point that lists the transactions in the journal instead of restoring anything.
+	 */
+	public static final String LIST = "list";
+
+	private static final String CHANGE = "CHANGE";
+	private static final String NONE = "-";
+
+	private Path target;
+	private Path path;
+	private long maxSize = DEFAULT_MAX_SIZE;
+	private Type type;
+	/**
+	 * The newest transaction dropped from the journal by compaction as of the last read, with no changes, or null if none was.
+	 */
+	private Transaction compacted;
+
+	public CredentialsFileJournal(Path target) {
+		this.target = target;
+		this.path = getJournalPath(target);
+	}
+
+	/**
+	 * Get the path of the journal for the specified credentials file.
+	 * @param target
+	 * @return
+	 */
+	public static Path getJournalPath(Path target) {
+		Path absolute = target.toAbsolutePath().normalize();
+		return absolute.resolveSibling(absolute.getFileName() + SUFFIX);
+	}
+
+	/**
+	 * Set how large the journal may grow, in bytes, before it is compacted (1MB by default). Compaction keeps the newest transactions
+	 * that fit in half of this.
+	 * @param maxSize
+	 * @return
+	 */
+	public CredentialsFileJournal setMaxSize(long maxSize) {
+		this.maxSize = maxSize;
+		return this;
+	}
+
+	/**
+	 * Set the type of the credentials file, when it cannot be told by its name (see Type.resolve).
+	 * @param type
+	 * @return
+	 */
+	public CredentialsFileJournal setType(Type type) {
+		this.type = type;
+		return this;
+	}
+
+	public Path getPath() {
+		return path;
+	}
+
+	public Path getTarget() {
+		return target;
+	}
+
+	/**
+	 * Record a set of changes that are about to be made to the credentials file, and force them to disk.
+	 * @param changes
+	 * @return The id of the transaction, to commit or abort once the credentials file has been persisted (or not).
+	 * @throws IOException
+	 */
+	public synchronized long prepare(List<Change> changes) throws IOException {
+		List<Transaction> transactions = read();
+		long id = Math.max(compacted == null ? 0 : compacted.id, getLastId(transactions)) + 1;
+		Transaction transaction = new Transaction(id, System.currentTimeMillis());
+		transaction.changes.addAll(changes);
+		transaction.state = State.PREPARED;
+		append(transaction.toString(), true);
+		return id;
+	}
+
+	/**
+	 * Mark a transaction as finished, once the credentials file has been persisted with its changes.
+	 * A crash before the mark reaches the disk is harmless, since recovery finds the changes already made.
+	 * @param id
+	 * @throws IOException
+	 */
+	public synchronized void commit(long id) throws IOException {
+		append(record(State.COMMITTED, id, System.currentTimeMillis()), false);
+		if(Files.size(path) > maxSize) {
+			compact();
+		}
+	}
+
+	/**
+	 * Mark a transaction as abandoned, when the credentials file is known to have been left without its changes.
+	 * @param id
+	 * @throws IOException
+	 */
+	public synchronized void abort(long id) throws IOException {
+		append(record(State.ABORTED, id, System.currentTimeMillis()), false);
+	}
+
+	/**
+	 * Read every transaction in the journal, oldest first. A last line cut short by a crash is ignored.
+	 * @return
+	 * @throws IOException
+	 */
+	public synchronized List<Transaction> read() throws IOException {
+		compacted = null;
+		if(Files.notExists(path)) {
+			return new ArrayList<Transaction>();
+		}
+		Map<Long, Transaction> transactions = new LinkedHashMap<Long, Transaction>();
+		String text = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+		for(String line : text.substring(0, text.lastIndexOf('\n') + 1).split("\n")) {
+			if(line.isEmpty()) {
+				continue;
+			}
+			try {
+				String[] fields = line.split("\t", -1);
+				long id = Long.parseLong(fields[1]);
+				long time = Long.parseLong(fields[2]);
+				State state = CHANGE.equals(fields[0]) ? State.PENDING : State.valueOf(fields[0]);
+				if(state == State.COMPACTED) {
+					compacted = new Transaction(id, time);
+					continue;
+				}
+				Transaction transaction = transactions.computeIfAbsent(id, key -> new Transaction(id, time));
+				if(state == State.PENDING) {
+					transaction.changes.add(new Change(fields[3], decode(fields[6]), parseHash(fields[4]), decode(fields[7]), parseHash(fields[5])));
+				}
+				else {
+					transaction.state = state;
+				}
+			}
+			catch (RuntimeException e) {
+				System.err.format("Ignoring unreadable entry in \"%s\": %s\n", path, e.getMessage());
+			}
+		}
+		return new ArrayList<Transaction>(transactions.values());
+	}
+
+	/**
+	 * Finish the transactions that a crash (or a failed write) may have left half done, ie: a patch of the credentials file cut short.
+	 * A transaction that was prepared but never committed is replayed: every named profile it changed that does not have its new content
+	 * is given it, unless a later transaction changed the same named profile. A transaction whose changes were never all recorded cannot
+	 * have touched the credentials file, and is rolled back by marking it aborted.
+	 *
+	 * @param fsync
+	 * @param lockTimeout
+	 * @return The number of transactions replayed.
+	 * @throws IOException
+	 */
+	public int recover(FsyncPolicy fsync, long lockTimeout) throws IOException {
+		try(CredentialsFileLock lock = CredentialsFileLock.acquire(target, lockTimeout)) {
+			synchronized(this) {
+				List<Transaction> transactions = read();
+				List<Transaction> replay = new ArrayList<Transaction>();
+				List<Transaction> rollback = new ArrayList<Transaction>();
+				Map<Transaction, List<Change>> changes = new LinkedHashMap<Transaction, List<Change>>();
+				Set<String> later = new HashSet<String>();
+				for(int i = transactions.size() - 1; i >= 0; i--) {
+					Transaction transaction = transactions.get(i);
+					if(transaction.state == State.PENDING) {
+						rollback.add(transaction);
+						continue;
+					}
+					if(transaction.state == State.PREPARED) {
+						replay.add(0, transaction);
+						List<Change> unchanged = new ArrayList<Change>();
+						for(Change change : transaction.changes) {
+							if( ! later.contains(change.profileName)) {
+								unchanged.add(change);
+							}
+						}
+						changes.put(transaction, unchanged);
+					}
+					if(transaction.state != State.ABORTED) {
+						for(Change change : transaction.changes) {
+							later.add(change.profileName);
+						}
+					}
+				}
+				if(replay.isEmpty() && rollback.isEmpty()) {
+					return 0;
+				}
+
+				if( ! replay.isEmpty()) {
+					CredentialsFile creds = new CredentialsFile(target, ReadMode.STREAM, true, type);
+					for(Transaction transaction : replay) {
+						for(Change change : changes.get(transaction)) {
+							if( ! change.isApplied(creds)) {
+								apply(creds, change.profileName, change.newBlock);
+							}
+						}
+					}
+					if(creds.isModified()) {
+						creds.persist(fsync);
+					}
+				}
+				for(Transaction transaction : replay) {
+					System.out.format("Replayed interrupted update %s of \"%s\" (%s)\n", transaction.id, target, transaction.getProfileNames());
+					append(record(State.COMMITTED, transaction.id, System.currentTimeMillis()), false);
+					Counters.getInstance().increment(REPLAYED);
+				}
+				for(Transaction transaction : rollback) {
+					System.out.format("Rolled back unstarted update %s of \"%s\" (%s)\n", transaction.id, target, transaction.getProfileNames());
+					append(record(State.ABORTED, transaction.id, System.currentTimeMillis()), false);
+					Counters.getInstance().increment(ROLLED_BACK);
+				}
+				return replay.size();
+			}
+		}
+	}
+
+	/**
+	 * Put every named profile changed since the specified point back the way it was at that point. The restore is itself recorded
+	 * as a transaction in the journal, so it can be undone the same way.
+	 *
+	 * @param point The id of the last transaction to keep, or a time as an ISO-8601 instant (2024-01-31T09:00:00Z) or local date and
+	 * time (2024-01-31T09:00:00).
+	 * @param fsync
+	 * @param lockTimeout
+	 * @return false if the named profiles were already as they were at that point.
+	 * @throws IOException The journal no longer reaches back to the point.
+	 */
+	public boolean restore(String point, FsyncPolicy fsync, long lockTimeout) throws IOException {
+		Predicate<Transaction> isAfter = parsePoint(point);
+		try(CredentialsFileLock lock = CredentialsFileLock.acquire(target, lockTimeout)) {
+			synchronized(this) {
+				List<Transaction> transactions = read();
+				if(compacted != null && isAfter.test(compacted)) {
+					throw new IOException(String.format("\"%s\" no longer reaches back to %s (transactions up to %s, made at %s, were compacted)", 
+							path, point, compacted.id, compacted.getTime()));
+				}
+
+				// The earliest change to each named profile after the point holds the content it had at the point.
+				Map<String, Change> earliest = new LinkedHashMap<String, Change>();
+				for(Transaction transaction : transactions) {
+					if(transaction.state == State.COMMITTED && isAfter.test(transaction)) {
+						for(Change change : transaction.changes) {
+							earliest.putIfAbsent(change.profileName, change);
+						}
+					}
+				}
+
+				CredentialsFile creds = new CredentialsFile(target, ReadMode.STREAM, true, type);
+				List<Change> changes = new ArrayList<Change>();
+				for(Change change : earliest.values()) {
+					NamedProfile before = creds.has(change.profileName) ? creds.get(change.profileName) : null;
+					if(Objects.equals(change.oldHash, before == null ? null : before.getFingerprint())) {
+						continue;
+					}
+					Change restored = new Change(change.profileName, before);
+					apply(creds, change.profileName, change.oldBlock);
+					changes.add(restored.setAfter(creds.has(change.profileName) ? creds.get(change.profileName) : null));
+				}
+				if(changes.isEmpty() || ! creds.isModified()) {
+					return false;
+				}
+				long id = prepare(changes);
+				creds.persist(fsync);
+				commit(id);
+				System.out.format("Restored %s in \"%s\" as of %s\n", earliest.keySet(), target, point);
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Print every transaction in the journal, oldest first.
+	 * @param out
+	 * @throws IOException
+	 */
+	public void list(PrintStream out) throws IOException {
+		List<Transaction> transactions = read();
+		if(compacted != null) {
+			out.format("(transactions up to %s, made at %s, were compacted)\n", compacted.id, compacted.getTime());
+		}
+		for(Transaction transaction : transactions) {
+			out.format("%s  %s  %-9s  %s\n", transaction.id, transaction.getTime(), transaction.state, transaction.getProfileNames());
+		}
+	}
+
+	/**
+	 * Indicates whether the value is something restore can take as a point to restore to, or LIST.
+	 * @param point
+	 * @return
+	 */
+	public static boolean isRestorePoint(String point) {
+		if(LIST.equalsIgnoreCase(point)) {
+			return true;
+		}
+		try {
+			parsePoint(point);
+			return true;
+		}
+		catch (IllegalArgumentException e) {
+			return false;
+		}
+	}
+
+	private static Predicate<Transaction> parsePoint(String point) {
+		if(point == null) {
+			throw new IllegalArgumentException("No restore point");
+		}
+		String value = point.trim();
+		if(value.matches("\\d+")) {
+			long id = Long.parseLong(value);
+			return transaction -> transaction.id > id;
+		}
+		Instant instant;
+		try {
+			instant = Instant.parse(value);
+		}
+		catch (DateTimeParseException e) {
+			try {
+				instant = LocalDateTime.parse(value).atZone(ZoneId.systemDefault()).toInstant();
+			}
+			catch (DateTimeParseException e2) {
+				throw new IllegalArgumentException(String.format("\"%s\" is neither a transaction id nor a time", point), e2);
+			}
+		}
+		long millis = instant.toEpochMilli();
+		return transaction -> transaction.time > millis;
+	}
+
+	/**
+	 * Give a named profile of the credentials file the specified content, adding it if need be, or remove it if there is no content.
+	 */
+	private static void apply(CredentialsFile creds, String profileName, String block) {
+		if(block == null) {
+			creds.remove(profileName);
+			return;
+		}
+		NamedProfile np = new NamedProfile(block, creds.getType());
+		if(creds.has(profileName)) {
+			creds.replace(profileName, np);
+		}
+		else {
+			np.setProfileName(profileName);
+			creds.addNamedProfile(np);
+		}
+	}
+
+	/**
+	 * Rewrite the journal with only the newest transactions that fit in half its maximum size, and any not yet finished.
+	 * The rewritten journal replaces the old one in an atomic rename, so a crash leaves one or the other.
+	 */
+	private void compact() throws IOException {
+		List<Transaction> transactions = read();
+		List<String> kept = new ArrayList<String>();
+		long size = 0;
+		Transaction dropped = compacted;
+		boolean full = false;
+		for(int i = transactions.size() - 1; i >= 0; i--) {
+			Transaction transaction = transactions.get(i);
+			String text = transaction.toString();
+			boolean finished = transaction.state == State.COMMITTED || transaction.state == State.ABORTED;
+			if(finished && (full || size + text.length() > maxSize / 2)) {
+				if( ! full) {
+					dropped = transaction;
+				}
+				full = true;
+				continue;
+			}
+			kept.add(text);
+			size += text.length();
+		}
+		Collections.reverse(kept);
+
+		StringBuilder journal = new StringBuilder();
+		if(dropped != null) {
+			journal.append(record(State.COMPACTED, dropped.id, dropped.time));
+		}
+		kept.forEach(journal::append);
+		Path temp = path.resolveSibling("." + path.getFileName() + ".tmp");
+		try {
+			Files.deleteIfExists(temp);
+			create(temp);
+			Files.write(temp, journal.toString().getBytes(StandardCharsets.UTF_8));
+			try {
+				Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			}
+			catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+			}
+			Counters.getInstance().increment(COMPACTED);
+		}
+		finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	private void append(String text, boolean force) throws IOException {
+		if(Files.notExists(path)) {
+			create(path);
+		}
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+			ByteBuffer bytes = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+			while(bytes.hasRemaining()) {
+				channel.write(bytes);
+			}
+			if(force) {
+				channel.force(false);
+			}
+		}
+	}
+
+	/**
+	 * Create an empty file that only its owner can read, where the file system has posix permissions.
+	 */
+	private static void create(Path file) throws IOException {
+		try {
+			if(Files.getFileAttributeView(file.getParent(), PosixFileAttributeView.class) != null) {
+				Files.createFile(file, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+			}
+			else {
+				Files.createFile(file);
+			}
+		}
+		catch (FileAlreadyExistsException e) {
+			// Created by another update in the meantime.
+		}
+	}
+
+	private static long getLastId(List<Transaction> transactions) {
+		long id = 0;
+		for(Transaction transaction : transactions) {
+			id = Math.max(id, transaction.id);
+		}
+		return id;
+	}
+
+	private static String record(State state, long id, long time) {
+		return String.format("%s\t%s\t%s\n", state, id, time);
+	}
+
+	private static String encode(String block) {
+		return block == null ? NONE : Base64.getEncoder().encodeToString(block.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static String decode(String field) {
+		return NONE.equals(field) ? null : new String(Base64.getDecoder().decode(field), StandardCharsets.UTF_8);
+	}
+
+	private static String formatHash(Long hash) {
+		return hash == null ? NONE : Long.toHexString(hash);
+	}
+
+	private static Long parseHash(String field) {
+		return NONE.equals(field) ? null : Long.parseUnsignedLong(field, 16);
+	}
+
+	/**
+	 * PENDING: changes recorded, but not yet all of them.
+	 * PREPARED: every change recorded, so the credentials file may have been modified.
+	 * COMMITTED, ABORTED: the credentials file was persisted with the changes, or left without them.
+	 * COMPACTED: not a transaction state, but the record of a compaction.
+	 */
+	public static enum State {
+		PENDING, PREPARED, COMMITTED, ABORTED, COMPACTED;
+	}
+
+	/**
+	 * One change to one named profile: its content before and after, as text with a fingerprint (see NamedProfile.getFingerprint).
+	 * Null content means the named profile did not exist.
+	 */
+	public static class Change {
+		private String profileName;
+		private String oldBlock;
+		private Long oldHash;
+		private String newBlock;
+		private Long newHash;
+
+		Change(String profileName, String oldBlock, Long oldHash, String newBlock, Long newHash) {
+			this.profileName = profileName;
+			this.oldBlock = oldBlock;
+			this.oldHash = oldHash;
+			this.newBlock = newBlock;
+			this.newHash = newHash;
+		}
+
+		/**
+		 * Record the named profile as it is before the change. Its content after the change is recorded with setAfter.
+		 * @param profileName
+		 * @param before
+		 */
+		public Change(String profileName, NamedProfile before) {
+			this(profileName, before == null ? null : before.rawString(), before == null ? null : before.getFingerprint(), null, null);
+		}
+
+		public Change setAfter(NamedProfile after) {
+			this.newBlock = after == null ? null : after.rawString();
+			this.newHash = after == null ? null : after.getFingerprint();
+			return this;
+		}
+
+		/**
+		 * Indicates whether the named profile in the credentials file already has the content it was changed to.
+		 */
+		private boolean isApplied(CredentialsFile creds) {
+			Long hash = creds.has(profileName) ? creds.get(profileName).getFingerprint() : null;
+			return Objects.equals(hash, newHash);
+		}
+
+		public String getProfileName() {
+			return profileName;
+		}
+
+		public String getOldBlock() {
+			return oldBlock;
+		}
+
+		public String getNewBlock() {
+			return newBlock;
+		}
+
+		private String toString(long id, long time) {
+			return String.join("\t", CHANGE, String.valueOf(id), String.valueOf(time), profileName, 
+					formatHash(oldHash), formatHash(newHash), encode(oldBlock), encode(newBlock)) + "\n";
+		}
+	}
+
+	/**
+	 * The changes made to a credentials file in one write of it.
+	 */
+	public static class Transaction {
+		private long id;
+		private long time;
+		private List<Change> changes = new ArrayList<Change>();
+		private State state = State.PENDING;
+
+		private Transaction(long id, long time) {
+			this.id = id;
+			this.time = time;
+		}
+
+		public long getId() {
+			return id;
+		}
+
+		public Instant getTime() {
+			return Instant.ofEpochMilli(time);
+		}
+
+		public State getState() {
+			return state;
+		}
+
+		public List<Change> getChanges() {
+			return changes;
+		}
+
+		public List<String> getProfileNames() {
+			List<String> names = new ArrayList<String>();
+			for(Change change : changes) {
+				names.add(change.profileName);
+			}
+			return names;
+		}
+
+		/**
+		 * The journal records of the transaction.
+		 */
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			for(Change change : changes) {
+				sb.append(change.toString(id, time));
+			}
+			if(state != State.PENDING) {
+				sb.append(record(State.PREPARED, id, time));
+			}
+			if(state == State.COMMITTED || state == State.ABORTED) {
+				sb.append(record(state, id, time));
+			}
+			return sb.toString();
+		}
+	}
+}
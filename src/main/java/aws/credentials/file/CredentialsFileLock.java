@@ -0,0 +1,187 @@
+package aws.credentials.file;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import aws.credentials.util.Counters;
+
+/**
+ * An exclusive advisory lock held while a credentials file is read, modified and persisted, so that concurrent updates of the same file
+ * do not lose each other's changes.
+ *
+ * The lock is taken on a sidecar file next to the target ("credentials.lock") rather than on the target itself, because the target is
+ * normally replaced by renaming a temp file over it, and a lock on the replaced file would no longer guard anything. The sidecar is
+ * left in place afterwards, since deleting it could let a process that has just opened it lock a file nobody else will look at.
+ *
+ * File locks are held on behalf of the whole JVM, so threads of this process are first serialized on an in-process lock for the same path.
+ * Lock files are advisory: they coordinate every instance of this application, but not the aws cli, which takes no lock before writing.
+ *
+ * @author wrh
+ *
+ */
+public class CredentialsFileLock implements Closeable {
+
+	/**
+	 * Counters of locks acquired, of those that had to wait for another holder first, of the total milliseconds spent waiting,
+	 * and of attempts that gave up waiting.
+	 */
+	public static final String ACQUIRED = "lock.acquired";
+	public static final String CONTENDED = "lock.contended";
+	public static final String WAITED = "lock.waited.ms";
+	public static final String TIMEOUTS = "lock.timeouts";
+
+	public static final String SUFFIX = ".lock";
+	public static final long DEFAULT_TIMEOUT = 10000;
+
+	private static final long MIN_BACKOFF = 1;
+	private static final long MAX_BACKOFF = 50;
+	private static final Map<Path, ReentrantLock> LOCAL_LOCKS = new ConcurrentHashMap<Path, ReentrantLock>();
+
+	private Path lockPath;
+	private ReentrantLock localLock;
+	private FileChannel channel;
+	private FileLock fileLock;
+
+	private CredentialsFileLock(Path lockPath, ReentrantLock localLock, FileChannel channel, FileLock fileLock) {
+		this.lockPath = lockPath;
+		this.localLock = localLock;
+		this.channel = channel;
+		this.fileLock = fileLock;
+	}
+
+	/**
+	 * Get the path of the lock file for the specified credentials file.
+	 * @param target
+	 * @return
+	 */
+	public static Path getLockPath(Path target) {
+		Path absolute = target.toAbsolutePath().normalize();
+		return absolute.resolveSibling(absolute.getFileName() + SUFFIX);
+	}
+
+	/**
+	 * Lock the specified credentials file, waiting up to the specified number of milliseconds for another holder to release it.
+	 * An uncontended lock is taken without waiting at all. Otherwise the lock is tried again after a pause that doubles each time
+	 * (up to MAX_BACKOFF), so a lock held briefly by another writer is picked up soon after it is released.
+	 *
+	 * The lock is not reentrant: a thread that already holds the lock for the file is refused at once rather than left to time out.
+	 *
+	 * @param target
+	 * @param timeout milliseconds, or zero to give up at once if the lock is held.
+	 * @return
+	 * @throws IOException The lock could not be acquired within the timeout, or is already held by the calling thread.
+	 */
+	public static CredentialsFileLock acquire(Path target, long timeout) throws IOException {
+		Path lockPath = getLockPath(target);
+		long start = System.nanoTime();
+		long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeout);
+		boolean contended = false;
+
+		ReentrantLock localLock = LOCAL_LOCKS.computeIfAbsent(lockPath, key -> new ReentrantLock());
+		if(localLock.isHeldByCurrentThread()) {
+			throw new IOException(String.format("The lock on \"%s\" is already held by this thread", lockPath));
+		}
+		try {
+			if( ! localLock.tryLock()) {
+				contended = true;
+				if( ! localLock.tryLock(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+					throw timedOut(lockPath, timeout);
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(String.format("Interrupted while waiting for lock on \"%s\"", lockPath), e);
+		}
+
+		FileChannel channel = null;
+		boolean acquired = false;
+		try {
+			channel = FileChannel.open(lockPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+			long backoff = MIN_BACKOFF;
+			FileLock fileLock;
+			while((fileLock = tryLock(channel)) == null) {
+				contended = true;
+				long remaining = deadline - System.nanoTime();
+				if(remaining <= 0) {
+					throw timedOut(lockPath, timeout);
+				}
+				Thread.sleep(Math.min(backoff, TimeUnit.NANOSECONDS.toMillis(remaining) + 1));
+				backoff = Math.min(backoff * 2, MAX_BACKOFF);
+			}
+
+			Counters counters = Counters.getInstance();
+			counters.increment(ACQUIRED);
+			if(contended) {
+				counters.increment(CONTENDED);
+				counters.add(WAITED, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+			}
+			acquired = true;
+			return new CredentialsFileLock(lockPath, localLock, channel, fileLock);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(String.format("Interrupted while waiting for lock on \"%s\"", lockPath), e);
+		}
+		finally {
+			if( ! acquired) {
+				try {
+					if(channel != null) {
+						channel.close();
+					}
+				}
+				finally {
+					localLock.unlock();
+				}
+			}
+		}
+	}
+
+	private static FileLock tryLock(FileChannel channel) throws IOException {
+		try {
+			return channel.tryLock();
+		}
+		catch (OverlappingFileLockException e) {
+			// Only possible if another part of this JVM locked the file without going through this class (re-entry is refused up front).
+			return null;
+		}
+	}
+
+	private static IOException timedOut(Path lockPath, long timeout) {
+		Counters.getInstance().increment(TIMEOUTS);
+		return new IOException(String.format("Timed out after %s milliseconds waiting for lock on \"%s\"", timeout, lockPath));
+	}
+
+	public boolean isValid() {
+		return fileLock.isValid();
+	}
+
+	/**
+	 * Release the lock. Closing the channel releases the file lock with it. Closing a lock that is already released has no effect.
+	 * @throws IllegalMonitorStateException The lock is held by another thread, which has to be the one that releases it.
+	 */
+	@Override
+	public void close() throws IOException {
+		if( ! channel.isOpen()) {
+			return;
+		}
+		if( ! localLock.isHeldByCurrentThread()) {
+			throw new IllegalMonitorStateException(String.format("The lock on \"%s\" can only be released by the thread that holds it", lockPath));
+		}
+		try {
+			channel.close();
+		}
+		finally {
+			localLock.unlock();
+		}
+	}
+}
@@ -4,9 +4,24 @@ import java.io.IOException;
 import java.nio.file.FileSystem;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
 
+import aws.credentials.file.CredentialsFile.FsyncPolicy;
+import aws.credentials.file.CredentialsFile.ReadMode;
+import aws.credentials.file.CredentialsFile.Type;
+import aws.credentials.file.CredentialsFile.WriteStrategy;
+import aws.credentials.file.CredentialsFileJournal.Change;
 import aws.credentials.profile.NamedProfile;
+import aws.credentials.util.Counters;
 
 /**
  * This class replaces a specified named profile in one credentials file with the corresponding named profile in another credentials file.
@@ -16,16 +31,105 @@ import aws.credentials.profile.NamedProfile;
  */
 public class CredentialsFileModifier {
 
+	/**
+	 * Counters of how often the target file was rewritten, and how often rewriting it was skipped because nothing would have changed.
+	 */
+	public static final String WRITTEN = "target.written";
+	public static final String SKIPPED = "target.skipped";
+	/**
+	 * Counters of how often the target file had changed by the time it was to be written, so the update was merged with the change, and
+	 * how often the change was to the same named profile, so the update failed.
+	 */
+	public static final String MERGED = "target.merged";
+	public static final String CONFLICTS = "target.conflicts";
+	
+	private static final int MAX_ATTEMPTS = 10;
+
+	private Path target;
 	private CredentialsFile oldcreds;
+	private FileTime baseModified;
+	private long baseFingerprint;
 	private CredentialsFile newcreds;
+	private FsyncPolicy fsyncPolicy = FsyncPolicy.FILE_AND_DIRECTORY;
+	private WriteStrategy writeStrategy = WriteStrategy.REWRITE;
+	private long lockTimeout = CredentialsFileLock.DEFAULT_TIMEOUT;
+	private CredentialsFileJournal journal;
+	private Type type;
 	
 	public CredentialsFileModifier(FileSystem fs, String source, String target) {
 		this(fs, fs.getPath(source), fs.getPath(target));
 	}
 	
 	public CredentialsFileModifier(FileSystem fs, Path newcreds, Path oldcreds) {
-		this.oldcreds = new CredentialsFile(oldcreds);
-		this.newcreds = new CredentialsFile(newcreds);
+		// Only one named profile of each file is looked into, so there is no need to parse the rest.
+		this(fs, oldcreds);
+		this.newcreds = new CredentialsFile(newcreds, ReadMode.STREAM, true);
+	}
+	
+	/**
+	 * Create a modifier with no source credentials file, for making changes to the target with updateNamedProfiles only.
+	 * @param fs
+	 * @param target
+	 */
+	public CredentialsFileModifier(FileSystem fs, Path target) {
+		this.target = target;
+		readTarget();
+	}
+	
+	/**
+	 * Set what must reach the disk before the target file is considered updated (FILE_AND_DIRECTORY by default).
+	 * @param fsyncPolicy
+	 * @return
+	 */
+	public CredentialsFileModifier setFsyncPolicy(FsyncPolicy fsyncPolicy) {
+		this.fsyncPolicy = fsyncPolicy;
+		return this;
+	}
+	
+	/**
+	 * Set how the target file is written (REWRITE by default).
+	 * @param writeStrategy
+	 * @return
+	 */
+	public CredentialsFileModifier setWriteStrategy(WriteStrategy writeStrategy) {
+		this.writeStrategy = writeStrategy;
+		return this;
+	}
+
+	/**
+	 * Set how many milliseconds to wait for another process (or thread) updating the target file to finish (10 seconds by default).
+	 * @param lockTimeout
+	 * @return
+	 */
+	public CredentialsFileModifier setLockTimeout(long lockTimeout) {
+		this.lockTimeout = lockTimeout;
+		return this;
+	}
+	
+	/**
+	 * Set the type of the target, when it cannot be told by its name (see Type.resolve). 
+	 * The target is read again with the new type.
+	 * @param type
+	 * @return
+	 */
+	public CredentialsFileModifier setType(Type type) {
+		this.type = type;
+		readTarget();
+		return this;
+	}
+	
+	/**
+	 * Set the journal to record changes to the target in before the target is persisted (none by default).
+	 * @param journal
+	 * @return
+	 */
+	public CredentialsFileModifier setJournal(CredentialsFileJournal journal) {
+		this.journal = journal;
+		return this;
+	}
+	
+	private CredentialsFile read(Path path) {
+		return new CredentialsFile(path, ReadMode.STREAM, true, type);
 	}
 
 	/**
@@ -35,32 +139,199 @@ public class CredentialsFileModifier {
 	 * If no such named profile exists in the source file and it has more than one profile in it, then abort.
 	 * Otherwise, update the named profile in the target with the source if the source is a default profile.
 	 * Otherwise, append the named profile to the target with the source.
+	 * 
+	 * The target file is not rewritten if it would not change, ie: the browser plugin downloaded the same credentials again.
+	 * This is known without touching the rest of the target when the named profile in it already has the same fingerprint as the
+	 * one it would be updated with, and otherwise from the fingerprint of the target content as it would be persisted.
+	 * 
+	 * The target is read and modified without a lock. Only checking that the target is still as it was read, and persisting it, happen
+	 * while holding a CredentialsFileLock, which is free unless another update is persisting at the same moment. If the target was 
+	 * changed in the meantime (ie: by "aws configure set"), the update is merged with the change one named profile at a time:
+	 * the changed target is taken as it now is, and the named profile is modified in it again. This fails only if the same named profile
+	 * was changed to something else, since one change or the other would be lost.
 	 *  
 	 * @param profileName
-	 * @throws IOException 
+	 * @return false if the target file was left as it was.
+	 * @throws CredentialsFileConflictException The same named profile was changed in the target by someone else.
+	 * @throws IOException The target could not be written, or was locked by another update for longer than the lock timeout.
+	 */
+	public boolean updateNamedProfile(String profileName) throws IOException {
+		NamedProfile incoming = newcreds.has(profileName) ? newcreds.get(profileName) : (newcreds.hasOnlyDefault() ? newcreds.getDefault() : null);
+		return updateNamedProfiles(Collections.singletonMap(profileName, incoming));
+	}
+	
+	/**
+	 * Make a set of changes to the target credentials file, each replacing the named profile by the specified name with the specified 
+	 * named profile (or appending it as a profile by that name), and persist the target once for all of them. 
+	 * Changes the target already has are left out, and the target is not rewritten if none are left.
+	 * 
+	 * The changes are merged with a change made to the target by someone else in the meantime as described for updateNamedProfile.
+	 * A change to a named profile that someone else changed to something else is left out, the rest are persisted, and then a 
+	 * CredentialsFileConflictException names the profiles that were left out.
+	 * 
+	 * @param changes named profiles by the name they are to have in the target, in the order any new ones are to be appended.
+	 * @return false if the target file was left as it was.
+	 * @throws CredentialsFileConflictException Named profiles changed in the target by someone else.
+	 * @throws IOException The target could not be written, or was locked by another update for longer than the lock timeout.
 	 */
-	public void updateNamedProfile(String profileName) throws IOException {
+	public boolean updateNamedProfiles(Map<String, NamedProfile> changes) throws IOException {
+		if(oldcreds == null) {
+			readTarget();
+		}
 		
-		if(newcreds.has(profileName) && oldcreds.has(profileName)) {
-			oldcreds.update(newcreds.get(profileName));
+		Map<String, NamedProfile> pending = new LinkedHashMap<String, NamedProfile>();
+		Map<String, Long> bases = new HashMap<String, Long>();
+		for(Entry<String, NamedProfile> change : changes.entrySet()) {
+			if(change.getValue() != null) {
+				pending.put(change.getKey(), change.getValue());
+				bases.put(change.getKey(), getFingerprint(oldcreds, change.getKey()));
+			}
+		}
+		List<String> conflicts = new ArrayList<String>();
+		
+		try {
+			boolean written = false;
+			for(int attempt = 1; written == false; attempt++) {
+				pending.entrySet().removeIf(change -> Objects.equals(change.getValue().getFingerprint(), getFingerprint(oldcreds, change.getKey())));
+				List<Change> journalled = new ArrayList<Change>();
+				for(String profileName : journal == null ? Collections.<String>emptySet() : pending.keySet()) {
+					journalled.add(new Change(profileName, oldcreds.has(profileName) ? oldcreds.get(profileName) : null));
+				}
+				if(pending.isEmpty() || ! modify(pending)) {
+					break;
+				}
+				
+				try(CredentialsFileLock lock = CredentialsFileLock.acquire(target, lockTimeout)) {
+					CredentialsFile theirs = readIfChanged();
+					if(theirs == null) {
+						// A newly added profile is just appended to the target. Otherwise, unless patched, the target is replaced in one 
+						// atomic rename, so the aws cli never reads it half written.
+						persist(journalled);
+						Counters.getInstance().increment(WRITTEN);
+						written = true;
+						continue;
+					}
+					
+					// Named profiles left alone by the other change are changed again over the changed target. Those already changed to 
+					// the same thing are left out on the next attempt.
+					for(Iterator<Entry<String, NamedProfile>> i = pending.entrySet().iterator(); i.hasNext(); ) {
+						Entry<String, NamedProfile> change = i.next();
+						Long changed = getFingerprint(theirs, change.getKey());
+						if( ! Objects.equals(bases.get(change.getKey()), changed) && ! Objects.equals(change.getValue().getFingerprint(), changed)) {
+							Counters.getInstance().increment(CONFLICTS);
+							conflicts.add(change.getKey());
+							i.remove();
+						}
+					}
+					if(attempt == MAX_ATTEMPTS) {
+						throw new IOException(String.format("\"%s\" kept changing while it was being updated, gave up after %s attempts", target, attempt));
+					}
+					Counters.getInstance().increment(MERGED);
+					oldcreds = theirs;
+				}
+			}
+			
+			if( ! written) {
+				Counters.getInstance().increment(SKIPPED);
+			}
+			if( ! conflicts.isEmpty()) {
+				throw new CredentialsFileConflictException(target, conflicts);
+			}
+			return written;
+		}
+		finally {
+			// Whatever happened, the target is read again by the next update.
+			oldcreds = null;
+		}
+	}
+	
+	/**
+	 * Persist the target, recording the changes to it in the journal first if there is one.
+	 * @param changes The named profiles as they were before they were modified.
+	 */
+	private void persist(List<Change> changes) throws IOException {
+		if(journal == null) {
+			oldcreds.persist(fsyncPolicy, writeStrategy);
+			return;
 		}
-		else if(oldcreds.has(profileName) && newcreds.hasOnlyDefault()) {
-			oldcreds.update(profileName, newcreds.getDefault());
+		for(Change change : changes) {
+			change.setAfter(oldcreds.get(change.getProfileName()));
 		}
-		else if(newcreds.hasOnlyDefault()) {
-			NamedProfile np = newcreds.getDefault();
-			np.setProfileName(profileName);
-			oldcreds.addNamedProfile(np);
+		long id = journal.prepare(changes);
+		try {
+			oldcreds.persist(fsyncPolicy, writeStrategy);
 		}
-		else if(newcreds.has(profileName)) {
-			oldcreds.addNamedProfile(newcreds.get(profileName));
+		catch (IOException e) {
+			// The target is known to be as it was only if it still reads the same. Otherwise recovery finishes the update.
+			if(readIfChanged() == null) {
+				journal.abort(id);
+			}
+			throw e;
 		}
-		
-		oldcreds.persist(
-			Files.newOutputStream(
-					oldcreds.getPath(), 
-					StandardOpenOption.CREATE, 
-					StandardOpenOption.TRUNCATE_EXISTING)
-		);
+		journal.commit(id);
+	}
+	
+	/**
+	 * Read the target, noting when it was last modified and the fingerprint of its content, so it can be told later whether it has changed.
+	 */
+	private void readTarget() {
+		// The modification time is taken first, so a change made while the target is being read also shows as a later modification time.
+		baseModified = getLastModifiedTime(target);
+		oldcreds = read(target);
+		baseFingerprint = oldcreds.getDocument().getSourceFingerprint();
+	}
+	
+	/**
+	 * Read the target again, and compare it to when it was last read. The modification time alone cannot rule out a change, since the
+	 * file system may only keep it to the second, so the fingerprint of the content is compared as well.
+	 * @return The target as it is now if it has changed (and it becomes the target as last read), otherwise null.
+	 */
+	private CredentialsFile readIfChanged() {
+		FileTime modified = getLastModifiedTime(target);
+		CredentialsFile current = read(target);
+		long fingerprint = current.getDocument().getSourceFingerprint();
+		if(Objects.equals(modified, baseModified) && fingerprint == baseFingerprint) {
+			return null;
+		}
+		baseModified = modified;
+		baseFingerprint = fingerprint;
+		return current;
+	}
+	
+	private static FileTime getLastModifiedTime(Path path) {
+		try {
+			return Files.getLastModifiedTime(path);
+		}
+		catch (IOException e) {
+			// The file does not exist (yet).
+			return null;
+		}
+	}
+	
+	/**
+	 * @return The fingerprint of the named profile in the credentials file, or null if it has no such named profile.
+	 */
+	private static Long getFingerprint(CredentialsFile creds, String profileName) {
+		return creds.has(profileName) ? creds.get(profileName).getFingerprint() : null;
+	}
+	
+	/**
+	 * Make the changes to the target as last read. A named profile is added to the target as a copy, so the changes themselves are
+	 * never renamed or taken into a target that is read again for another attempt.
+	 * @param changes
+	 * @return false if the changes made no difference to the target.
+	 */
+	private boolean modify(Map<String, NamedProfile> changes) {
+		for(Entry<String, NamedProfile> change : changes.entrySet()) {
+			if(oldcreds.has(change.getKey())) {
+				oldcreds.update(change.getKey(), change.getValue());
+			}
+			else {
+				NamedProfile np = new NamedProfile(change.getValue().rawString(), oldcreds.getType());
+				np.setProfileName(change.getKey());
+				oldcreds.addNamedProfile(np);
+			}
+		}
+		return oldcreds.isModified();
 	}
 }
@@ -6,32 +6,63 @@ import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
 import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
 
 import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
 import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.PathMatcher;
 import java.nio.file.WatchEvent;
 import java.nio.file.WatchKey;
 import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
+import aws.credentials.util.Counters;
 import aws.credentials.util.Utils;
 
 /**
- * An object that waits for creation of or modification to a specified file to occur.
+ * An object that waits for creation of or modification to specified files to occur.
  * A provided event handler is invoked when this happens.
- * 
+ *
+ * Any number of directories can be watched on the one WatchService and thread. Each registration pairs a directory with a matcher
+ * for the files in it to watch and the handler for their events, and registrations can be added and removed while watching
+ * (ie: to watch the download folders of several browsers).
+ *
+ * Saving a download typically fires a CREATE followed by several MODIFY events for the same file. Events for a file are therefore
+ * held back until no more have arrived for a quiet period, and then delivered to the handler as one callback (onCreate if the
+ * file was created among them, otherwise onUpdate). A file that keeps changing is still delivered once the max delay has passed
+ * since its first held event. Callbacks are made on a thread of their own, so the watch service keeps being drained meanwhile.
+ *
  * @author wrh
  *
  */
-public class FileWatcher implements Runnable {
-	
+public class FileWatcher implements Watcher {
+
+	/**
+	 * Counters of events for watched files, and of the callbacks they were collapsed into.
+	 */
+	public static final String RAW = "events.raw";
+	public static final String DELIVERED = "events.delivered";
+
+	public static final long DEFAULT_QUIET_PERIOD = 250;
+	public static final long DEFAULT_MAX_DELAY = 2000;
+
 	private final WatchService watcher;
-	private final Path watchable;
-	private final Path watchableDir;
-	private final FileEventHandler handler;
-	private WatchKey initialKey;
-	private boolean stop;
-	
+	private final Map<WatchKey, List<Registration>> registry = new ConcurrentHashMap<WatchKey, List<Registration>>();
+	private volatile boolean stop;
+	private long quietPeriod = DEFAULT_QUIET_PERIOD;
+	private long maxDelay = DEFAULT_MAX_DELAY;
+	private ScheduledExecutorService scheduler;
+
 	/**
 	 * Instantiate FileWatcher, having the directory of a watchable file in the default file system registered with a WatchService.
 	 * @param watchable
@@ -50,59 +81,238 @@ public class FileWatcher implements Runnable {
 	 * @throws IOException
 	 */
 	public FileWatcher(Path watchable, FileEventHandler handler, FileSystem fs) throws IOException {
-		this.watchable = watchable;
+		this(fs);
+		register(watchable, handler);
+	}
+
+	/**
+	 * Instantiate FileWatcher with nothing registered yet. See register.
+	 * @param fs
+	 * @throws IOException
+	 */
+	public FileWatcher(FileSystem fs) throws IOException {
 		this.watcher = fs.newWatchService();
-		this.watchableDir = watchable.getParent();
-		this.handler = handler;
-		if(Files.isDirectory(watchableDir)) {
-			initialKey = watchableDir.register(watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
-		}
-		else {
+	}
+
+	/**
+	 * Watch a single file.
+	 * @param watchable
+	 * @param handler
+	 * @return The registration, for unregister.
+	 * @throws IOException The directory of the file does not exist.
+	 */
+	public Registration register(Path watchable, FileEventHandler handler) throws IOException {
+		if(watchable.getParent() == null) {
 			throw new IOException(String.format("Path \"%s\" is invalid", watchable));
 		}
+		return register(watchable.getParent(), file -> file.equals(watchable), handler, watchable.toString());
+	}
+
+	/**
+	 * Watch every file in a directory that the matcher accepts. The matcher is given the full path of the file.
+	 * @param directory
+	 * @param matcher
+	 * @param handler
+	 * @return The registration, for unregister.
+	 * @throws IOException The directory does not exist.
+	 */
+	public Registration register(Path directory, PathMatcher matcher, FileEventHandler handler) throws IOException {
+		return register(directory, matcher, handler, directory.toString());
+	}
+
+	@Override
+	public void watch(Path watchable, FileEventHandler handler) throws IOException {
+		register(watchable, handler);
+	}
+
+	@Override
+	public void watch(Path directory, PathMatcher matcher, FileEventHandler handler) throws IOException {
+		register(directory, matcher, handler);
+	}
+
+	private Registration register(Path directory, PathMatcher matcher, FileEventHandler handler, String description) throws IOException {
+		if( ! Files.isDirectory(directory)) {
+			throw new IOException(String.format("Path \"%s\" is invalid", description));
+		}
+		// Registering a directory that is already registered returns the same key, so its registrations share the key.
+		WatchKey key = directory.register(watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+		Registration registration = new Registration(key, directory, matcher, handler, description);
+		registry.computeIfAbsent(key, k -> new CopyOnWriteArrayList<Registration>()).add(registration);
+		return registration;
 	}
 
+	/**
+	 * Stop watching for a registration. The directory is no longer watched once nothing else is registered for it.
+	 * @param registration
+	 * @return False if the registration was not registered.
+	 */
+	public boolean unregister(Registration registration) {
+		List<Registration> registrations = registry.get(registration.key);
+		if(registrations == null || ! registrations.remove(registration)) {
+			return false;
+		}
+		synchronized(this) {
+			for(Pending held : registration.pending.values()) {
+				held.delivery.cancel(false);
+			}
+			registration.pending.clear();
+		}
+		if(registrations.isEmpty()) {
+			registry.remove(registration.key);
+			registration.key.cancel();
+		}
+		return true;
+	}
+
+	/**
+	 * @return Everything currently registered.
+	 */
+	public List<Registration> getRegistrations() {
+		List<Registration> registrations = new ArrayList<Registration>();
+		for(List<Registration> list : registry.values()) {
+			registrations.addAll(list);
+		}
+		return registrations;
+	}
+
+	/**
+	 * Stop watching. Closing the watch service wakes the watching thread if it is waiting for an event.
+	 */
+	@Override
 	public void setStop() {
 		this.stop = true;
+		try {
+			watcher.close();
+		}
+		catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Set how many milliseconds must pass without another event for a file before its events are delivered.
+	 * Zero delivers every event as it arrives.
+	 * @param quietPeriod
+	 * @return
+	 */
+	public FileWatcher setQuietPeriod(long quietPeriod) {
+		this.quietPeriod = quietPeriod;
+		return this;
+	}
+
+	/**
+	 * Set the most milliseconds the events for a file can be held back for, however often it keeps changing.
+	 * @param maxDelay
+	 * @return
+	 */
+	public FileWatcher setMaxDelay(long maxDelay) {
+		this.maxDelay = maxDelay;
+		return this;
 	}
-	
+
 	/**
 	 * Identify what kind of event occurred and handle it accordingly.
-	 * @param handler
 	 * @param key
-	 * @throws IOException 
+	 * @param registrations
+	 * @throws IOException
 	 */
-	private void handleEvent(WatchKey key) throws IOException {
+	private void handleEvent(WatchKey key, List<Registration> registrations) throws IOException {
         for (WatchEvent<?> event : key.pollEvents()) {
         	if (event.kind() == OVERFLOW) {
         		System.out.println("Overflow event occurred. Unlikely - how did this happen?");
                 continue;
             }
-        	
+
         	if(event.kind() == ENTRY_CREATE || event.kind() == ENTRY_MODIFY) {
         		Path relative = (Path) event.context();
-        		Path file = watchableDir.resolve(relative);
-        		if(file.equals(watchable)) {
-	        		System.out.format("%s: %s: %s\n", Utils.getTimestamp(), event.kind().name(), file);
-	        		if(event.kind() == ENTRY_CREATE) {
-	        			handler.onCreate(file);
+        		for(Registration registration : registrations) {
+	        		Path file = registration.directory.resolve(relative);
+	        		if(registration.matcher.matches(file)) {
+		        		System.out.format("%s: %s: %s\n", Utils.getTimestamp(), event.kind().name(), file);
+		        		Counters.getInstance().increment(RAW);
+		        		if(quietPeriod > 0) {
+		        			debounce(registration, file, event.kind() == ENTRY_CREATE);
+		        		}
+		        		else {
+		        			deliver(registration, file, event.kind() == ENTRY_CREATE);
+		        		}
 	        		}
 	        		else {
-	        			handler.onUpdate(file);
-	        		}        			
-        		}
-        		else {
-        			// System.out.format("\"%s\" is not being watched, skipping.\n", file);
-        			continue;
+	        			// System.out.format("\"%s\" is not being watched, skipping.\n", file);
+	        			continue;
+	        		}
         		}
         	}
         }
 	}
 
 	/**
-	 * Start watching the file for events, invoking the supplied handler when they occur.
-	 * @param handler
-	 * @throws IOException
+	 * Hold back the event for the file until the quiet period has passed without another, restarting the wait if one is already
+	 * being held, but not past the max delay since the first.
+	 * @param registration
+	 * @param file
+	 * @param created
+	 */
+	private synchronized void debounce(Registration registration, Path file, boolean created) {
+		if(scheduler == null) {
+			scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "debounce");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		long now = System.nanoTime();
+		Pending held = registration.pending.get(file);
+		if(held == null) {
+			held = new Pending(now);
+			registration.pending.put(file, held);
+		}
+		else {
+			held.delivery.cancel(false);
+		}
+		held.created |= created;
+		long remaining = TimeUnit.NANOSECONDS.toMillis(held.first + TimeUnit.MILLISECONDS.toNanos(maxDelay) - now);
+		held.delivery = scheduler.schedule(() -> release(registration, file), Math.max(0, Math.min(quietPeriod, remaining)), TimeUnit.MILLISECONDS);
+	}
+
+	private void release(Registration registration, Path file) {
+		Pending held;
+		synchronized(this) {
+			held = registration.pending.remove(file);
+		}
+		if(held == null) {
+			return;
+		}
+		deliver(registration, file, held.created);
+	}
+
+	/**
+	 * Invoke the handler for the file. A handler that fails is reported, and only fails the one file, so watching carries on.
+	 * @param registration
+	 * @param file
+	 * @param created
+	 */
+	private void deliver(Registration registration, Path file, boolean created) {
+		Counters.getInstance().increment(DELIVERED);
+		try {
+			if(created) {
+				registration.handler.onCreate(file);
+			}
+			else {
+				registration.handler.onUpdate(file);
+			}
+		}
+		catch (NotHandledException e) {
+			System.err.format("\"%s\" was not handled, leaving it to be handled again: %s\n", file, e.getMessage());
+		}
+		catch (IOException | RuntimeException e) {
+			System.err.format("Could not handle \"%s\"\n", file);
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Start watching the registered files for events, invoking their handlers when they occur.
 	 */
 	private void startWatching() {
 		for (;;) {
@@ -110,44 +320,101 @@ public class FileWatcher implements Runnable {
 				System.out.println("A stop has been set. Stopping watcher...");
 				break;
 			}
-			
+
             // Wait for key to be signalled (the take method does the waiting).
             WatchKey key;
             try {
                 key = watcher.take();
-                // System.out.format("Event for \"%s\" detected.\n", watchable);
-            } 
+            }
             catch (InterruptedException x) {
             	x.printStackTrace(System.err);
                 break;
             }
-			
-            if( ! key.equals(initialKey)) {
-            	System.err.println("WatchKey not recognized! Stopping watcher...");
-            	break;
+            catch (ClosedWatchServiceException x) {
+            	continue;
             }
-            
+
+            List<Registration> registrations = registry.get(key);
+            if(registrations == null) {
+            	// Unregistered since the event was queued.
+            	key.pollEvents();
+            	continue;
+            }
+
             try {
-				handleEvent(key);
-			} 
+				handleEvent(key, registrations);
+			}
             catch (Exception e) {
 				e.printStackTrace();
 				setStop();
 				continue;
 			}
-            
+
             if( ! key.reset()) {
-            	System.out.format("The path: \"%s\" is no longer valid. Stopping watcher...\n", watchable);
-            	break;
+            	registry.remove(key);
+            	for(Registration registration : registrations) {
+            		System.out.format("The path: \"%s\" is no longer valid. No longer watching it.\n", registration.description);
+            	}
             }
 		}
+		synchronized(this) {
+			if(scheduler != null) {
+				scheduler.shutdownNow();
+			}
+		}
 		System.out.println("Watcher stopped.");
 	}
 
 	@Override
 	public void run() {
-		System.out.println(String.format("Watcher has started. Watching %s...", watchable));
-		startWatching();		
+		List<String> watching = new ArrayList<String>();
+		for(Registration registration : getRegistrations()) {
+			watching.add(registration.description);
+		}
+		System.out.println(String.format("Watcher has started. Watching %s...", String.join(", ", watching)));
+		startWatching();
 	}
 
+	/**
+	 * A directory being watched, with the matcher for the files in it to watch and the handler for their events.
+	 */
+	public static class Registration {
+		private final WatchKey key;
+		private final Path directory;
+		private final PathMatcher matcher;
+		private final FileEventHandler handler;
+		private final String description;
+		/**
+		 * Events held back until their quiet period is over, by file.
+		 */
+		private final Map<Path, Pending> pending = new HashMap<Path, Pending>();
+
+		private Registration(WatchKey key, Path directory, PathMatcher matcher, FileEventHandler handler, String description) {
+			this.key = key;
+			this.directory = directory;
+			this.matcher = matcher;
+			this.handler = handler;
+			this.description = description;
+		}
+
+		public Path getDirectory() {
+			return directory;
+		}
+
+		public FileEventHandler getHandler() {
+			return handler;
+		}
+	}
+
+	/**
+	 * The events held back for one file.
+	 */
+	private static class Pending {
+		private final long first;
+		private boolean created;
+		private ScheduledFuture<?> delivery;
+		private Pending(long first) {
+			this.first = first;
+		}
+	}
 }
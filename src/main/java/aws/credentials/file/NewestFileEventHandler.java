@@ -0,0 +1,217 @@
+package aws.credentials.file;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.Watchable;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import aws.credentials.util.Counters;
+
+/**
+ * A FileEventHandler for a source that is any file in a directory matching a pattern, rather than one particular file. Browsers save
+ * repeat downloads as "credentials (1)", "credentials (2)" and so on, so whichever matching file is newest is the latest download.
+ *
+ * An event for a matching file is passed on for the newest matching file only, and (unless told otherwise) only if that file is not
+ * older than the one last passed on, so a stale download touched again is not mistaken for a new one. Once passed on, the handled file
+ * and any older matches can be deleted or moved aside (see Consume), so the directory does not keep growing and scanning it stays cheap.
+ * A file the handler fails on (ie: throws NotHandledException) is neither consumed nor remembered as handled, so its next event is tried again.
+ *
+ * @author wrh
+ *
+ */
+public class NewestFileEventHandler implements FileEventHandler {
+
+	/**
+	 * Counters of events not passed on because a newer (or no newer) matching file exists, and of matching files consumed.
+	 */
+	public static final String SKIPPED = "downloads.skipped";
+	public static final String CONSUMED = "downloads.consumed";
+
+	/**
+	 * The directory consumed files are moved to when rotated, and how many of them are kept there.
+	 */
+	public static final String ROTATE_DIRECTORY = "consumed";
+	public static final int ROTATE_KEEP = 5;
+
+	private final Path directory;
+	private final PathMatcher matcher;
+	private final FileEventHandler handler;
+	private Consume consume = Consume.KEEP;
+	private boolean ignoreOlder = true;
+	private Path lastProcessed;
+	private FileTime lastModified;
+
+	/**
+	 * @param directory
+	 * @param matcher Given the name of each file in the directory.
+	 * @param handler
+	 */
+	public NewestFileEventHandler(Path directory, PathMatcher matcher, FileEventHandler handler) {
+		this.directory = directory;
+		this.matcher = matcher;
+		this.handler = handler;
+	}
+
+	public NewestFileEventHandler setConsume(Consume consume) {
+		this.consume = consume;
+		return this;
+	}
+
+	public NewestFileEventHandler setIgnoreOlder(boolean ignoreOlder) {
+		this.ignoreOlder = ignoreOlder;
+		return this;
+	}
+
+	/**
+	 * @param file
+	 * @return Whether the file is in the directory and its name matches.
+	 */
+	public boolean matches(Path file) {
+		return directory.equals(file.getParent()) && matcher.matches(file.getFileName());
+	}
+
+	/**
+	 * @return The matching files in the directory, newest first.
+	 * @throws IOException
+	 */
+	public List<Path> getMatches() throws IOException {
+		List<Path> matches = new ArrayList<Path>();
+		try(DirectoryStream<Path> stream = Files.newDirectoryStream(directory, entry -> Files.isRegularFile(entry) && matcher.matches(entry.getFileName()))) {
+			for(Path entry : stream) {
+				matches.add(entry);
+			}
+		}
+		matches.sort(Comparator.comparing(NewestFileEventHandler::getLastModified).reversed());
+		return matches;
+	}
+
+	private static FileTime getLastModified(Path file) {
+		try {
+			return Files.getLastModifiedTime(file);
+		}
+		catch (IOException e) {
+			// Gone since the directory was listed.
+			return FileTime.fromMillis(0);
+		}
+	}
+
+	/**
+	 * Pass the event on for the newest matching file, if it is the file of the event.
+	 * @param watchable
+	 * @param created
+	 * @throws IOException
+	 */
+	private synchronized void handle(Watchable watchable, boolean created) throws IOException {
+		List<Path> matches = getMatches();
+		if(matches.isEmpty() || ! matches.get(0).equals(watchable)) {
+			// A newer download has an event of its own.
+			Counters.getInstance().increment(SKIPPED);
+			System.out.format("\"%s\" is not the newest download, skipping.\n", watchable);
+			return;
+		}
+		Path newest = matches.get(0);
+		FileTime modified = getLastModified(newest);
+		if(ignoreOlder && lastModified != null) {
+			int compared = modified.compareTo(lastModified);
+			if(compared < 0 || (compared == 0 && newest.equals(lastProcessed))) {
+				Counters.getInstance().increment(SKIPPED);
+				System.out.format("\"%s\" is no newer than \"%s\", which was already handled, skipping.\n", newest, lastProcessed);
+				return;
+			}
+		}
+
+		if(created) {
+			handler.onCreate(newest);
+		}
+		else {
+			handler.onUpdate(newest);
+		}
+		lastProcessed = newest;
+		lastModified = modified;
+
+		// Only files no newer than the one handled are consumed, in case another download has since arrived.
+		for(Path match : matches) {
+			if(getLastModified(match).compareTo(modified) <= 0) {
+				consume(match);
+			}
+		}
+	}
+
+	private void consume(Path file) {
+		try {
+			switch(consume) {
+				case DELETE:
+					Files.deleteIfExists(file);
+					break;
+				case ROTATE:
+					rotate(file);
+					break;
+				default:
+					return;
+			}
+			Counters.getInstance().increment(CONSUMED);
+		}
+		catch (IOException e) {
+			System.err.format("Could not %s \"%s\"\n", consume.name().toLowerCase(), file);
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Move the file into the rotate directory, removing the oldest files there beyond ROTATE_KEEP.
+	 * @param file
+	 * @throws IOException
+	 */
+	private void rotate(Path file) throws IOException {
+		Path rotated = directory.resolve(ROTATE_DIRECTORY);
+		Files.createDirectories(rotated);
+		Files.move(file, rotated.resolve(file.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+		List<Path> kept = new ArrayList<Path>();
+		try(DirectoryStream<Path> stream = Files.newDirectoryStream(rotated)) {
+			for(Path entry : stream) {
+				kept.add(entry);
+			}
+		}
+		kept.sort(Comparator.comparing(NewestFileEventHandler::getLastModified).reversed());
+		for(Path old : kept.subList(Math.min(ROTATE_KEEP, kept.size()), kept.size())) {
+			Files.deleteIfExists(old);
+		}
+	}
+
+	@Override
+	public void onUpdate(Watchable watchable) throws IOException {
+		handle(watchable, false);
+	}
+
+	@Override
+	public void onCreate(Watchable watchable) throws IOException {
+		handle(watchable, true);
+	}
+
+	@Override
+	public void onDelete(Watchable watchable) {
+		// Consuming a file deletes it, so a delete is no news.
+	}
+
+	/**
+	 * What to do with a matching file once handled: leave it, delete it, or move it into the rotate directory.
+	 */
+	public static enum Consume {
+		KEEP, DELETE, ROTATE;
+		public static Consume resolve(String name) {
+			for(Consume consume : values()) {
+				if(consume.name().equalsIgnoreCase(name)) {
+					return consume;
+				}
+			}
+			return null;
+		}
+	};
+}
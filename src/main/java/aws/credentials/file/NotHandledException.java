@@ -0,0 +1,20 @@
+package aws.credentials.file;
+
+import java.io.IOException;
+
+/**
+ * Thrown by a FileEventHandler that could not handle the event for a file this time, but may well be able to next time (ie: every target 
+ * credentials file ran into a conflicting change, or timed out waiting for its lock). The file is to be left as it is, so it is not 
+ * consumed (see NewestFileEventHandler), and the watcher reports it and carries on watching.
+ *
+ * @author wrh
+ *
+ */
+public class NotHandledException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	public NotHandledException(String message, Throwable cause) {
+		super(message, cause);
+	}
+}
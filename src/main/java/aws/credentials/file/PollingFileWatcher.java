@@ -0,0 +1,381 @@
+package aws.credentials.file;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import aws.credentials.util.Counters;
+import aws.credentials.util.Fingerprint;
+import aws.credentials.util.Utils;
+
+/**
+ * A Watcher for file systems whose WatchService never fires (ie: a home directory mounted over the network), which looks for
+ * creation of or modification to the watched files itself.
+ *
+ * Each poll only reads the size and last modified time of the watched files. A file whose size or last modified time moved is
+ * then streamed through a fingerprint, and only reported to the handler as modified if its content actually changed, so a file
+ * that is merely touched (or whose timestamp the mount reports differently) causes no update.
+ *
+ * The interval between polls is kept at its minimum for a while after a change, so the rest of a download is picked up quickly,
+ * and then doubles with every quiet poll up to its maximum, so an idle watcher costs next to nothing.
+ *
+ * @author wrh
+ *
+ */
+public class PollingFileWatcher implements Watcher {
+
+	/**
+	 * Counters of polls, of files streamed through a fingerprint because their metadata moved, and of changes reported.
+	 */
+	public static final String POLLS = "poll.polls";
+	public static final String HASHED = "poll.hashed";
+	public static final String CHANGED = "poll.changed";
+
+	public static final long DEFAULT_MIN_INTERVAL = 250;
+	public static final long DEFAULT_MAX_INTERVAL = 5000;
+	public static final long DEFAULT_ACTIVE_PERIOD = 30000;
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private final List<Registration> registrations = new CopyOnWriteArrayList<Registration>();
+	private final Object sleeper = new Object();
+	private volatile boolean stop;
+	private long minInterval = DEFAULT_MIN_INTERVAL;
+	private long maxInterval = DEFAULT_MAX_INTERVAL;
+	private long activePeriod = DEFAULT_ACTIVE_PERIOD;
+	private volatile long interval = DEFAULT_MIN_INTERVAL;
+	private long lastChange = System.nanoTime();
+
+	public PollingFileWatcher() {
+		super();
+	}
+
+	/**
+	 * Instantiate PollingFileWatcher watching a single file.
+	 * @param watchable
+	 * @param handler
+	 * @throws IOException
+	 */
+	public PollingFileWatcher(Path watchable, FileEventHandler handler) throws IOException {
+		register(watchable, handler);
+	}
+
+	/**
+	 * Watch a single file.
+	 * @param watchable
+	 * @param handler
+	 * @return The registration, for unregister.
+	 * @throws IOException The directory of the file does not exist.
+	 */
+	public Registration register(Path watchable, FileEventHandler handler) throws IOException {
+		if(watchable.getParent() == null) {
+			throw new IOException(String.format("Path \"%s\" is invalid", watchable));
+		}
+		return register(watchable.getParent(), file -> file.equals(watchable), handler, watchable);
+	}
+
+	/**
+	 * Watch every file in a directory that the matcher accepts. The matcher is given the full path of the file.
+	 * @param directory
+	 * @param matcher
+	 * @param handler
+	 * @return The registration, for unregister.
+	 * @throws IOException The directory does not exist.
+	 */
+	public Registration register(Path directory, PathMatcher matcher, FileEventHandler handler) throws IOException {
+		return register(directory, matcher, handler, null);
+	}
+
+	@Override
+	public void watch(Path watchable, FileEventHandler handler) throws IOException {
+		register(watchable, handler);
+	}
+
+	@Override
+	public void watch(Path directory, PathMatcher matcher, FileEventHandler handler) throws IOException {
+		register(directory, matcher, handler);
+	}
+
+	private Registration register(Path directory, PathMatcher matcher, FileEventHandler handler, Path file) throws IOException {
+		if( ! Files.isDirectory(directory)) {
+			throw new IOException(String.format("Path \"%s\" is invalid", file == null ? directory : file));
+		}
+		Registration registration = new Registration(directory, matcher, handler, file);
+		// Files already there are only reported once they change, as a WatchService would.
+		for(Path candidate : registration.getCandidates()) {
+			Snapshot snapshot = Snapshot.of(candidate);
+			if(snapshot != null) {
+				snapshot.fingerprint = fingerprint(candidate);
+				registration.snapshots.put(candidate, snapshot);
+			}
+		}
+		registrations.add(registration);
+		return registration;
+	}
+
+	public boolean unregister(Registration registration) {
+		return registrations.remove(registration);
+	}
+
+	public List<Registration> getRegistrations() {
+		return new ArrayList<Registration>(registrations);
+	}
+
+	public PollingFileWatcher setMinInterval(long minInterval) {
+		this.minInterval = minInterval;
+		this.interval = minInterval;
+		return this;
+	}
+
+	public PollingFileWatcher setMaxInterval(long maxInterval) {
+		this.maxInterval = maxInterval;
+		return this;
+	}
+
+	/**
+	 * Set how many milliseconds after a change to keep polling at the minimum interval before backing off.
+	 * @param activePeriod
+	 * @return
+	 */
+	public PollingFileWatcher setActivePeriod(long activePeriod) {
+		this.activePeriod = activePeriod;
+		return this;
+	}
+
+	/**
+	 * @return The milliseconds until the next poll.
+	 */
+	public long getInterval() {
+		return interval;
+	}
+
+	@Override
+	public void setStop() {
+		this.stop = true;
+		synchronized(sleeper) {
+			sleeper.notifyAll();
+		}
+	}
+
+	/**
+	 * Look at every watched file once, reporting those created or modified since the last look.
+	 * @return Whether any were.
+	 * @throws IOException
+	 */
+	public boolean poll() throws IOException {
+		Counters.getInstance().increment(POLLS);
+		boolean changed = false;
+		for(Registration registration : registrations) {
+			Set<Path> seen = new HashSet<Path>();
+			for(Path file : registration.getCandidates()) {
+				Snapshot current = Snapshot.of(file);
+				if(current == null) {
+					continue;
+				}
+				seen.add(file);
+				Snapshot last = registration.snapshots.get(file);
+				if(last != null && last.isSameMetadata(current)) {
+					continue;
+				}
+				current.fingerprint = fingerprint(file);
+				registration.snapshots.put(file, current);
+				if(last != null && Objects.equals(last.fingerprint, current.fingerprint)) {
+					// Touched, but not changed.
+					continue;
+				}
+				changed = true;
+				Counters.getInstance().increment(CHANGED);
+				System.out.format("%s: %s: %s\n", Utils.getTimestamp(), last == null ? "ENTRY_CREATE" : "ENTRY_MODIFY", file);
+				deliver(registration, file, last == null);
+			}
+			registration.snapshots.keySet().retainAll(seen);
+		}
+		adjustInterval(changed);
+		return changed;
+	}
+
+	/**
+	 * Invoke the handler for the file. A handler that fails is reported, and only fails the one file, so watching carries on.
+	 * @param registration
+	 * @param file
+	 * @param created
+	 */
+	private void deliver(Registration registration, Path file, boolean created) {
+		try {
+			if(created) {
+				registration.handler.onCreate(file);
+			}
+			else {
+				registration.handler.onUpdate(file);
+			}
+		}
+		catch (NotHandledException e) {
+			System.err.format("\"%s\" was not handled, leaving it to be handled again: %s\n", file, e.getMessage());
+		}
+		catch (IOException | RuntimeException e) {
+			System.err.format("Could not handle \"%s\"\n", file);
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Tighten the interval to its minimum after a change, and double it with every quiet poll once the active period is over.
+	 * @param changed
+	 */
+	private void adjustInterval(boolean changed) {
+		long now = System.nanoTime();
+		if(changed) {
+			lastChange = now;
+			interval = minInterval;
+		}
+		else if(now - lastChange >= TimeUnit.MILLISECONDS.toNanos(activePeriod)) {
+			interval = Math.min(Math.max(interval * 2, minInterval), maxInterval);
+		}
+	}
+
+	/**
+	 * Stream the file through a fingerprint.
+	 * @param file
+	 * @return The fingerprint, or null if the file could not be read (ie: deleted since its metadata was read).
+	 */
+	private static Long fingerprint(Path file) {
+		Counters.getInstance().increment(HASHED);
+		Fingerprint fingerprint = new Fingerprint();
+		byte[] buffer = new byte[BUFFER_SIZE];
+		try(InputStream in = Files.newInputStream(file)) {
+			int read;
+			while((read = in.read(buffer)) > 0) {
+				fingerprint.append(buffer, 0, read);
+			}
+			return fingerprint.getValue();
+		}
+		catch (IOException e) {
+			return null;
+		}
+	}
+
+	@Override
+	public void run() {
+		List<String> watching = new ArrayList<String>();
+		for(Registration registration : registrations) {
+			watching.add(String.valueOf(registration.file == null ? registration.directory : registration.file));
+		}
+		System.out.println(String.format("Polling watcher has started. Watching %s...", String.join(", ", watching)));
+		while( ! stop) {
+			try {
+				poll();
+			}
+			catch (Exception e) {
+				e.printStackTrace();
+				setStop();
+				break;
+			}
+			try {
+				synchronized(sleeper) {
+					if( ! stop) {
+						sleeper.wait(interval);
+					}
+				}
+			}
+			catch (InterruptedException e) {
+				e.printStackTrace(System.err);
+				break;
+			}
+		}
+		System.out.println("Watcher stopped.");
+	}
+
+	/**
+	 * A directory being watched, with the matcher for the files in it to watch, the handler for their events, and what the watched
+	 * files looked like at the last poll.
+	 */
+	public static class Registration {
+		private final Path directory;
+		private final PathMatcher matcher;
+		private final FileEventHandler handler;
+		private final Path file;
+		private final Map<Path, Snapshot> snapshots = new HashMap<Path, Snapshot>();
+
+		private Registration(Path directory, PathMatcher matcher, FileEventHandler handler, Path file) {
+			this.directory = directory;
+			this.matcher = matcher;
+			this.handler = handler;
+			this.file = file;
+		}
+
+		/**
+		 * @return The files to look at. A single watched file is looked at directly, rather than by listing its directory.
+		 * @throws IOException
+		 */
+		private List<Path> getCandidates() throws IOException {
+			List<Path> candidates = new ArrayList<Path>();
+			if(file != null) {
+				candidates.add(file);
+				return candidates;
+			}
+			try(DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+				for(Path entry : stream) {
+					if(matcher.matches(entry)) {
+						candidates.add(entry);
+					}
+				}
+			}
+			return candidates;
+		}
+
+		public Path getDirectory() {
+			return directory;
+		}
+
+		public FileEventHandler getHandler() {
+			return handler;
+		}
+	}
+
+	/**
+	 * The size, last modified time and fingerprint of a file.
+	 */
+	private static class Snapshot {
+		private long size;
+		private FileTime modified;
+		private Long fingerprint;
+
+		/**
+		 * @param file
+		 * @return The snapshot, without the fingerprint, or null if the file is not there or is not a regular file.
+		 */
+		private static Snapshot of(Path file) {
+			try {
+				BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+				if( ! attributes.isRegularFile()) {
+					return null;
+				}
+				Snapshot snapshot = new Snapshot();
+				snapshot.size = attributes.size();
+				snapshot.modified = attributes.lastModifiedTime();
+				return snapshot;
+			}
+			catch (IOException e) {
+				return null;
+			}
+		}
+
+		private boolean isSameMetadata(Snapshot other) {
+			return size == other.size && Objects.equals(modified, other.modified);
+		}
+	}
+}
@@ -0,0 +1,191 @@
+package aws.credentials.file;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Watchable;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import aws.credentials.file.CredentialsFile.ReadMode;
+import aws.credentials.file.CredentialsFile.Type;
+import aws.credentials.profile.NamedProfile;
+import aws.credentials.util.Counters;
+
+/**
+ * A FileEventHandler that passes an event on to another only once the file is no longer being written, so that a download the browser
+ * is still saving is not read half written (a missing default profile, or worse, a truncated session token).
+ *
+ * The file is taken to be complete once its size and last modified time have not changed for the stable period. To avoid waiting out
+ * the whole period for every download, it is also taken to be complete as soon as its default profile is a valid temporary profile
+ * (see NamedProfile.isValidAndTemporary) and its size and last modified time have not changed since the previous look, since a
+ * session token cut short would still parse. The file is only parsed once for each size and last modified time it is seen with.
+ * A file still changing when the timeout runs out, or that is not there or goes away while waiting, is not passed on.
+ *
+ * @author wrh
+ *
+ */
+public class StableFileEventHandler implements FileEventHandler {
+
+	/**
+	 * Counters of files passed on after going unchanged for the stable period, of those passed on early because they parsed
+	 * as complete, of those given up on because they kept changing or were not there, and of the total milliseconds spent waiting.
+	 */
+	public static final String STABLE = "stability.stable";
+	public static final String PARSED = "stability.parsed";
+	public static final String TIMEOUTS = "stability.timeouts";
+	public static final String MISSING = "stability.missing";
+	public static final String WAITED = "stability.waited.ms";
+
+	public static final long DEFAULT_STABLE_PERIOD = 500;
+	public static final long DEFAULT_TIMEOUT = 10000;
+	public static final long DEFAULT_POLL_INTERVAL = 50;
+
+	private final FileEventHandler handler;
+	private long stablePeriod = DEFAULT_STABLE_PERIOD;
+	private long timeout = DEFAULT_TIMEOUT;
+	private long pollInterval = DEFAULT_POLL_INTERVAL;
+
+	public StableFileEventHandler(FileEventHandler handler) {
+		this.handler = handler;
+	}
+
+	public StableFileEventHandler setStablePeriod(long stablePeriod) {
+		this.stablePeriod = stablePeriod;
+		return this;
+	}
+
+	public StableFileEventHandler setTimeout(long timeout) {
+		this.timeout = timeout;
+		return this;
+	}
+
+	public StableFileEventHandler setPollInterval(long pollInterval) {
+		this.pollInterval = pollInterval;
+		return this;
+	}
+
+	/**
+	 * Wait for the file to be completely written.
+	 * @param file
+	 * @return False if the file was still changing when the timeout ran out, or is not there (any more).
+	 * @throws IOException Interrupted while waiting.
+	 */
+	public boolean awaitStable(Path file) throws IOException {
+		long start = System.nanoTime();
+		long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeout);
+		Counters counters = Counters.getInstance();
+		Metadata last = Metadata.of(file);
+		long unchangedSince = start;
+		// Whether the file has already been parsed at its current size and last modified time.
+		boolean parsed = false;
+		try {
+			for(;;) {
+				if( ! last.exists) {
+					counters.increment(MISSING);
+					System.err.format("\"%s\" is not there (any more), skipping.\n", file);
+					return false;
+				}
+				long now = System.nanoTime();
+				if(now - unchangedSince >= TimeUnit.MILLISECONDS.toNanos(stablePeriod)) {
+					counters.increment(STABLE);
+					break;
+				}
+				if(now >= deadline) {
+					counters.increment(TIMEOUTS);
+					System.err.format("\"%s\" was still changing after %s milliseconds, skipping.\n", file, timeout);
+					return false;
+				}
+				Thread.sleep(pollInterval);
+				Metadata current = Metadata.of(file);
+				if( ! current.equals(last)) {
+					last = current;
+					unchangedSince = System.nanoTime();
+					parsed = false;
+				}
+				else if( ! parsed) {
+					parsed = true;
+					if(isComplete(file)) {
+						counters.increment(PARSED);
+						break;
+					}
+				}
+			}
+			counters.add(WAITED, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+			return true;
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(String.format("Interrupted while waiting for \"%s\" to be written", file), e);
+		}
+	}
+
+	private boolean isComplete(Path file) {
+		try {
+			NamedProfile np = new CredentialsFile(file, ReadMode.STREAM, true, Type.CREDENTIALS).getDefault();
+			return np != null && np.isValidAndTemporary();
+		}
+		catch (Exception e) {
+			// Not parseable yet.
+			return false;
+		}
+	}
+
+	@Override
+	public void onUpdate(Watchable watchable) throws IOException {
+		if(awaitStable((Path) watchable)) {
+			handler.onUpdate(watchable);
+		}
+	}
+
+	@Override
+	public void onCreate(Watchable watchable) throws IOException {
+		if(awaitStable((Path) watchable)) {
+			handler.onCreate(watchable);
+		}
+	}
+
+	@Override
+	public void onDelete(Watchable watchable) {
+		handler.onDelete(watchable);
+	}
+
+	/**
+	 * The size and last modified time of a file, or that it does not exist.
+	 */
+	private static class Metadata {
+		private boolean exists;
+		private long size;
+		private FileTime modified;
+
+		private static Metadata of(Path file) {
+			Metadata metadata = new Metadata();
+			try {
+				BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+				metadata.exists = true;
+				metadata.size = attributes.size();
+				metadata.modified = attributes.lastModifiedTime();
+			}
+			catch (IOException e) {
+				// Not there (yet or any more).
+			}
+			return metadata;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if( ! (obj instanceof Metadata)) {
+				return false;
+			}
+			Metadata other = (Metadata) obj;
+			return exists == other.exists && size == other.size && Objects.equals(modified, other.modified);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(exists, size, modified);
+		}
+	}
+}
@@ -0,0 +1,79 @@
+package aws.credentials.file;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Something that watches files for creation and modification and invokes a FileEventHandler when they happen, on a thread of its own.
+ * FileWatcher is told of events by the WatchService of the file system, and PollingFileWatcher looks for them itself.
+ *
+ * @author wrh
+ *
+ */
+public interface Watcher extends Runnable {
+
+	/**
+	 * Watch a single file.
+	 * @param watchable
+	 * @param handler
+	 * @throws IOException The directory of the file does not exist.
+	 */
+	void watch(Path watchable, FileEventHandler handler) throws IOException;
+
+	/**
+	 * Watch every file in a directory that the matcher accepts. The matcher is given the full path of the file.
+	 * @param directory
+	 * @param matcher
+	 * @param handler
+	 * @throws IOException The directory does not exist.
+	 */
+	void watch(Path directory, PathMatcher matcher, FileEventHandler handler) throws IOException;
+
+	void setStop();
+
+	/**
+	 * How to watch: as the file system tells (NATIVE), by polling (POLL), or whichever suits the file system of the directory (AUTO).
+	 */
+	public static enum Mode {
+		AUTO, NATIVE, POLL;
+
+		/**
+		 * File store types the WatchService of this JVM is not told about changes on, because they are made on another machine.
+		 */
+		private static final Set<String> REMOTE = new HashSet<String>(Arrays.asList(
+				"nfs", "nfs4", "cifs", "smb", "smbfs", "smb2", "afs", "9p", "davfs", "webdav", "vboxsf", "prl_fs", "vmhgfs"));
+
+		public static Mode resolve(String name) {
+			for(Mode mode : values()) {
+				if(mode.name().equalsIgnoreCase(name)) {
+					return mode;
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * @param directory
+		 * @return This mode, or for AUTO, POLL if the directory is on a network or shared file system, and NATIVE otherwise.
+		 */
+		public Mode select(Path directory) {
+			if(this != AUTO) {
+				return this;
+			}
+			try {
+				FileStore store = Files.getFileStore(directory);
+				String type = store.type() == null ? "" : store.type().toLowerCase();
+				return REMOTE.contains(type) || type.startsWith("fuse") ? POLL : NATIVE;
+			}
+			catch (IOException e) {
+				return NATIVE;
+			}
+		}
+	}
+}
@@ -62,7 +62,8 @@ public abstract class NameValuePairProfileDecorator implements NameValuePair {
 	}
 	
 	public boolean isValid() {
-		if(getValue() == null || getValue().isBlank()) return false;
+		// A pair has a value only if it is not blank, and asking it is free of the String creation getValue() may cause.
+		if( ! isPair()) return false;
 		return isRecognized();
 	}
 
@@ -1,15 +1,17 @@
 package aws.credentials.profile;
 
 import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.ListIterator;
-import java.util.Set;
+import java.util.Objects;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import aws.credentials.file.CredentialsFile.Type;
 import aws.credentials.util.BasicNameValuePair;
+import aws.credentials.util.Fingerprint;
 import aws.credentials.util.NameValuePair;
 import aws.credentials.util.Utils;
 
@@ -24,9 +26,26 @@ public class NamedProfile implements Cloneable {
 
 	private List<String> rawTextLines = new ArrayList<String>();
 	private NamedProfileHeader header;
-	private Set<NameValuePairProfileDecorator> members = new HashSet<NameValuePairProfileDecorator>();
+	private EnumMap<NamedProfileElement, NameValuePairProfileDecorator> members = new EnumMap<NamedProfileElement, NameValuePairProfileDecorator>(NamedProfileElement.class);
 	private List<String> other = new ArrayList<String>();
 	private Type credfileType = Type.CREDENTIALS;
+	private List<Consumer<NamedProfile>> nameChangeListeners = new ArrayList<Consumer<NamedProfile>>();
+	/**
+	 * Incremented whenever the content of the profile changes, so that holders of the profile can tell whether it was modified since they last looked.
+	 */
+	private int version;
+	/**
+	 * The text this profile was found in and the region of it that holds its lines, if they have not been parsed yet (see NamedProfileParser lazy mode).
+	 */
+	private CharSequence unparsedText;
+	private int unparsedStart;
+	private int unparsedEnd;
+	/**
+	 * The text the lines of this profile were parsed from, and the offsets in it of each member line (start and end, in pairs by line). 
+	 * Member lines are left null in rawTextLines until the raw text is first needed (see getRawTextLines), so parsing a member creates no String.
+	 */
+	private CharSequence rawSource;
+	private int[] rawOffsets;
 
 	public NamedProfile(String rawText, Type credfileType) {
 		if(rawText != null) {
@@ -44,18 +63,67 @@ public class NamedProfile implements Cloneable {
 		initialize();
 	}
 	
+	private NamedProfile(Type credfileType) {
+		this.credfileType = credfileType;
+	}
+	
 	private void initialize() {
 		initialize(null, null);
 	}
+	
+	/**
+	 * Parse the lines of a profile that so far only has its header, the first time anything other than its name is needed.
+	 * The content of the profile is as it was in the text, so this is not a change to the profile and the version stays the same.
+	 */
+	private void materialize() {
+		if(unparsedText == null) {
+			return;
+		}
+		CharSequence text = unparsedText;
+		unparsedText = null;
+		for(NamedProfileParser.Section section : new NamedProfileParser(credfileType).parseSections(text, unparsedStart, unparsedEnd)) {
+			NamedProfile parsed = section.getProfile();
+			rawTextLines = parsed.rawTextLines;
+			rawSource = parsed.rawSource;
+			rawOffsets = parsed.rawOffsets;
+			members = parsed.members;
+			other = parsed.other;
+		}
+	}
+	
+	/**
+	 * Get the raw text lines, first turning any member lines still held as offsets into the text they were parsed from into Strings.
+	 * @return
+	 */
+	private List<String> getRawTextLines() {
+		if(rawSource != null) {
+			for(int i = 0; i < rawTextLines.size(); i++) {
+				if(rawTextLines.get(i) == null) {
+					rawTextLines.set(i, rawSource.subSequence(rawOffsets[i * 2], rawOffsets[i * 2 + 1]).toString());
+				}
+			}
+			rawSource = null;
+			rawOffsets = null;
+		}
+		return rawTextLines;
+	}
+	
+	/**
+	 * Indicates whether the lines of this profile have been parsed yet.
+	 * @return
+	 */
+	public boolean isMaterialized() {
+		return unparsedText == null;
+	}
 		
 	private void initialize(String newHeader, NamedProfile lastInitialized) {
+		version++;
 		members.clear();
 		other.clear();
-		for (ListIterator<String> iterator = rawTextLines.listIterator(); iterator.hasNext();) {
-			String line = (String) iterator.next();			
-			NameValuePairProfileDecorator nvp;
-			NamedProfileHeader headerTest = new NamedProfileHeader(line, credfileType);
-			if(headerTest.isHeader()) {
+		for (ListIterator<String> iterator = getRawTextLines().listIterator(); iterator.hasNext();) {
+			String line = (String) iterator.next();
+			NamedProfileHeader headerTest = NamedProfileHeader.parse(line, credfileType);
+			if(headerTest != null) {
 				if(newHeader == null) {
 					if(header == null) {
 						header = headerTest;
@@ -71,18 +139,13 @@ public class NamedProfile implements Cloneable {
 				}
 			}
 			else {
-				boolean matched = false;
-				for(String shortname : new String[] { "id", "key", "token", "region", "output" }) {				
-					nvp = NamedProfileElement.getInstance(shortname, line);
-					if(nvp != null && nvp.isValid()) {
-						members.add(nvp);
-						matched = true;
-						break;
-					}										
-				}
-				if( ! matched) {
+				NameValuePairProfileDecorator nvp = NamedProfileParser.getMember(line);
+				if(nvp == null) {
 					other.add(line);
 				}
+				else {
+					members.putIfAbsent(nvp.getType(), nvp);
+				}
 			}
 		}
 		
@@ -113,8 +176,10 @@ public class NamedProfile implements Cloneable {
 	 * @param np
 	 */
 	public void swapWith(NamedProfile np) {
-		this.rawTextLines.clear();
-		this.rawTextLines.addAll(np.rawTextLines);
+		materialize();
+		np.materialize();
+		this.getRawTextLines().clear();
+		this.rawTextLines.addAll(np.getRawTextLines());
 		initialize();
 		// In case the profile name for np was reset since its raw text lines were loaded (Is the only non-readonly field).
 		this.setProfileName(np.getName());
@@ -126,6 +191,8 @@ public class NamedProfile implements Cloneable {
 	 * @throws Exception 
 	 */
 	public void updateWith(NamedProfile np) {
+		materialize();
+		np.materialize();
 		NamedProfile preUpdated;
 		try {
 			preUpdated = (NamedProfile) this.clone();
@@ -133,8 +200,8 @@ public class NamedProfile implements Cloneable {
 		catch (CloneNotSupportedException e) {
 			throw new RuntimeException(e);
 		}
-		this.rawTextLines.clear();
-		this.rawTextLines.addAll(np.rawTextLines);
+		this.getRawTextLines().clear();
+		this.rawTextLines.addAll(np.getRawTextLines());
 		initialize(header.toString(), preUpdated);
 	}
 	
@@ -144,23 +211,77 @@ public class NamedProfile implements Cloneable {
 	 * @param profileName
 	 */
 	public void setProfileName(String profileName) {
+		materialize();
+		NamedProfileHeader previous = this.header;
 		if(profileName == null || NamedProfileHeader.isDefault(profileName)) {
-			makeDefault();
+			this.header = new NamedProfileHeader("[default]", credfileType);
 		}
 		else {
 			this.header = new NamedProfileHeader(String.format("[%s]", profileName), credfileType);
 		}
-		for (ListIterator<String> iterator = rawTextLines.listIterator(); iterator.hasNext();) {
+		for (ListIterator<String> iterator = getRawTextLines().listIterator(); iterator.hasNext();) {
 			String line = iterator.next();
-			if(new NamedProfileHeader(line, credfileType).isHeader()) {
+			if(NamedProfileHeader.parse(line, credfileType) != null) {
 				iterator.set(this.header.toString());
 				break;
 			}			
 		}
+		version++;
+		fireNameChange(previous);
 	}
 	
 	public void makeDefault() {
+		materialize();
+		NamedProfileHeader previous = this.header;
 		this.header = new NamedProfileHeader("[default]", credfileType);
+		version++;
+		fireNameChange(previous);
+	}
+	
+	/**
+	 * Get a fingerprint of the values of the recognized members of this profile (the credentials themselves, and region and output), 
+	 * regardless of the name of the profile or how its lines are formatted. Two profiles with the same fingerprint hold the same credentials.
+	 * @return
+	 */
+	public long getFingerprint() {
+		materialize();
+		Fingerprint fingerprint = new Fingerprint();
+		for(NamedProfileElement element : NamedProfileElement.values()) {
+			String value = getMemberValue(element);
+			fingerprint.append(value == null ? "" : value).append('\0');
+		}
+		return fingerprint.getValue();
+	}
+	
+	/**
+	 * Get a number that changes every time the content of this profile changes.
+	 * @return
+	 */
+	public int getVersion() {
+		return version;
+	}
+	
+	/**
+	 * Register a listener to be called after the name of this profile changes (ie: so that an index of profiles by name can be kept current).
+	 * @param listener
+	 */
+	public void addNameChangeListener(Consumer<NamedProfile> listener) {
+		if( ! nameChangeListeners.contains(listener)) {
+			nameChangeListeners.add(listener);
+		}
+	}
+	
+	public void removeNameChangeListener(Consumer<NamedProfile> listener) {
+		nameChangeListeners.remove(listener);
+	}
+	
+	private void fireNameChange(NamedProfileHeader previous) {
+		if(Objects.equals(previous, header)) {
+			return;
+		}
+		for(Consumer<NamedProfile> listener : new ArrayList<Consumer<NamedProfile>>(nameChangeListeners)) {
+			listener.accept(this);
+		}
 	}
 	
 	/**
@@ -190,12 +311,8 @@ public class NamedProfile implements Cloneable {
 	}
 	
 	public NameValuePair getMember(NamedProfileElement element) {
-		for(NameValuePairProfileDecorator nvp : members) {
-			if(element.equals(nvp.getType())) {
-				return nvp;
-			}
-		}
-		return null;
+		materialize();
+		return members.get(element);
 	}
 	
 	/**
@@ -204,17 +321,18 @@ public class NamedProfile implements Cloneable {
 	 * @param member
 	 */
 	public void setMember(NameValuePairProfileDecorator member) {
+		materialize();
 		try {
-			for(NameValuePairProfileDecorator nvp : members) {
-				if(nvp.getType().equals(member.getType())) {
-					nvp.initialize(member);
-					return;
-				}
+			NameValuePairProfileDecorator nvp = members.get(member.getType());
+			if(nvp != null) {
+				nvp.initialize(member);
+				return;
 			}
-			members.add(member);			
+			members.put(member.getType(), member);
 		}
 		finally {
 			setRawTextLine(member);
+			version++;
 		}		
 	}
 	
@@ -222,7 +340,7 @@ public class NamedProfile implements Cloneable {
 	 * Make sure the raw text entries have a line of raw text that reflect a named profile a NamedProfileElement enum as specified by member.
 	 */
 	private void setRawTextLine(NameValuePairProfileDecorator member) {
-		for (ListIterator<String> iterator = rawTextLines.listIterator(); iterator.hasNext();) {
+		for (ListIterator<String> iterator = getRawTextLines().listIterator(); iterator.hasNext();) {
 			String line = (String) iterator.next();
 			BasicNameValuePair nvp = new BasicNameValuePair(line);
 			if(member.is(nvp.getName())) {
@@ -250,6 +368,7 @@ public class NamedProfile implements Cloneable {
 	}
 
 	public String getOtherValue(String name) {
+		materialize();
 		for(String raw : other) {
 			NameValuePair nvp = NameValuePairProfileDecorator.getBasicInstance(raw);
 			if(nvp.is(name)) {
@@ -296,8 +415,9 @@ public class NamedProfile implements Cloneable {
 	 * @return
 	 */
 	public String rawString() {
+		materialize();
 		if(rawTextLines.isEmpty()) return null;
-		String retval = rawTextLines.stream().collect(Collectors.joining("\n")).trim();
+		String retval = getRawTextLines().stream().collect(Collectors.joining("\n")).trim();
 		return retval;
 	}
 
@@ -306,10 +426,11 @@ public class NamedProfile implements Cloneable {
 	 */
 	@Override
 	public String toString() {
+		materialize();
 		StringBuilder sb = new StringBuilder();
 		
 		sb.append(header).append("\n");
-		for(NameValuePair nvp : members) {
+		for(NameValuePair nvp : members.values()) {
 			sb.append(nvp.asString()).append("\n");
 		}
 //		for(String line : other) {
@@ -323,7 +444,9 @@ public class NamedProfile implements Cloneable {
 		final int prime = 31;
 		int result = 1;
 		result = prime * result + ((header == null) ? 0 : header.hashCode());
-		result = prime * result + ((members == null) ? 0 : members.hashCode());
+		for(NamedProfileElement element : NamedProfileElement.values()) {
+			result = prime * result + Objects.hashCode(getMemberValue(element));
+		}
 		return result;
 	}
 	
@@ -335,20 +458,22 @@ public class NamedProfile implements Cloneable {
 		return true;
 	}
 	
+	/**
+	 * Members are keyed by element, so two profiles have the same members if the values match for each of the (5) elements.
+	 */
 	private boolean overlaps(Object obj) {
 		if( ! equalsBasic(obj)) return false;
 		NamedProfile other = (NamedProfile) obj;
-		for (Iterator<NameValuePairProfileDecorator> iterator = members.iterator(); iterator.hasNext();) {
-			NameValuePairProfileDecorator nvp = (NameValuePairProfileDecorator) iterator.next();
-			if( ! other.members.contains(nvp)) return false;
-			if( ! other.getMember(nvp.getType()).equals(nvp)) return false;
+		for(NamedProfileElement element : NamedProfileElement.values()) {
+			if( ! Objects.equals(getMemberValue(element), other.getMemberValue(element))) return false;
 		}
-		return true;		
+		return true;
 	}
 	
 	@Override
 	protected Object clone() throws CloneNotSupportedException {
-		return new NamedProfile(rawTextLines, credfileType);
+		materialize();
+		return new NamedProfile(getRawTextLines(), credfileType);
 	}
 
 	@Override
@@ -360,9 +485,70 @@ public class NamedProfile implements Cloneable {
 				return false;
 		} else if (!header.equals(other.header))
 			return false;		
-		if (members.size() != other.members.size())
-			return false;
 		if ( ! overlaps(obj)) return false;
 		return true;
 	}
+	
+	/**
+	 * Assembles a named profile from lines that have already been classified by a NamedProfileParser, 
+	 * so that the lines do not need to be examined again by initialize().
+	 * 
+	 * @author wrh
+	 *
+	 */
+	static class Builder {
+		
+		private NamedProfile np;
+		
+		/**
+		 * @param header
+		 * @param line The header line.
+		 * @param text The text the profile is being parsed from, which member lines are kept as offsets into.
+		 * @param credfileType
+		 */
+		Builder(NamedProfileHeader header, String line, CharSequence text, Type credfileType) {
+			np = new NamedProfile(credfileType);
+			np.header = header;
+			np.rawSource = text;
+			np.rawOffsets = new int[16];
+			add(line, 0, 0);
+		}
+		
+		/**
+		 * Add a member, keeping only the offsets of its line in the text rather than the line itself.
+		 */
+		void addMember(NameValuePairProfileDecorator member, int start, int end) {
+			np.members.putIfAbsent(member.getType(), member);
+			add(null, start, end);
+		}
+		
+		void addOther(String line) {
+			np.other.add(line);
+			add(line, 0, 0);
+		}
+		
+		private void add(String line, int start, int end) {
+			int i = np.rawTextLines.size() * 2;
+			if(i + 2 > np.rawOffsets.length) {
+				np.rawOffsets = Arrays.copyOf(np.rawOffsets, np.rawOffsets.length * 2);
+			}
+			np.rawOffsets[i] = start;
+			np.rawOffsets[i + 1] = end;
+			np.rawTextLines.add(line);
+		}
+		
+		NamedProfile build() {
+			return np;
+		}
+		
+		/**
+		 * Build a profile that has only its header so far, and will parse the rest of its lines from the region of text when they are needed.
+		 */
+		NamedProfile buildUnparsed(CharSequence text, int start, int end) {
+			np.unparsedText = text;
+			np.unparsedStart = start;
+			np.unparsedEnd = end;
+			return np;
+		}
+	}
 }
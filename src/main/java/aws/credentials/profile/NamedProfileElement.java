@@ -1,31 +1,57 @@
 package aws.credentials.profile;
 
+import java.util.Locale;
+import java.util.function.Function;
+
 import aws.credentials.credential.AwsAccessKeyId;
 import aws.credentials.credential.AwsSecretAccessKey;
 import aws.credentials.credential.AwsSessionToken;
 import aws.credentials.credential.Output;
 import aws.credentials.credential.Region;
+import aws.credentials.util.BasicNameValuePair;
+import aws.credentials.util.NameValuePair;
 
 /**
  * This enumeration defines the 5 basic credential settings of a named profile.
  * Included are static methods for getting instances of a named profile object whose getType methods would return one of the members of this enumeration.
  * 
+ * Each element is registered under its lower-cased property name (ie: "aws_access_key_id", "region") in a small open addressed table,
+ * so that the element for a line of text can be found with one case insensitive hash of the name portion of the line, without
+ * creating any objects. Instances are created through a factory bound to each element rather than by reflection.
+ * 
  * @author wrh
  *
  */
 public enum NamedProfileElement {
-	AWS_ACCESS_KEY_ID("id", AwsAccessKeyId.class),
-	AWS_SECRET_ACCESS_KEY("key", AwsSecretAccessKey.class),
-	AWS_SESSION_TOKEN("token", AwsSessionToken.class),
-	REGION("region", Region.class),
-	OUTPUT("output", Output.class);
+	AWS_ACCESS_KEY_ID("id", AwsAccessKeyId.class, AwsAccessKeyId::new),
+	AWS_SECRET_ACCESS_KEY("key", AwsSecretAccessKey.class, AwsSecretAccessKey::new),
+	AWS_SESSION_TOKEN("token", AwsSessionToken.class, AwsSessionToken::new),
+	REGION("region", Region.class, Region::new),
+	OUTPUT("output", Output.class, Output::new);
+	
+	private static final int TABLE_MASK = 15;
+	private static final NamedProfileElement[] REGISTRY = new NamedProfileElement[TABLE_MASK + 1];
+	
+	static {
+		for(NamedProfileElement e : NamedProfileElement.values()) {
+			int slot = hash(e.propertyName, 0, e.propertyName.length()) & TABLE_MASK;
+			while(REGISTRY[slot] != null) {
+				slot = (slot + 1) & TABLE_MASK;
+			}
+			REGISTRY[slot] = e;
+		}
+	}
 	
 	private String shortName;
+	private String propertyName;
 	private Class <? extends NameValuePairProfileDecorator> clazz;
+	private Function<NameValuePair, ? extends NameValuePairProfileDecorator> factory;
 	
-	private NamedProfileElement(String shortName, Class <? extends NameValuePairProfileDecorator> clazz) {
+	private NamedProfileElement(String shortName, Class <? extends NameValuePairProfileDecorator> clazz, Function<NameValuePair, ? extends NameValuePairProfileDecorator> factory) {
 		this.shortName = shortName;
+		this.propertyName = name().toLowerCase(Locale.ROOT);
 		this.clazz = clazz;
+		this.factory = factory;
 	}
 	
 	public boolean isRecognized(String s) {
@@ -40,23 +66,83 @@ public enum NamedProfileElement {
 		}
 		return null;
 	}
-
+	
+	/**
+	 * Get the element whose property name (ie: "aws_access_key_id", "region") matches the supplied name, ignoring case.
+	 * @param name
+	 * @return
+	 */
+	public static NamedProfileElement fromName(String name) {
+		if(name == null) {
+			return null;
+		}
+		return fromName(name, 0, name.length());
+	}
+	
+	/**
+	 * Get the element whose property name matches the characters of s between start (inclusive) and end (exclusive), ignoring case.
+	 * Nothing is allocated, so names that are not recognized cost a single hash of the region.
+	 *
+	 * @param s
+	 * @param start
+	 * @param end
+	 * @return
+	 */
+	public static NamedProfileElement fromName(CharSequence s, int start, int end) {
+		int slot = hash(s, start, end) & TABLE_MASK;
+		for(NamedProfileElement e = REGISTRY[slot]; e != null; e = REGISTRY[slot]) {
+			if(e.matches(s, start, end)) {
+				return e;
+			}
+			slot = (slot + 1) & TABLE_MASK;
+		}
+		return null;
+	}
+	
+	private static int hash(CharSequence s, int start, int end) {
+		int h = 0;
+		for(int i = start; i < end; i++) {
+			h = 31 * h + Character.toLowerCase(s.charAt(i));
+		}
+		return h ^ (h >>> 16);
+	}
+	
+	private boolean matches(CharSequence s, int start, int end) {
+		if(end - start != propertyName.length()) {
+			return false;
+		}
+		for(int i = start; i < end; i++) {
+			if(Character.toLowerCase(s.charAt(i)) != propertyName.charAt(i - start)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	public String getPropertyName() {
+		return propertyName;
+	}
+	
 	public Class <? extends NameValuePairProfileDecorator> getClazz() {
 		return clazz;
 	}
 	
 	public NameValuePairProfileDecorator instanceOf(String rawText) {
-		try {
-			if(rawText != null && rawText.isBlank() == false) {
-				return (NameValuePairProfileDecorator) getClazz().getConstructor(new Class[]{String.class}).newInstance(rawText);
-			}
-		} 
-		catch (Exception e) {
-			return null;
+		if(rawText != null && rawText.isBlank() == false) {
+			return factory.apply(new BasicNameValuePair(rawText));
 		}
 		return null;
 	}
 	
+	/**
+	 * Get an instance of this element that decorates a name/value pair that has already been found, ie: a NameValuePairView.
+	 * @param nvp
+	 * @return
+	 */
+	public NameValuePairProfileDecorator instanceOf(NameValuePair nvp) {
+		return factory.apply(nvp);
+	}
+	
 	public static NameValuePairProfileDecorator getInstance(String shortname, String rawText) {
 		return NamedProfileElement.fromShortName(shortname).instanceOf(rawText);
 	}
@@ -1,5 +1,7 @@
 package aws.credentials.profile;
 
+import java.util.regex.Pattern;
+
 import aws.credentials.file.CredentialsFile.Type;
 
 /**
@@ -11,6 +13,9 @@ import aws.credentials.file.CredentialsFile.Type;
  */
 public class NamedProfileHeader {
 
+	private static final Pattern HEADER_PATTERN = Pattern.compile("(?i)^\\[(profile\\x20+)?[\\w\\.\\-]+\\]$");
+	private static final Pattern WHITESPACE_PATTERN = Pattern.compile("\\s+");
+	
 	private String header;
 	private String name;
 	private boolean _default;
@@ -20,14 +25,14 @@ public class NamedProfileHeader {
 		this.credfileType = credfileType;
 		if(header != null) {
 			this.header = header.trim();
-			if(this.header.matches("^\\[.*\\]$")) {
+			if(isBracketed(this.header)) {
 				name = this.header.substring(1, this.header.length()-1);
 				if("default".equals(name)) {
 					name = null;
 					_default = true;
 				}
 				else {
-					String[] parts = name.split("\\s+");
+					String[] parts = WHITESPACE_PATTERN.split(name);
 					if(parts.length > 1) {
 						name = parts[1];
 					}
@@ -47,7 +52,27 @@ public class NamedProfileHeader {
 	}
 	
 	public boolean isHeader() {
-		return isDefault() || header.matches("(?i)^\\[(profile\\x20+)?[\\w\\.\\-]+\\]$");
+		return isDefault() || HEADER_PATTERN.matcher(header).matches();
+	}
+	
+	/**
+	 * Get the header represented by a line of text, or null if the line is not a named profile header.
+	 * Lines that do not start and end with a bracket are rejected without any object creation or regex evaluation.
+	 * 
+	 * @param line
+	 * @param credfileType
+	 * @return
+	 */
+	public static NamedProfileHeader parse(String line, Type credfileType) {
+		if(line == null || ! isBracketed(line.trim())) {
+			return null;
+		}
+		NamedProfileHeader nph = new NamedProfileHeader(line, credfileType);
+		return nph.isHeader() ? nph : null;
+	}
+	
+	private static boolean isBracketed(String s) {
+		return s.length() > 1 && s.charAt(0) == '[' && s.charAt(s.length()-1) == ']';
 	}
 	
 	public String getProfileName() {
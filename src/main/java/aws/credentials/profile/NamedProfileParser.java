@@ -0,0 +1,425 @@
+package aws.credentials.profile;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import aws.credentials.file.CredentialsFile.Type;
+import aws.credentials.util.LineIndex;
+import aws.credentials.util.LineScanner;
+import aws.credentials.util.NameValuePairView;
+
+/**
+ * Single pass tokenizer for the lines of a ~/.aws/config or ~/.aws/credentials file.
+ * Each line is classified exactly once (blank, header, recognized member, or other - which includes comments) and the named profiles
+ * are assembled directly from those classifications, so no line is re-examined after the profile it belongs to is built.
+ *
+ * @author wrh
+ *
+ */
+public class NamedProfileParser {
+
+	/**
+	 * The parser is either positioned before the first named profile header in the file, or inside a named profile.
+	 */
+	private static enum State {
+		PREAMBLE, PROFILE;
+	}
+
+	/**
+	 * Text shorter than this (in characters) is always parsed on the calling thread.
+	 */
+	public static final int PARALLEL_THRESHOLD = 1 << 20;
+	
+	/**
+	 * Text is not divided into chunks smaller than this for parsing in parallel.
+	 */
+	private static final int MIN_CHUNK = 1 << 16;
+
+	private Type credfileType = Type.CREDENTIALS;
+	private boolean lazy;
+	private ForkJoinPool pool = ForkJoinPool.commonPool();
+	private int parallelThreshold = PARALLEL_THRESHOLD;
+
+	public NamedProfileParser(Type credfileType) {
+		this(credfileType, false);
+	}
+
+	/**
+	 * A lazy parser only looks for header lines. The named profiles it builds know the region of text they came from, 
+	 * and parse their own lines from it the first time their content is needed.
+	 * @param credfileType
+	 * @param lazy
+	 */
+	public NamedProfileParser(Type credfileType, boolean lazy) {
+		if(credfileType != null) {
+			this.credfileType = credfileType;
+		}
+		this.lazy = lazy;
+	}
+	
+	/**
+	 * Set the pool that large text is parsed with, and how large text must be to be parsed in parallel.
+	 * @param pool
+	 * @param parallelThreshold
+	 * @return
+	 */
+	public NamedProfileParser setParallelism(ForkJoinPool pool, int parallelThreshold) {
+		this.pool = pool;
+		this.parallelThreshold = parallelThreshold;
+		return this;
+	}
+
+	/**
+	 * Build the named profiles found in the supplied lines, in the order they appear.
+	 * Lines that appear before the first named profile header are not part of any named profile and are skipped.
+	 *
+	 * @param lines
+	 * @return
+	 */
+	public List<NamedProfile> parse(List<String> lines) {
+		List<NamedProfile> profiles = new ArrayList<NamedProfile>();
+		for(Section section : parseSections(String.join("\n", lines))) {
+			profiles.add(section.getProfile());
+		}
+		return profiles;
+	}
+
+	/**
+	 * Build the named profiles found in the supplied text, in the order they appear, along with the region of the text each one came from.
+	 * A section starts at the beginning of the header line of its profile and ends where the next section begins (or at the end of the text), 
+	 * so any blank lines that trail a profile belong to its section. Comment lines directly above a header (no blank line between) are taken
+	 * to describe the profile that follows, so they lead its section instead of being part of the profile before them.
+	 * Anything before the first section is not part of any named profile.
+	 * Lines are trimmed as their bounds are found, and only lines that belong to a named profile are ever turned into strings.
+	 *
+	 * @param text
+	 * @return
+	 */
+	public List<Section> parseSections(CharSequence text) {
+		return parseSections(text, 0, text.length());
+	}
+
+	/**
+	 * Build the named profiles found in a region of the supplied text, from (inclusive) to (exclusive), as parseSections(text) would.
+	 * The offsets of the sections are those of the whole text.
+	 * 
+	 * A region at least as large as the parallel threshold is divided at header boundaries into chunks that are parsed with a ForkJoinPool.
+	 * A chunk always starts where a section would (a valid header line, or the comments leading it), so each chunk parses exactly as it would 
+	 * have as part of the whole, and the sections of the chunks are joined back together in order.
+	 *
+	 * @param text
+	 * @param from
+	 * @param to
+	 * @return
+	 */
+	public List<Section> parseSections(CharSequence text, int from, int to) {
+		if(to - from >= parallelThreshold && pool.getParallelism() > 1) {
+			int chunk = Math.max(MIN_CHUNK, (to - from) / (pool.getParallelism() * 4));
+			return pool.invoke(new ParseTask(text, from, to, chunk));
+		}
+		return parseSequentially(text, from, to);
+	}
+	
+	private List<Section> parseSequentially(CharSequence text, int from, int to) {
+		List<Section> sections = new ArrayList<Section>();
+		State state = State.PREAMBLE;
+		NamedProfile.Builder builder = null;
+		int sectionStart = from;
+		int headerStart = from;
+		// Comment lines that may turn out to lead the next section, and where the first of them starts.
+		List<String> comments = new ArrayList<String>();
+		int commentStart = -1;
+		int length = to;
+		int lineStart = from;
+		// Every line break, delimiter and bracket in the region is found up front, in bulk.
+		LineIndex index = LineScanner.getInstance().scan(text, from, to);
+		int newline = 0;
+		while(lineStart < length) {
+			int lineEnd = newline < index.getNewlineCount() ? index.getNewline(newline++) : length;
+			int nextLine = lineEnd < length ? lineEnd + 1 : lineEnd;
+			// Trim the same characters String.trim() would (this includes the \r of a windows line ending).
+			int start = lineStart;
+			int end = lineEnd;
+			while(start < end && text.charAt(start) <= ' ') {
+				start++;
+			}
+			while(end > start && text.charAt(end - 1) <= ' ') {
+				end--;
+			}
+			int currentLine = lineStart;
+			lineStart = nextLine;
+			if(start == end) {
+				addOther(builder, comments);
+				commentStart = -1;
+				continue;
+			}
+			char first = text.charAt(start);
+			if(first == '#' || first == ';') {
+				if(commentStart < 0) {
+					commentStart = currentLine;
+				}
+				if(state == State.PROFILE && lazy == false) {
+					comments.add(text.subSequence(start, end).toString());
+				}
+				continue;
+			}
+			// A header starts with the first bracket of its line, which the scanner has already found.
+			if(index.nextBracket(start, end) == start && text.charAt(end - 1) == ']') {
+				String line = text.subSequence(start, end).toString();
+				NamedProfileHeader header = NamedProfileHeader.parse(line, credfileType);
+				if(header != null) {
+					int lead = commentStart < 0 ? currentLine : commentStart;
+					if(builder != null) {
+						sections.add(new Section(sectionStart, headerStart, lead, build(builder, text, headerStart, lead)));
+					}
+					comments.clear();
+					commentStart = -1;
+					builder = new NamedProfile.Builder(header, line, text, credfileType);
+					sectionStart = lead;
+					headerStart = currentLine;
+					state = State.PROFILE;
+					continue;
+				}
+			}
+			addOther(builder, comments);
+			commentStart = -1;
+			if(state == State.PREAMBLE) {
+				// A non-header line was encountered before the first named profile header in the file.
+				// The line must be something not part of a named profile, so skip it.
+				continue;
+			}
+			if(lazy) {
+				continue;
+			}
+			NameValuePairProfileDecorator member = getMember(text, start, end, index.nextDelimiter(start, end));
+			if(member == null) {
+				builder.addOther(text.subSequence(start, end).toString());
+			}
+			else {
+				// Keep only where the line is, it becomes a String if and when the raw text of the profile is needed.
+				builder.addMember(member, start, end);
+			}
+		}
+		addOther(builder, comments);
+		if(builder != null) {
+			sections.add(new Section(sectionStart, headerStart, length, build(builder, text, headerStart, length)));
+		}
+		return sections;
+	}
+	
+	private NamedProfile build(NamedProfile.Builder builder, CharSequence text, int headerStart, int end) {
+		return lazy ? builder.buildUnparsed(text, headerStart, end) : builder.build();
+	}
+	
+	/**
+	 * Find where the first section that starts after position (but before to) begins, or return to if there is none.
+	 * This is the start of the first valid header line after position, or of the comment lines directly above it, which may reach back
+	 * as far as from (the start of a line).
+	 */
+	private int sectionBoundary(CharSequence text, int from, int position, int to) {
+		int lineStart = position;
+		while(lineStart < to && text.charAt(lineStart - 1) != '\n') {
+			lineStart++;
+		}
+		while(lineStart < to) {
+			int lineEnd = lineEnd(text, lineStart, to);
+			int start = lineStart;
+			int end = lineEnd;
+			while(start < end && text.charAt(start) <= ' ') {
+				start++;
+			}
+			while(end > start && text.charAt(end - 1) <= ' ') {
+				end--;
+			}
+			if(start < end && text.charAt(start) == '[' && text.charAt(end - 1) == ']' 
+					&& NamedProfileHeader.parse(text.subSequence(start, end).toString(), credfileType) != null) {
+				return leadingComments(text, lineStart, from);
+			}
+			lineStart = lineEnd < to ? lineEnd + 1 : to;
+		}
+		return to;
+	}
+	
+	/**
+	 * Walk back from the start of a header line over the comment lines directly above it, but not before floor (the start of a line).
+	 */
+	private static int leadingComments(CharSequence text, int headerStart, int floor) {
+		int lineStart = headerStart;
+		while(lineStart > floor) {
+			int previous = lineStart - 1;
+			while(previous > floor && text.charAt(previous - 1) != '\n') {
+				previous--;
+			}
+			int start = previous;
+			while(start < lineStart && text.charAt(start) <= ' ') {
+				start++;
+			}
+			if(start == lineStart || (text.charAt(start) != '#' && text.charAt(start) != ';')) {
+				break;
+			}
+			lineStart = previous;
+		}
+		return lineStart;
+	}
+	
+	private static int lineEnd(CharSequence text, int lineStart, int to) {
+		int lineEnd = lineStart;
+		while(lineEnd < to && text.charAt(lineEnd) != '\n') {
+			lineEnd++;
+		}
+		return lineEnd;
+	}
+	
+	/**
+	 * Parses a region of text, splitting it in two at a section boundary near the middle until the pieces are no larger than a chunk.
+	 *
+	 * @author wrh
+	 *
+	 */
+	private class ParseTask extends RecursiveTask<List<Section>> {
+		
+		private static final long serialVersionUID = 1L;
+		private CharSequence text;
+		private int from;
+		private int to;
+		private int chunk;
+		
+		private ParseTask(CharSequence text, int from, int to, int chunk) {
+			this.text = text;
+			this.from = from;
+			this.to = to;
+			this.chunk = chunk;
+		}
+
+		@Override
+		protected List<Section> compute() {
+			if(to - from > chunk) {
+				int middle = sectionBoundary(text, from, from + (to - from) / 2, to);
+				if(middle > from && middle < to) {
+					ParseTask right = new ParseTask(text, middle, to, chunk);
+					right.fork();
+					List<Section> sections = new ParseTask(text, from, middle, chunk).compute();
+					sections.addAll(right.join());
+					return sections;
+				}
+			}
+			return parseSequentially(text, from, to);
+		}
+	}
+	
+	/**
+	 * Comment lines that turned out not to lead the next section belong to the profile they follow.
+	 */
+	private static void addOther(NamedProfile.Builder builder, List<String> comments) {
+		if(builder != null) {
+			for(String comment : comments) {
+				builder.addOther(comment);
+			}
+		}
+		comments.clear();
+	}
+	
+	/**
+	 * Get the valid named profile member a line of text represents, or null if it is not one.
+	 * @param line
+	 * @return
+	 */
+	static NameValuePairProfileDecorator getMember(String line) {
+		return getMember(line, 0, line.length());
+	}
+
+	/**
+	 * Get the valid named profile member that the region of text between start and end represents, or null if it is not one.
+	 * The bounds of the name portion of the line are found without creating any objects and looked up in the NamedProfileElement 
+	 * registry, so comments and unrecognized names cost one hash lookup. A recognized name results in a member that decorates 
+	 * a NameValuePairView over the text, so no Strings are created until the name or value are asked for.
+	 *
+	 * @param text
+	 * @param start
+	 * @param end
+	 * @return
+	 */
+	static NameValuePairProfileDecorator getMember(CharSequence text, int start, int end) {
+		int delimiter = start;
+		while(delimiter < end && text.charAt(delimiter) != '=') {
+			delimiter++;
+		}
+		return getMember(text, start, end, delimiter < end ? delimiter : -1);
+	}
+
+	/**
+	 * Get the valid named profile member that the region of text between start and end represents, given the offset of the first
+	 * delimiter ("=") in the region, or -1 if there is none.
+	 * @param text
+	 * @param start
+	 * @param end
+	 * @param delimiter
+	 * @return
+	 */
+	static NameValuePairProfileDecorator getMember(CharSequence text, int start, int end, int delimiter) {
+		int nameStart = start;
+		while(nameStart < end && text.charAt(nameStart) <= ' ') {
+			nameStart++;
+		}
+		if(nameStart == end || text.charAt(nameStart) == '#' || text.charAt(nameStart) == ';') {
+			return null;
+		}
+		if(delimiter < 0) {
+			return null;
+		}
+		int nameEnd = delimiter;
+		while(nameEnd > nameStart && text.charAt(nameEnd-1) <= ' ') {
+			nameEnd--;
+		}
+		NamedProfileElement element = NamedProfileElement.fromName(text, nameStart, nameEnd);
+		if(element == null) {
+			return null;
+		}
+		NameValuePairView nvp = new NameValuePairView(text, start, end, delimiter);
+		if(nvp.isPair()) {
+			// The name was already recognized by the lookup, so having a value is all it takes to be valid.
+			return element.instanceOf(nvp);
+		}
+		return null;
+	}
+
+	/**
+	 * A named profile along with the region of the text it was parsed from, start inclusive and end exclusive.
+	 * The header of the profile starts at headerStart, which is after start if the section is led by comments.
+	 *
+	 * @author wrh
+	 *
+	 */
+	public static class Section {
+		
+		private int start;
+		private int headerStart;
+		private int end;
+		private NamedProfile profile;
+		
+		public Section(int start, int headerStart, int end, NamedProfile profile) {
+			this.start = start;
+			this.headerStart = headerStart;
+			this.end = end;
+			this.profile = profile;
+		}
+		
+		public int getStart() {
+			return start;
+		}
+		
+		public int getHeaderStart() {
+			return headerStart;
+		}
+		
+		public int getEnd() {
+			return end;
+		}
+		
+		public NamedProfile getProfile() {
+			return profile;
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package aws.credentials.util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A read only view of a region of a byte buffer (ie: the bytes of a credentials file read in MAPPED mode) as characters, for content known to be entirely ASCII.
+ * Every ASCII byte is also the UTF-8 encoding of the same character, so no decoding is needed: charAt reads straight from the buffer
+ * and subSequence only narrows the view. A String is created only when toString is called.
+ *
+ * @author wrh
+ *
+ */
+public class AsciiCharSequence implements CharSequence {
+
+	private ByteBuffer bytes;
+	private int offset;
+	private int length;
+
+	/**
+	 * View the bytes between the position and limit of the buffer.
+	 * @param bytes
+	 */
+	public AsciiCharSequence(ByteBuffer bytes) {
+		this(bytes, bytes.position(), bytes.remaining());
+	}
+
+	private AsciiCharSequence(ByteBuffer bytes, int offset, int length) {
+		this.bytes = bytes;
+		this.offset = offset;
+		this.length = length;
+	}
+
+	/**
+	 * Indicates whether every byte between the position and limit of the buffer is ASCII (has its high bit clear).
+	 * The bytes are examined 8 at a time.
+	 * @param bytes
+	 * @return
+	 */
+	public static boolean isAscii(ByteBuffer bytes) {
+		int i = bytes.position();
+		int limit = bytes.limit();
+		for(; i + Long.BYTES <= limit; i += Long.BYTES) {
+			if((bytes.getLong(i) & 0x8080808080808080L) != 0) {
+				return false;
+			}
+		}
+		for(; i < limit; i++) {
+			if(bytes.get(i) < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	ByteBuffer getBuffer() {
+		return bytes;
+	}
+
+	int getOffset() {
+		return offset;
+	}
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+	@Override
+	public char charAt(int index) {
+		if(index < 0 || index >= length) {
+			throw new IndexOutOfBoundsException(index);
+		}
+		return (char) bytes.get(offset + index);
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		if(start < 0 || end > length || start > end) {
+			throw new IndexOutOfBoundsException(String.format("start %s, end %s, length %s", start, end, length));
+		}
+		return new AsciiCharSequence(bytes, offset + start, end - start);
+	}
+
+	@Override
+	public String toString() {
+		byte[] ascii = new byte[length];
+		ByteBuffer view = bytes.duplicate();
+		view.position(offset);
+		view.get(ascii);
+		return new String(ascii, StandardCharsets.US_ASCII);
+	}
+}
@@ -26,13 +26,14 @@ public class BasicNameValuePair implements NameValuePair {
 	}
 	
 	private void initialize() {
-		if(rawText.contains(getDelimeter())) {
-			name = rawText.substring(0, rawText.indexOf(getDelimeter())).trim();
+		int index = rawText.indexOf(getDelimeter());
+		if(index >= 0) {
+			name = rawText.substring(0, index).trim();
 			if(name.isBlank()) {
 				name = null;
 			}
 			else {
-				value = rawText.substring(rawText.indexOf(getDelimeter())+1).trim();
+				value = rawText.substring(index + getDelimeter().length()).trim();
 				if(value.isBlank()) {
 					value = null;
 				}
@@ -79,14 +80,14 @@ public class BasicNameValuePair implements NameValuePair {
 	
 	@Override
 	public String asString() {
-		return rawText;
+		return getRawText();
 	}
 
 	@Override
 	public String toString() {
 		StringBuilder builder = new StringBuilder();
-		builder.append("NameValuePair [rawText=").append(rawText).append(", name=").append(name).append(", value=")
-				.append(value).append("]");
+		builder.append("NameValuePair [rawText=").append(getRawText()).append(", name=").append(getName()).append(", value=")
+				.append(getValue()).append("]");
 		return builder.toString();
 	}
 
@@ -94,8 +95,8 @@ public class BasicNameValuePair implements NameValuePair {
 	public int hashCode() {
 		final int prime = 31;
 		int result = 1;
-		result = prime * result + ((name == null) ? 0 : name.hashCode());
-		result = prime * result + ((value == null) ? 0 : value.hashCode());
+		result = prime * result + ((getName() == null) ? 0 : getName().hashCode());
+		result = prime * result + ((getValue() == null) ? 0 : getValue().hashCode());
 		return result;
 	}
 
@@ -103,18 +104,18 @@ public class BasicNameValuePair implements NameValuePair {
 	public boolean equals(Object obj) {
 		if (this == obj)
 			return true;
-		if (!(obj instanceof BasicNameValuePair))
+		if (!(obj instanceof BasicNameValuePair) && !(obj instanceof NameValuePairView))
 			return false;
-		BasicNameValuePair other = (BasicNameValuePair) obj;
-		if (name == null) {
-			if (other.name != null)
+		NameValuePair other = (NameValuePair) obj;
+		if (getName() == null) {
+			if (other.getName() != null)
 				return false;
-		} else if (!name.equals(other.name))
+		} else if (!getName().equals(other.getName()))
 			return false;
-		if (value == null) {
-			if (other.value != null)
+		if (getValue() == null) {
+			if (other.getValue() != null)
 				return false;
-		} else if (!value.equals(other.value))
+		} else if (!getValue().equals(other.getValue()))
 			return false;
 		return true;
 	}
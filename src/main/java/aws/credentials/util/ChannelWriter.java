@@ -0,0 +1,226 @@
+package aws.credentials.util;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes text to a channel as UTF-8, with as little copying as possible. Text is encoded char by char (with no CharBuffer or CharsetEncoder,
+ * so nothing is allocated) into a direct byte buffer that is reused by every ChannelWriter on the same thread, and text that is a view
+ * of ASCII bytes (an AsciiCharSequence, ie: the unchanged named profiles of a memory mapped credentials file) is not encoded or copied 
+ * at all: the bytes it views are written as they are.
+ * 
+ * Nothing is written until the buffer fills up or the writer is flushed. The regions of the buffer and of the viewed bytes are then 
+ * written out in order with one gathering write. Adjacent regions are merged, so an unchanged mapped file is written with a single buffer.
+ * Closing the writer flushes it, but does not close the channel.
+ * 
+ * Each append is encoded on its own, so a surrogate pair must not be split across two appends (it is replaced with "?" if it is).
+ *
+ * @author wrh
+ *
+ */
+public class ChannelWriter implements Appendable, Flushable, Closeable {
+
+	public static final int BUFFER_SIZE = 1 << 16;
+	
+	/**
+	 * What a character that cannot be encoded (an unpaired surrogate) is written as, as it would be by the UTF-8 CharsetEncoder.
+	 */
+	private static final byte REPLACEMENT = '?';
+	
+	private static final ThreadLocal<ByteBuffer> BUFFERS = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+	/**
+	 * Text is encoded into a small array first, since storing to an array one byte at a time is far cheaper than putting to a direct buffer.
+	 */
+	private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[1 << 12]);
+	
+	private WritableByteChannel channel;
+	private ByteBuffer buffer;
+	private byte[] scratch = SCRATCH.get();
+	/**
+	 * Regions waiting to be written, in order. Each is either a region of the buffer or of the bytes viewed by an AsciiCharSequence.
+	 */
+	private List<ByteBuffer> pending = new ArrayList<ByteBuffer>();
+	/**
+	 * Where the part of the buffer that is not yet pending begins.
+	 */
+	private int mark;
+	/**
+	 * The buffer that the last pending region is a region of.
+	 */
+	private ByteBuffer lastSource;
+	private long written;
+	
+	public ChannelWriter(WritableByteChannel channel) {
+		this(channel, BUFFERS.get());
+	}
+	
+	public ChannelWriter(WritableByteChannel channel, ByteBuffer buffer) {
+		this.channel = channel;
+		this.buffer = buffer;
+		buffer.clear();
+	}
+
+	@Override
+	public ChannelWriter append(CharSequence csq) throws IOException {
+		if(csq == null) {
+			csq = "null";
+		}
+		return append(csq, 0, csq.length());
+	}
+
+	@Override
+	public ChannelWriter append(CharSequence csq, int start, int end) throws IOException {
+		if(csq == null) {
+			csq = "null";
+		}
+		if(start == end) {
+			return this;
+		}
+		if(csq instanceof AsciiCharSequence) {
+			AsciiCharSequence ascii = (AsciiCharSequence) csq;
+			ByteBuffer bytes = ascii.getBuffer();
+			addPending(bytes, ascii.getOffset() + start, ascii.getOffset() + end);
+			return this;
+		}
+		byte[] bytes = scratch;
+		int count = 0;
+		for(int i = start; i < end; i++) {
+			if(count > bytes.length - 4) {
+				drain(count);
+				count = 0;
+			}
+			char c = csq.charAt(i);
+			if(c < 0x80) {
+				bytes[count++] = (byte) c;
+			}
+			else if(c < 0x800) {
+				bytes[count++] = (byte) (0xc0 | (c >> 6));
+				bytes[count++] = (byte) (0x80 | (c & 0x3f));
+			}
+			else if(Character.isSurrogate(c)) {
+				if(Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(csq.charAt(i + 1))) {
+					int cp = Character.toCodePoint(c, csq.charAt(++i));
+					bytes[count++] = (byte) (0xf0 | (cp >> 18));
+					bytes[count++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+					bytes[count++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+					bytes[count++] = (byte) (0x80 | (cp & 0x3f));
+				}
+				else {
+					// Not half of a pair, so it cannot be encoded.
+					bytes[count++] = REPLACEMENT;
+				}
+			}
+			else {
+				bytes[count++] = (byte) (0xe0 | (c >> 12));
+				bytes[count++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+				bytes[count++] = (byte) (0x80 | (c & 0x3f));
+			}
+		}
+		drain(count);
+		return this;
+	}
+	
+	/**
+	 * Copy encoded bytes from the scratch array into the buffer in bulk, flushing the buffer as it fills.
+	 */
+	private void drain(int count) throws IOException {
+		int offset = 0;
+		while(offset < count) {
+			if(buffer.hasRemaining() == false) {
+				flush();
+			}
+			int length = Math.min(buffer.remaining(), count - offset);
+			buffer.put(scratch, offset, length);
+			offset += length;
+		}
+	}
+
+	@Override
+	public ChannelWriter append(char c) throws IOException {
+		return append(String.valueOf(c), 0, 1);
+	}
+	
+	/**
+	 * Add a region of some bytes to those pending, merging it into the last pending region if it carries straight on from it.
+	 */
+	private void addPending(ByteBuffer bytes, int start, int end) throws IOException {
+		markBuffer();
+		if(lastSource == bytes && pending.get(pending.size() - 1).limit() == start) {
+			pending.get(pending.size() - 1).limit(end);
+			return;
+		}
+		ByteBuffer region = bytes.duplicate();
+		region.limit(end).position(start);
+		pending.add(region);
+		lastSource = bytes;
+	}
+	
+	/**
+	 * Make what has been encoded into the buffer since the last mark pending.
+	 */
+	private void markBuffer() {
+		if(buffer.position() > mark) {
+			int position = buffer.position();
+			if(lastSource == buffer) {
+				// Nothing else was added since the last region of the buffer, which ends at the mark.
+				pending.get(pending.size() - 1).limit(position);
+			}
+			else {
+				ByteBuffer region = buffer.duplicate();
+				region.limit(position).position(mark);
+				pending.add(region);
+				lastSource = buffer;
+			}
+			mark = position;
+		}
+	}
+	
+	/**
+	 * Write out everything pending, after which the buffer is used again from the start.
+	 */
+	@Override
+	public void flush() throws IOException {
+		markBuffer();
+		ByteBuffer[] regions = pending.toArray(new ByteBuffer[pending.size()]);
+		if(channel instanceof GatheringByteChannel) {
+			GatheringByteChannel gathering = (GatheringByteChannel) channel;
+			int first = 0;
+			while(first < regions.length) {
+				written += gathering.write(regions, first, regions.length - first);
+				while(first < regions.length && regions[first].hasRemaining() == false) {
+					first++;
+				}
+			}
+		}
+		else {
+			for(ByteBuffer region : regions) {
+				while(region.hasRemaining()) {
+					written += channel.write(region);
+				}
+			}
+		}
+		pending.clear();
+		lastSource = null;
+		buffer.clear();
+		mark = 0;
+	}
+	
+	/**
+	 * Get the number of bytes written to the channel so far.
+	 * @return
+	 */
+	public long getWritten() {
+		return written;
+	}
+
+	@Override
+	public void close() throws IOException {
+		flush();
+	}
+}
@@ -0,0 +1,59 @@
+package aws.credentials.util;
+
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Application wide named counters (ie: how many times the target credentials file was written, or a write was skipped), for reporting
+ * in the console output. Counters start at zero the first time they are incremented and are safe to update from any thread.
+ *
+ * @author wrh
+ *
+ */
+public class Counters {
+
+	private static final Counters INSTANCE = new Counters();
+	
+	private Map<String, AtomicLong> counters = new ConcurrentHashMap<String, AtomicLong>();
+	
+	public static Counters getInstance() {
+		return INSTANCE;
+	}
+	
+	public long increment(String name) {
+		return add(name, 1);
+	}
+	
+	public long add(String name, long delta) {
+		return counters.computeIfAbsent(name, key -> new AtomicLong()).addAndGet(delta);
+	}
+	
+	public long get(String name) {
+		AtomicLong counter = counters.get(name);
+		return counter == null ? 0 : counter.get();
+	}
+	
+	/**
+	 * Get the current value of every counter, sorted by name.
+	 * @return
+	 */
+	public Map<String, Long> snapshot() {
+		Map<String, Long> snapshot = new TreeMap<String, Long>();
+		for(Entry<String, AtomicLong> entry : counters.entrySet()) {
+			snapshot.put(entry.getKey(), entry.getValue().get());
+		}
+		return snapshot;
+	}
+	
+	public void reset() {
+		counters.clear();
+	}
+	
+	@Override
+	public String toString() {
+		return snapshot().toString();
+	}
+}
@@ -0,0 +1,64 @@
+package aws.credentials.util;
+
+/**
+ * A 64 bit FNV-1a hash of the characters appended to it. Being an Appendable, content can be fingerprinted as it is written out
+ * (ie: by CredentialsDocument.write) without first being assembled into a String. 
+ * Equal fingerprints mean equal content with near certainty, which is all that is needed to tell whether rewriting a file would change it.
+ *
+ * @author wrh
+ *
+ */
+public class Fingerprint implements Appendable {
+
+	private static final long OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long PRIME = 0x100000001b3L;
+	
+	private long value = OFFSET_BASIS;
+	
+	public static long of(CharSequence text) {
+		return new Fingerprint().append(text).getValue();
+	}
+
+	@Override
+	public Fingerprint append(CharSequence csq) {
+		if(csq == null) {
+			csq = "null";
+		}
+		return append(csq, 0, csq.length());
+	}
+
+	@Override
+	public Fingerprint append(CharSequence csq, int start, int end) {
+		if(csq == null) {
+			csq = "null";
+		}
+		long hash = value;
+		for(int i = start; i < end; i++) {
+			hash = (hash ^ csq.charAt(i)) * PRIME;
+		}
+		value = hash;
+		return this;
+	}
+
+	@Override
+	public Fingerprint append(char c) {
+		value = (value ^ c) * PRIME;
+		return this;
+	}
+	
+	/**
+	 * Fingerprint raw bytes (ie: a file streamed through a buffer), without decoding them into characters first.
+	 */
+	public Fingerprint append(byte[] bytes, int start, int end) {
+		long hash = value;
+		for(int i = start; i < end; i++) {
+			hash = (hash ^ (bytes[i] & 0xff)) * PRIME;
+		}
+		value = hash;
+		return this;
+	}
+	
+	public long getValue() {
+		return value;
+	}
+}
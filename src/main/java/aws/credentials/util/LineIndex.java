@@ -0,0 +1,102 @@
+package aws.credentials.util;
+
+import java.util.Arrays;
+
+/**
+ * The offsets of every line break, name/value delimiter and opening header bracket in a region of text, in ascending order, as found 
+ * by a LineScanner. A parser walks the lines of the region from one line break to the next, and asks for the delimiter and bracket of 
+ * each line with increasing offsets, so none of them is ever searched for character by character again.
+ *
+ * @author wrh
+ *
+ */
+public class LineIndex {
+
+	private int[] newlines = new int[64];
+	private int newlineCount;
+	private int[] delimiters = new int[64];
+	private int delimiterCount;
+	private int cursor;
+	private int[] brackets = new int[16];
+	private int bracketCount;
+	private int bracketCursor;
+
+	public void addNewline(int offset) {
+		if(newlineCount == newlines.length) {
+			newlines = Arrays.copyOf(newlines, newlineCount * 2);
+		}
+		newlines[newlineCount++] = offset;
+	}
+
+	public void addDelimiter(int offset) {
+		if(delimiterCount == delimiters.length) {
+			delimiters = Arrays.copyOf(delimiters, delimiterCount * 2);
+		}
+		delimiters[delimiterCount++] = offset;
+	}
+
+	public void addBracket(int offset) {
+		if(bracketCount == brackets.length) {
+			brackets = Arrays.copyOf(brackets, bracketCount * 2);
+		}
+		brackets[bracketCount++] = offset;
+	}
+
+	public int getNewlineCount() {
+		return newlineCount;
+	}
+
+	public int getNewline(int i) {
+		return newlines[i];
+	}
+
+	public int getDelimiterCount() {
+		return delimiterCount;
+	}
+
+	public int getDelimiter(int i) {
+		return delimiters[i];
+	}
+
+	public int getBracketCount() {
+		return bracketCount;
+	}
+
+	public int getBracket(int i) {
+		return brackets[i];
+	}
+
+	/**
+	 * Get the offset of the first delimiter at or after start and before end, or -1 if there is none.
+	 * Each call must have a start no lower than that of the call before it.
+	 * @param start
+	 * @param end
+	 * @return
+	 */
+	public int nextDelimiter(int start, int end) {
+		while(cursor < delimiterCount && delimiters[cursor] < start) {
+			cursor++;
+		}
+		if(cursor < delimiterCount && delimiters[cursor] < end) {
+			return delimiters[cursor];
+		}
+		return -1;
+	}
+
+	/**
+	 * Get the offset of the first opening bracket ("[") at or after start and before end, or -1 if there is none.
+	 * Each call must have a start no lower than that of the call before it.
+	 * @param start
+	 * @param end
+	 * @return
+	 */
+	public int nextBracket(int start, int end) {
+		while(bracketCursor < bracketCount && brackets[bracketCursor] < start) {
+			bracketCursor++;
+		}
+		if(bracketCursor < bracketCount && brackets[bracketCursor] < end) {
+			return brackets[bracketCursor];
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,78 @@
+package aws.credentials.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Finds the line breaks, name/value delimiters ("=") and opening header brackets ("[") of a region of text in bulk, ahead of it being parsed.
+ * 
+ * Text that is a view of bytes (an AsciiCharSequence, which is what both read modes of CredentialsFile give for an all ASCII file) is 
+ * scanned as bytes, which a subclass may do many bytes at a time.
+ * The VectorLineScanner uses the incubating vector api for this. It is only compiled when building with jdk 17 or later, and is only usable 
+ * when the jdk.incubator.vector module is added at runtime (java --add-modules jdk.incubator.vector ...), otherwise the ScalarLineScanner is used.
+ *
+ * @author wrh
+ *
+ */
+public abstract class LineScanner {
+
+	private static final LineScanner INSTANCE = load();
+
+	private static LineScanner load() {
+		try {
+			return (LineScanner) Class.forName("aws.credentials.util.VectorLineScanner").getDeclaredConstructor().newInstance();
+		}
+		catch (Throwable e) {
+			// Either not compiled in, or the jdk.incubator.vector module is absent.
+			return new ScalarLineScanner();
+		}
+	}
+
+	/**
+	 * Get the fastest scanner available to this jvm.
+	 * @return
+	 */
+	public static LineScanner getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Find the line breaks, delimiters and brackets of text between from (inclusive) and to (exclusive).
+	 * @param text
+	 * @param from
+	 * @param to
+	 * @return
+	 */
+	public LineIndex scan(CharSequence text, int from, int to) {
+		LineIndex index = new LineIndex();
+		if(text instanceof AsciiCharSequence) {
+			AsciiCharSequence ascii = (AsciiCharSequence) text;
+			int base = ascii.getOffset();
+			scan(ascii.getBuffer(), base + from, base + to, base, index);
+		}
+		else {
+			for(int i = from; i < to; i++) {
+				char c = text.charAt(i);
+				if(c == '\n') {
+					index.addNewline(i);
+				}
+				else if(c == '=') {
+					index.addDelimiter(i);
+				}
+				else if(c == '[') {
+					index.addBracket(i);
+				}
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Find the line breaks, delimiters and brackets of the bytes between from (inclusive) and to (exclusive), recording their offsets less base.
+	 * @param bytes
+	 * @param from
+	 * @param to
+	 * @param base
+	 * @param index
+	 */
+	protected abstract void scan(ByteBuffer bytes, int from, int to, int base, LineIndex index);
+}
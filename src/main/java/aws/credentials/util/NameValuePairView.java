@@ -0,0 +1,194 @@
+package aws.credentials.util;
+
+import java.util.Objects;
+
+/**
+ * A flyweight name/value pair over a region of a larger body of text (ie: one line of a credentials file that is shared by every pair in it).
+ * Only the offsets of the trimmed name and value parts are found when the pair is created, and nothing but those offsets is kept.
+ * The name, value and raw text are made into Strings from the source each time they are asked for, while isPair and "is" are answered
+ * from the offsets alone, so a pair that is only tested costs a single object. Unlike BasicNameValuePair, "is" ignores case.
+ * A view is equal to a BasicNameValuePair with the same name and value.
+ *
+ * @author wrh
+ *
+ */
+public class NameValuePairView implements NameValuePair {
+
+	private CharSequence source;
+	private String delimiter;
+	private int start;
+	private int end;
+	private int nameStart = -1;
+	private int nameEnd;
+	private int valueStart = -1;
+	private int valueEnd;
+
+	public NameValuePairView(CharSequence source, int start, int end) {
+		this(source, start, end, null);
+	}
+
+	public NameValuePairView(CharSequence source, int start, int end, String delimiter) {
+		this.source = source;
+		this.start = start;
+		this.end = end;
+		this.delimiter = delimiter;
+		initialize();
+	}
+
+	/**
+	 * Create the view when the offset of its delimiter ("=") is already known, ie: from a LineIndex, so it need not be searched for again.
+	 * @param source
+	 * @param start
+	 * @param end
+	 * @param delimiterIndex
+	 */
+	public NameValuePairView(CharSequence source, int start, int end, int delimiterIndex) {
+		this.source = source;
+		this.start = start;
+		this.end = end;
+		initialize(delimiterIndex, getDelimeter());
+	}
+
+	private void initialize() {
+		String delim = getDelimeter();
+		initialize(indexOf(delim), delim);
+	}
+
+	private void initialize(int index, String delim) {
+		if(index < 0) {
+			return;
+		}
+		int s = trimStart(start, index);
+		int e = trimEnd(s, index);
+		if(s == e) {
+			return;
+		}
+		nameStart = s;
+		nameEnd = e;
+		s = trimStart(index + delim.length(), end);
+		e = trimEnd(s, end);
+		if(s < e) {
+			valueStart = s;
+			valueEnd = e;
+		}
+	}
+
+	private int indexOf(String delim) {
+		for(int i = start; i + delim.length() <= end; i++) {
+			int j = 0;
+			while(j < delim.length() && source.charAt(i + j) == delim.charAt(j)) {
+				j++;
+			}
+			if(j == delim.length()) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Trim the same characters String.trim() would.
+	 */
+	private int trimStart(int s, int e) {
+		while(s < e && source.charAt(s) <= ' ') {
+			s++;
+		}
+		return s;
+	}
+
+	private int trimEnd(int s, int e) {
+		while(e > s && source.charAt(e - 1) <= ' ') {
+			e--;
+		}
+		return e;
+	}
+
+	@Override
+	public String getName() {
+		return nameStart < 0 ? null : source.subSequence(nameStart, nameEnd).toString();
+	}
+
+	@Override
+	public String getValue() {
+		return valueStart < 0 ? null : source.subSequence(valueStart, valueEnd).toString();
+	}
+
+	@Override
+	public String getRawText() {
+		return source.subSequence(start, end).toString();
+	}
+
+	@Override
+	public String getDelimeter() {
+		return delimiter == null ? defaultDelimiter : delimiter;
+	}
+
+	@Override
+	public String asString() {
+		return getRawText();
+	}
+
+	@Override
+	public boolean isPair() {
+		return nameStart >= 0 && valueStart >= 0;
+	}
+
+	/**
+	 * Compare the name part of the pair to the supplied name, ignoring case, without creating a String for the name part.
+	 */
+	@Override
+	public boolean is(String name) {
+		if(name == null || nameStart < 0 || name.length() != nameEnd - nameStart) {
+			return false;
+		}
+		for(int i = 0; i < name.length(); i++) {
+			char c1 = source.charAt(nameStart + i);
+			char c2 = name.charAt(i);
+			if(c1 != c2 && Character.toUpperCase(c1) != Character.toUpperCase(c2) && Character.toLowerCase(c1) != Character.toLowerCase(c2)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("NameValuePair [rawText=").append(getRawText()).append(", name=").append(getName()).append(", value=")
+				.append(getValue()).append("]");
+		return builder.toString();
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + hashCode(nameStart, nameEnd);
+		result = prime * result + hashCode(valueStart, valueEnd);
+		return result;
+	}
+
+	/**
+	 * The same hash String.hashCode() would give the region, or zero if there is none, so a view hashes like a BasicNameValuePair.
+	 */
+	private int hashCode(int s, int e) {
+		if(s < 0) {
+			return 0;
+		}
+		int h = 0;
+		for(int i = s; i < e; i++) {
+			h = 31 * h + source.charAt(i);
+		}
+		return h;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof BasicNameValuePair) && !(obj instanceof NameValuePairView))
+			return false;
+		NameValuePair other = (NameValuePair) obj;
+		return Objects.equals(getName(), other.getName()) && Objects.equals(getValue(), other.getValue());
+	}
+}
@@ -0,0 +1,28 @@
+package aws.credentials.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Scans bytes one at a time. This is the LineScanner used when the vector api is not available.
+ *
+ * @author wrh
+ *
+ */
+public class ScalarLineScanner extends LineScanner {
+
+	@Override
+	protected void scan(ByteBuffer bytes, int from, int to, int base, LineIndex index) {
+		for(int i = from; i < to; i++) {
+			byte b = bytes.get(i);
+			if(b == '\n') {
+				index.addNewline(i - base);
+			}
+			else if(b == '=') {
+				index.addDelimiter(i - base);
+			}
+			else if(b == '[') {
+				index.addBracket(i - base);
+			}
+		}
+	}
+}
@@ -15,8 +15,16 @@ import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.net.URL;
 import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
@@ -171,6 +179,106 @@ public class Utils {
 		return lines;
 	}
 	
+	/**
+	 * Get the content of a file exactly as it is, decoded as UTF-8. Unlike readLines, nothing is trimmed or dropped and line endings are kept.
+	 * A file that does not exist has no content.
+	 * @param p
+	 * @return
+	 */
+	public static String readText(Path p) {
+		if(p != null && Files.isRegularFile(p)) {
+			try {
+				return new String(Files.readAllBytes(p), StandardCharsets.UTF_8);
+			} 
+			catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		return "";
+	}
+	
+	/**
+	 * Get the content of an input stream exactly as it is, decoded as UTF-8. The stream is closed afterwards.
+	 * @param in
+	 * @return
+	 */
+	public static String readText(InputStream in) {
+		if(in != null) {
+			try {
+				return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+			}
+			catch (IOException e) {
+				e.printStackTrace();
+			}
+			finally {
+				try {
+					in.close();
+				} 
+				catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+		return "";
+	}
+	
+	/**
+	 * Get the content of a file by mapping it into memory rather than reading it through a stream.
+	 * The mapped bytes are copied to the heap in one bulk copy before anything looks at them. A file that is all ASCII (the norm for 
+	 * credentials files) is then viewed directly from the copied bytes without being decoded, otherwise it is decoded as UTF-8 in one step, 
+	 * with malformed input replaced just as readText would. A file that does not exist has no content.
+	 * 
+	 * NOTE: The content is never a view of the mapping itself. If it were, everything parsed from it (ie: the lazy values of a NameValuePairView, 
+	 * or the unparsed text of a named profile) would read from the file for as long as it was held, and would fail with an InternalError 
+	 * once another process truncated or rewrote the file in place. The mapping is dropped on return, but is only unmapped once garbage 
+	 * collected, and windows will not allow a mapped file to be truncated, so on windows the same file may not be rewritten in place until then.
+	 * @param p
+	 * @return
+	 */
+	public static CharSequence mapText(Path p) {
+		if(p != null && Files.isRegularFile(p)) {
+			try(FileChannel channel = FileChannel.open(p, StandardOpenOption.READ)) {
+				MappedByteBuffer mapping = channel.map(MapMode.READ_ONLY, 0, channel.size());
+				ByteBuffer buffer = ByteBuffer.allocate(mapping.remaining());
+				buffer.put(mapping).flip();
+				return toText(buffer);
+			} 
+			catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		return "";
+	}
+	
+	/**
+	 * Get the content of a file read through a stream as bytes, viewed as characters just as mapText does: directly from the bytes 
+	 * if they are all ASCII, otherwise decoded as UTF-8. Unlike readText, an ASCII file is never decoded into a String, so it can be 
+	 * scanned as bytes (see LineScanner).
+	 * @param p
+	 * @return
+	 */
+	public static CharSequence streamText(Path p) {
+		if(p != null && Files.isRegularFile(p)) {
+			try {
+				return toText(ByteBuffer.wrap(Files.readAllBytes(p)));
+			} 
+			catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		return "";
+	}
+	
+	private static CharSequence toText(ByteBuffer buffer) throws CharacterCodingException {
+		if(AsciiCharSequence.isAscii(buffer)) {
+			return new AsciiCharSequence(buffer);
+		}
+		return StandardCharsets.UTF_8.newDecoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE)
+			.decode(buffer);
+	}
+	
 	public static void readWriteLines(InputStream in, OutputStream out) {
 		if(in != null && out != null) {
 			BufferedReader br = null;
@@ -82,4 +82,14 @@ public abstract class AbstractMappedContentTest {
 	protected String getText(String suffix) {
 		return rawText.get(suffix);
 	}
+	
+	/**
+	 * Get the content of a named fixture that is shared by more than one test, instead of one found by naming convention for the current test.
+	 * @param fixture The name of the fixture without its suffix, ie: "CredentialsFileModiferTest1".
+	 * @param suffix
+	 * @return
+	 */
+	protected String getText(String fixture, String suffix) {
+		return getClassPathResourceContent(String.format("%s/%s%s.txt", PKG, fixture, suffix));
+	}
 }
\ No newline at end of file
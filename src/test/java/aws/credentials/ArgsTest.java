@@ -1,6 +1,8 @@
 package aws.credentials;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
@@ -8,6 +10,7 @@ import java.io.IOException;
 import java.nio.file.FileSystem;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -15,6 +18,10 @@ import org.junit.jupiter.api.Test;
 import com.google.common.jimfs.Configuration;
 import com.google.common.jimfs.Jimfs;
 
+import aws.credentials.file.CredentialsFile.FsyncPolicy;
+import aws.credentials.file.CredentialsFile.Type;
+import aws.credentials.file.NewestFileEventHandler.Consume;
+import aws.credentials.file.Watcher.Mode;
 import aws.credentials.util.Utils;
 
 /**
@@ -113,6 +120,64 @@ class ArgsTest {
 		args.printUsage();
 	}
 
+	/**
+	 * An unrecognized fsync policy should be invalid
+	 */
+	@Test
+	void testFail6() {
+		args = new Args(new String[] {
+				String.format("source=%s", source_path),
+				String.format("target=%s", target_path),
+				String.format("map=%s", map_path),
+				"fsync=sometimes"
+		}, fs);
+		assertFalse(args.isValid());
+		args.printUsage();
+	}
+	
+	/**
+	 * A lock timeout, coalesce window, debounce or stable period that is not a whole number of milliseconds should be invalid, and 
+	 * getting the lock timeout should report that as null rather than throw.
+	 */
+	@Test
+	void testFail7() {
+		for(String name : new String[] { "lock-timeout", "coalesce", "debounce", "debounce-max", "stable", "stable-timeout" }) {
+			for(String millis : new String[] { "-1", "ten", "1.5" }) {
+				args = new Args(new String[] {
+						String.format("source=%s", source_path),
+						String.format("target=%s", target_path),
+						String.format("map=%s", map_path),
+						name + "=" + millis
+				}, fs);
+				assertFalse(args.isValid());
+				if(name.equals("lock-timeout")) {
+					assertNull(args.getLockTimeout());
+				}
+			}
+		}
+		args.printUsage();
+	}
+	
+	/**
+	 * A source pattern in a missing directory or that does not compile, or an unknown consume, ignore-older or watch option, or consuming downloads with a coalesce window, should be invalid
+	 */
+	@Test
+	void testFail8() {
+		for(String[] invalid : new String[][] {
+				{ "source=glob:Some/bogus/path/credentials*" },
+				{ "source=regex:Users/wrh/.aws/credentials(" },
+				{ String.format("source=%s", source_path), "consume=shred" },
+				{ String.format("source=%s", source_path), "ignore-older=maybe" },
+				{ String.format("source=%s", source_path), "watch=inotify" },
+				{ String.format("source=%s", source_path), "consume=delete", "coalesce=1000" } }) {
+			String[] all = Arrays.copyOf(invalid, invalid.length + 2);
+			all[invalid.length] = String.format("target=%s", target_path);
+			all[invalid.length + 1] = String.format("map=%s", map_path);
+			args = new Args(all, fs);
+			assertFalse(args.isValid());
+		}
+	}
+	
 	/**
 	 * A missing target arg should be invalid if the systems "user.home" property does not match an existing directory
 	 */
@@ -139,6 +204,77 @@ class ArgsTest {
 		assertTrue(args.isValid());
 	}
 	
+	/**
+	 * A recognized fsync policy should be valid, in any case, and the policy should default to flushing the file and its directory.
+	 */
+	@Test
+	void testOk4() {
+		String[] required = new String[] {
+				String.format("source=%s", source_path),
+				String.format("target=%s", target_path),
+				String.format("map=%s", map_path)
+		};
+		args = new Args(required, fs);
+		assertEquals(FsyncPolicy.FILE_AND_DIRECTORY, args.getFsyncPolicy());
+		for(String fsync : new String[] { "none", "FILE", "directory", "file_and_directory" }) {
+			String[] all = Arrays.copyOf(required, required.length + 1);
+			all[required.length] = "fsync=" + fsync;
+			args = new Args(all, fs);
+			assertTrue(args.isValid());
+		}
+		assertEquals(FsyncPolicy.FILE_AND_DIRECTORY, args.getFsyncPolicy());
+	}
+
+	/**
+	 * A target given more than once should yield every target, each with the type it was given (if any), and any invalid one should be invalid.
+	 */
+	@Test
+	void testOk5() {
+		args = new Args(new String[] {
+				String.format("source=%s", source_path),
+				String.format("target=%s", target_path),
+				String.format("target=CONFIG:%s", target_path.replace("credentials", "devcontainer-config")),
+				String.format("map=%s", map_path)
+		}, fs);
+		assertTrue(args.isValid());
+		assertEquals(2, args.getTargetCredsPaths().size());
+		assertEquals(fs.getPath(target_path), args.getTargetCredsPath());
+		assertEquals(null, args.getTargetType(fs.getPath(target_path)));
+		assertEquals(Type.CONFIG, args.getTargetType(args.getTargetCredsPaths().get(1)));
+		
+		args = new Args(new String[] {
+				String.format("source=%s", source_path),
+				String.format("target=%s", target_path),
+				"target=credentials:Some/bogus/path",
+				String.format("map=%s", map_path)
+		}, fs);
+		assertFalse(args.isValid());
+	}
+
+	/**
+	 * A glob or regex source should yield the download directory and a matcher for the names of the downloads in it.
+	 */
+	@Test
+	void testOk6() {
+		String directory = source_path.substring(0, source_path.lastIndexOf('/'));
+		for(String source : new String[] { "glob:" + directory + "/credentials*", "regex:" + directory + "/credentials( \\(\\d+\\))?" }) {
+			args = new Args(new String[] {
+					"source=" + source,
+					String.format("target=%s", target_path),
+					String.format("map=%s", map_path),
+					"consume=Rotate"
+			}, fs);
+			assertTrue(args.isValid());
+			assertTrue(args.isSourcePattern());
+			assertEquals(fs.getPath(directory), args.getSourceDirectory());
+			assertTrue(args.getSourceMatcher().matches(fs.getPath("credentials (2)")));
+			assertFalse(args.getSourceMatcher().matches(fs.getPath("config")));
+			assertEquals(Consume.ROTATE, args.getConsume());
+			assertEquals(Boolean.TRUE, args.getIgnoreOlder());
+			assertEquals(Mode.AUTO, args.getWatchMode());
+		}
+	}
+
 	/**
 	 * A valid path for source and target directories with non-existent source and target files should be valid as long as the map file exists.
 	 */
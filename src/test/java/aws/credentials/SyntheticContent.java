@@ -0,0 +1,63 @@
+package aws.credentials;
+
+/**
+ * Generates credentials file content of arbitrary size for benchmarks and tests that need more than a handful of named profiles.
+ * Every profile is valid and temporary (has a key id, secret key and session token) and some are peppered with the
+ * region, output, comment and junk lines found in hand maintained files.
+ *
+ * @author wrh
+ *
+ */
+public class SyntheticContent {
+
+	private static final String TOKEN =
+			"FwoGZXIvYXdzEL7//////////wEaDP062c4CFY7uRg2XaiLLAqWVycUY5" +
+			"x7NwHBKf23vE6QVEPc3nNqxWrZKULO/Dp+g6hMBG2ie737TBruAsOQM+g" +
+			"JkpIQNJBQz/cTOuh4fbeoCcGMjtlnToJDAqpND9SqFlWtVHQ+jQKyUjqB" +
+			"GIez8EXsoPjSdL0aOY49TyUO5M8O+0ZP0K6LE1dTmeiapo20KjVvtCRz7";
+
+	/**
+	 * Get the content of a credentials file with a default profile followed by the specified number of named profiles.
+	 * @param profiles
+	 * @return
+	 */
+	public static String getCredentials(int profiles) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("# Generated credentials file\n\n");
+		appendProfile(sb, "[default]", 0);
+		for(int i = 1; i <= profiles; i++) {
+			appendProfile(sb, String.format("[profile%s]", i), i);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Get the content of a credentials file that is at least the specified number of bytes long.
+	 * @param bytes
+	 * @return
+	 */
+	public static String getCredentialsOfSize(int bytes) {
+		StringBuilder sb = new StringBuilder(bytes + 1024);
+		appendProfile(sb, "[default]", 0);
+		for(int i = 1; sb.length() < bytes; i++) {
+			appendProfile(sb, String.format("[profile%s]", i), i);
+		}
+		return sb.toString();
+	}
+
+	private static void appendProfile(StringBuilder sb, String header, int i) {
+		sb.append(header).append("\n");
+		if(i % 3 == 0) {
+			sb.append("region = us-east-1\n");
+			sb.append("output = json\n");
+		}
+		sb.append("aws_access_key_id = ASIA3GU5SOU7YZ").append(i).append("\n");
+		if(i % 5 == 0) {
+			sb.append("# rotated by the ops team\n");
+			sb.append("some_other_setting = apples\n");
+		}
+		sb.append("aws_secret_access_key = 00erNR1hH46EKr6WDqbnTFSlNYVugZ+7Zji/").append(i).append("\n");
+		sb.append("aws_session_token = ").append(TOKEN).append(i).append("\n");
+		sb.append("\n");
+	}
+}
@@ -0,0 +1,171 @@
+package aws.credentials.file;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+import aws.credentials.credential.AwsSessionToken;
+import aws.credentials.file.CredentialsFile.Type;
+import aws.credentials.profile.NamedProfile;
+import aws.credentials.profile.NamedProfileElement;
+
+class CredentialsDocumentTest {
+
+	private static final String TEXT = String.join("\r\n", new String[] {
+		"# Managed by hand, do not reformat",
+		"",
+		"[default]",
+		"aws_access_key_id=id0",
+		"  aws_secret_access_key   =   key0",
+		"",
+		"",
+		"; next up, the sample profile",
+		"[my.sample.profile]",
+		"aws_access_key_id = id1",
+		"aws_secret_access_key = key1",
+		"aws_session_token = token1",
+		"",
+		"[other.profile]",
+		"aws_access_key_id = id2",
+		"aws_secret_access_key = key2"
+	});
+
+	/**
+	 * Nothing about the original text is lost when it is read in and written back out unchanged.
+	 */
+	@Test
+	void Test1() {
+		CredentialsDocument doc = new CredentialsDocument(TEXT, Type.CREDENTIALS);
+		assertEquals(3, doc.getProfiles().size());
+		assertEquals("\r\n", doc.getLineSeparator());
+		assertFalse(doc.isDirty());
+		assertEquals(TEXT, doc.toString());
+
+		CredentialsFile credfile = new CredentialsFile(TEXT, Type.CREDENTIALS);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		credfile.persist(out);
+		assertFalse(credfile.isModified());
+		assertEquals(TEXT, new String(out.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Only the region of a modified profile changes, keeping the line endings of the file and the blank lines that trail it.
+	 */
+	@Test
+	void Test2() {
+		CredentialsFile credfile = new CredentialsFile(TEXT, Type.CREDENTIALS);
+		NamedProfile np = credfile.get("my.sample.profile");
+		np.setMember(new AwsSessionToken("aws_session_token = token9"));
+		assertTrue(credfile.isModified());
+		assertEquals(TEXT.replace("token1", "token9"), credfile.toString());
+
+		credfile = new CredentialsFile(TEXT, Type.CREDENTIALS);
+		credfile.getDefault().setMember(new AwsSessionToken("aws_session_token = token0"));
+		String expected = TEXT.replace(
+			"aws_access_key_id=id0\r\n  aws_secret_access_key   =   key0",
+			"aws_access_key_id=id0\r\naws_secret_access_key   =   key0\r\naws_session_token = token0");
+		assertEquals(expected, credfile.toString());
+		assertEquals("token0", new CredentialsFile(credfile.toString(), Type.CREDENTIALS).getDefault().getMemberValue(NamedProfileElement.AWS_SESSION_TOKEN));
+	}
+
+	/**
+	 * Removed profiles take the comments that lead them and the blank lines that trail them along, and added profiles are set apart from what precedes them by a blank line.
+	 */
+	@Test
+	void Test3() {
+		CredentialsFile credfile = new CredentialsFile(TEXT, Type.CREDENTIALS);
+		credfile.remove("my.sample.profile");
+		String expected = TEXT.substring(0, TEXT.indexOf("; next up")) + TEXT.substring(TEXT.indexOf("[other.profile]"));
+		assertEquals(expected, credfile.toString());
+
+		credfile.addNamedProfile(new NamedProfile("[new.profile]\naws_access_key_id = id3\naws_secret_access_key = key3", Type.CREDENTIALS));
+		expected += "\r\n\r\n[new.profile]\r\naws_access_key_id = id3\r\naws_secret_access_key = key3\r\n";
+		assertEquals(expected, credfile.toString());
+		assertEquals(3, new CredentialsFile(credfile.toString(), Type.CREDENTIALS).getNamedProfiles().size());
+
+		credfile = new CredentialsFile("", Type.CREDENTIALS);
+		credfile.addNamedProfile(new NamedProfile("[default]\naws_access_key_id = id0\naws_secret_access_key = key0", Type.CREDENTIALS));
+		String sep = System.lineSeparator();
+		assertEquals("[default]" + sep + "aws_access_key_id = id0" + sep + "aws_secret_access_key = key0" + sep, credfile.toString());
+	}
+
+	/**
+	 * A profile modified to hold the values it already had leaves the document dirty, but unchanged by fingerprint.
+	 * Profiles with the same credentials have the same fingerprint, whatever their name or formatting.
+	 */
+	@Test
+	void Test4() {
+		CredentialsFile credfile = new CredentialsFile(TEXT, Type.CREDENTIALS);
+		NamedProfile np = credfile.get("my.sample.profile");
+		np.setMember(new AwsSessionToken("aws_session_token = token1"));
+		CredentialsDocument doc = new CredentialsDocument(TEXT, Type.CREDENTIALS);
+		doc.getProfiles().get(1).setMember(new AwsSessionToken("aws_session_token=token1"));
+		assertTrue(doc.isDirty());
+		assertFalse(doc.isChanged());
+		assertEquals(doc.getSourceFingerprint(), doc.getFingerprint());
+		assertFalse(credfile.isModified());
+		
+		NamedProfile same = new NamedProfile("[default]\naws_session_token=token1\n# comment\naws_access_key_id=id1\naws_secret_access_key=key1", Type.CREDENTIALS);
+		assertEquals(np.getFingerprint(), same.getFingerprint());
+		same.setMember(new AwsSessionToken("aws_session_token = token2"));
+		assertNotEquals(np.getFingerprint(), same.getFingerprint());
+		
+		doc.getProfiles().get(1).setMember(new AwsSessionToken("aws_session_token = token2"));
+		assertTrue(doc.isChanged());
+		assertNotEquals(doc.getSourceFingerprint(), doc.getFingerprint());
+	}
+
+	private static byte[] apply(byte[] original, CredentialsDocument.Patch patch) {
+		assertEquals(original.length, patch.getOriginalLength());
+		byte[] patched = Arrays.copyOf(original, (int) patch.getLength());
+		ByteBuffer bytes = patch.getBytes().duplicate();
+		bytes.get(patched, (int) patch.getPosition(), bytes.remaining());
+		return patched;
+	}
+
+	/**
+	 * A patch writes nothing before the first change, nothing after the last one unless the length changes, and turns the original bytes
+	 * into the document as written out, whatever the change and whatever multi-byte characters precede it.
+	 */
+	@Test
+	void Test5() {
+		String text = TEXT.replace("Managed by hand", "G\u00e9r\u00e9 \u00e0 la main \ud83d\udd11");
+		byte[] original = text.getBytes(StandardCharsets.UTF_8);
+		int sampleStart = text.substring(0, text.indexOf("; next up")).getBytes(StandardCharsets.UTF_8).length;
+		int otherStart = text.substring(0, text.indexOf("[other.profile]")).getBytes(StandardCharsets.UTF_8).length;
+		
+		CredentialsDocument doc = new CredentialsDocument(text, Type.CREDENTIALS);
+		CredentialsDocument.Patch patch = doc.getPatch();
+		assertEquals(original.length, patch.getPosition());
+		assertEquals(0, patch.getBytes().remaining());
+		
+		doc.getProfiles().get(1).setMember(new AwsSessionToken("aws_session_token = token9"));
+		patch = doc.getPatch();
+		assertEquals(sampleStart, patch.getPosition());
+		assertEquals(original.length, patch.getLength());
+		assertTrue(patch.getPosition() + patch.getBytes().remaining() <= otherStart);
+		assertArrayEquals(doc.toString().getBytes(StandardCharsets.UTF_8), apply(original, patch));
+		
+		doc.getProfiles().get(1).setMember(new AwsSessionToken("aws_session_token = token1234567890"));
+		patch = doc.getPatch();
+		assertEquals(sampleStart, patch.getPosition());
+		assertEquals(original.length + 9, patch.getLength());
+		assertArrayEquals(doc.toString().getBytes(StandardCharsets.UTF_8), apply(original, patch));
+		
+		doc = new CredentialsDocument(text, Type.CREDENTIALS);
+		doc.remove(doc.getProfiles().get(1));
+		doc.append(new NamedProfile("[new.profile]\naws_access_key_id = id3\naws_secret_access_key = key3", Type.CREDENTIALS));
+		patch = doc.getPatch();
+		assertEquals(sampleStart, patch.getPosition());
+		assertArrayEquals(doc.toString().getBytes(StandardCharsets.UTF_8), apply(original, patch));
+	}
+}
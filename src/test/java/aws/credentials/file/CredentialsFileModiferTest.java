@@ -1,13 +1,27 @@
 package aws.credentials.file;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
 import java.io.IOException;
 import java.nio.file.FileSystem;
 import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.jupiter.api.Test;
 
@@ -17,6 +31,7 @@ import com.google.common.jimfs.Jimfs;
 import aws.credentials.AbstractMappedContentTest;
 import aws.credentials.file.CredentialsFileModifier;
 import aws.credentials.profile.NamedProfile;
+import aws.credentials.util.Counters;
 import aws.credentials.util.Utils;
 import aws.credentials.file.CredentialsFile;
 
@@ -27,6 +42,7 @@ class CredentialsFileModiferTest extends AbstractMappedContentTest {
 
 	private static final String SOURCE = "/tmp/newCredentials";
 	private static final String TARGET = "/root/.aws/credentials";
+	private static final String FIXTURE = "CredentialsFileModiferTest1";
 	
 	CredentialsFileModifier modifier;
 	FileSystem fs;
@@ -34,6 +50,7 @@ class CredentialsFileModiferTest extends AbstractMappedContentTest {
 	/**
 	 * Extend test setup to write the classpath resource sample content out to a File in a mocked file system.
 	 * The mocked file system will represent the workstation of a developer who wants to use the aws cli with named profiles. 
+	 * A test without content of its own starts from the same content as Test1.
 	 */
 	@Override
 	protected void setupMore() {
@@ -49,9 +66,9 @@ class CredentialsFileModiferTest extends AbstractMappedContentTest {
 			Files.createDirectories(fs.getPath(SOURCE).getParent());
 			Files.createDirectories(fs.getPath(TARGET).getParent());
 			// This is a mock for the credentials file
-			Utils.writeStringToFile(getText("a"), fs.getPath(SOURCE));
+			Utils.writeStringToFile(getContent("a"), fs.getPath(SOURCE));
 			// This is a mock for an independent file containing a set of credentials
-			Utils.writeStringToFile(getText("b"), fs.getPath(TARGET));
+			Utils.writeStringToFile(getContent("b"), fs.getPath(TARGET));
 //			Utils.writeClassPathResourceToFile("mock-content/ConfigModifierTest1b.txt", fs.getPath(TARGET));
 		} 
 		catch (IOException e) {
@@ -59,6 +76,11 @@ class CredentialsFileModiferTest extends AbstractMappedContentTest {
 		}
 	}
 	
+	private String getContent(String suffix) {
+		String text = getText(suffix);
+		return text == null ? getText(FIXTURE, suffix) : text;
+	}
+	
 	private void assertUnchangedProfile(CredentialsFile cf, int profileNbr) {
 		NamedProfile np = cf.get("myprofile" + String.valueOf(profileNbr));
 		assertNotNull(np);
@@ -216,5 +238,297 @@ class CredentialsFileModiferTest extends AbstractMappedContentTest {
 		assertInsertNoUpdate("unknown_profile");
 	}
 
+	/**
+	 * Scenario: The same credentials are downloaded again. The target credentials file is not rewritten the second time.
+	 */
+	@Test
+	void Test5() throws IOException {
+		long written = Counters.getInstance().get(CredentialsFileModifier.WRITTEN);
+		long skipped = Counters.getInstance().get(CredentialsFileModifier.SKIPPED);
+		assertTrue(new CredentialsFileModifier(fs, SOURCE, TARGET).updateNamedProfile("myprofile2"));
+		String content = Utils.readText(fs.getPath(TARGET));
+		FileTime modified = Files.getLastModifiedTime(fs.getPath(TARGET));
+		
+		assertFalse(new CredentialsFileModifier(fs, SOURCE, TARGET).updateNamedProfile("myprofile2"));
+		assertEquals(content, Utils.readText(fs.getPath(TARGET)));
+		assertEquals(modified, Files.getLastModifiedTime(fs.getPath(TARGET)));
+		assertEquals(written + 1, Counters.getInstance().get(CredentialsFileModifier.WRITTEN));
+		assertEquals(skipped + 1, Counters.getInstance().get(CredentialsFileModifier.SKIPPED));
+		assertChangedProfile(new CredentialsFile(fs.getPath(TARGET)), "myprofile2");
+	}
+
+	/**
+	 * Scenario: Several updates of the same target credentials file run at once, each adding a different profile. Every one of them read
+	 * the target before any of the others wrote it, but none of the added profiles is lost.
+	 */
+	@Test
+	void Test6() throws Exception {
+		int updates = 8;
+		List<CredentialsFileModifier> modifiers = new ArrayList<CredentialsFileModifier>();
+		for(int i = 0; i < updates; i++) {
+			modifiers.add(new CredentialsFileModifier(fs, SOURCE, TARGET));
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(updates);
+		try {
+			CountDownLatch start = new CountDownLatch(1);
+			List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+			for(int i = 0; i < updates; i++) {
+				CredentialsFileModifier modifier = modifiers.get(i);
+				String profileName = "added_profile" + i;
+				results.add(executor.submit(() -> {
+					start.await();
+					return modifier.updateNamedProfile(profileName);
+				}));
+			}
+			start.countDown();
+			for(Future<Boolean> result : results) {
+				assertTrue(result.get(10, TimeUnit.SECONDS));
+			}
+		}
+		finally {
+			executor.shutdownNow();
+		}
+		CredentialsFile cf = new CredentialsFile(fs.getPath(TARGET));
+		assertEquals(3 + updates, cf.getNamedProfiles().size());
+		assertUnchangedProfile(cf, 1);
+		assertUnchangedProfile(cf, 2);
+		assertUnchangedProfile(cf, 3);
+		for(int i = 0; i < updates; i++) {
+			assertAddedProfile(cf, "added_profile" + i);
+		}
+		assertTrue(Files.exists(CredentialsFileLock.getLockPath(fs.getPath(TARGET))));
+	}
+	
+	/**
+	 * Scenario: The target credentials file is locked by another update for longer than the lock timeout. 
+	 * The update gives up without touching the target.
+	 */
+	@Test
+	void Test7() throws Exception {
+		String content = Utils.readText(fs.getPath(TARGET));
+		long timeouts = Counters.getInstance().get(CredentialsFileLock.TIMEOUTS);
+		CredentialsFileModifier modifier = new CredentialsFileModifier(fs, SOURCE, TARGET).setLockTimeout(50);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try(CredentialsFileLock lock = CredentialsFileLock.acquire(fs.getPath(TARGET), 0)) {
+			Future<Boolean> result = executor.submit(() -> modifier.updateNamedProfile("myprofile2"));
+			ExecutionException e = assertThrows(ExecutionException.class, () -> result.get(10, TimeUnit.SECONDS));
+			assertTrue(e.getCause() instanceof IOException);
+		}
+		finally {
+			executor.shutdownNow();
+		}
+		assertEquals(timeouts + 1, Counters.getInstance().get(CredentialsFileLock.TIMEOUTS));
+		assertEquals(content, Utils.readText(fs.getPath(TARGET)));
+		
+		// Once released, the same update goes through.
+		assertTrue(modifier.updateNamedProfile("myprofile2"));
+		assertChangedProfile(new CredentialsFile(fs.getPath(TARGET)), "myprofile2");
+	}
+	
+	/**
+	 * Scenario: Another named profile in the target credentials file is changed (ie: by "aws configure set") after the target was read
+	 * for an update. Both changes end up in the target.
+	 */
+	@Test
+	void Test8() throws IOException {
+		long merged = Counters.getInstance().get(CredentialsFileModifier.MERGED);
+		modifier = new CredentialsFileModifier(fs, SOURCE, TARGET);
+		String content = Utils.readText(fs.getPath(TARGET));
+		Utils.writeStringToFile(content.replace("secretAccessKey1", "changedSecretAccessKey1") + "\n[profile myprofile4]\naws_access_key_id = accessKeyId4\n", fs.getPath(TARGET));
+		
+		assertTrue(modifier.updateNamedProfile("myprofile2"));
+		assertEquals(merged + 1, Counters.getInstance().get(CredentialsFileModifier.MERGED));
+		CredentialsFile cf = new CredentialsFile(fs.getPath(TARGET));
+		assertEquals(4, cf.getNamedProfiles().size());
+		assertEquals("changedSecretAccessKey1", cf.get("myprofile1").getSecretKey());
+		assertChangedProfile(cf, "myprofile2");
+		assertUnchangedProfile(cf, 3);
+		assertEquals("accessKeyId4", cf.get("myprofile4").getKeyId());
+	}
+	
+	/**
+	 * Scenario: The same named profile is changed in the target credentials file after the target was read for an update.
+	 * The update fails, and the other change is kept. If the other change was the same as the update, there is nothing to do.
+	 */
+	@Test
+	void Test9() throws IOException {
+		long conflicts = Counters.getInstance().get(CredentialsFileModifier.CONFLICTS);
+		String content = Utils.readText(fs.getPath(TARGET));
+		modifier = new CredentialsFileModifier(fs, SOURCE, TARGET);
+		String changed = content.replace("secretAccessKey2", "changedSecretAccessKey2");
+		Utils.writeStringToFile(changed, fs.getPath(TARGET));
+		
+		CredentialsFileConflictException e = assertThrows(CredentialsFileConflictException.class, () -> modifier.updateNamedProfile("myprofile2"));
+		assertEquals("myprofile2", e.getProfileName());
+		assertEquals(conflicts + 1, Counters.getInstance().get(CredentialsFileModifier.CONFLICTS));
+		assertEquals(changed, Utils.readText(fs.getPath(TARGET)));
+		
+		// The other change is the same as the update.
+		Utils.writeStringToFile(content, fs.getPath(TARGET));
+		assertTrue(new CredentialsFileModifier(fs, SOURCE, TARGET).updateNamedProfile("myprofile2"));
+		changed = Utils.readText(fs.getPath(TARGET));
+		Utils.writeStringToFile(content, fs.getPath(TARGET));
+		modifier = new CredentialsFileModifier(fs, SOURCE, TARGET);
+		Utils.writeStringToFile(changed, fs.getPath(TARGET));
+		assertFalse(modifier.updateNamedProfile("myprofile2"));
+		assertEquals(changed, Utils.readText(fs.getPath(TARGET)));
+	}
 	
+	/**
+	 * Scenario: Credentials for several accounts are downloaded back to back. One existing named profile is updated and two are added 
+	 * in a single write of the target credentials file. Changes the target already has are left out.
+	 */
+	@Test
+	void Test10() throws IOException {
+		long written = Counters.getInstance().get(CredentialsFileModifier.WRITTEN);
+		CredentialsFile source = new CredentialsFile(fs.getPath(SOURCE));
+		Map<String, NamedProfile> changes = new LinkedHashMap<String, NamedProfile>();
+		changes.put("myprofile2", source.getDefault());
+		changes.put("added_profile1", new CredentialsFile(fs.getPath(SOURCE)).getDefault());
+		changes.put("added_profile2", new CredentialsFile(fs.getPath(SOURCE)).getDefault());
+		
+		assertTrue(new CredentialsFileModifier(fs, fs.getPath(TARGET)).updateNamedProfiles(changes));
+		assertEquals(written + 1, Counters.getInstance().get(CredentialsFileModifier.WRITTEN));
+		CredentialsFile cf = new CredentialsFile(fs.getPath(TARGET));
+		assertEquals(5, cf.getNamedProfiles().size());
+		assertUnchangedProfile(cf, 1);
+		assertChangedProfile(cf, "myprofile2");
+		assertUnchangedProfile(cf, 3);
+		assertAddedProfile(cf, "added_profile1");
+		assertAddedProfile(cf, "added_profile2");
+		
+		changes.clear();
+		changes.put("myprofile2", new CredentialsFile(fs.getPath(SOURCE)).getDefault());
+		changes.put("added_profile1", new CredentialsFile(fs.getPath(SOURCE)).getDefault());
+		assertFalse(new CredentialsFileModifier(fs, fs.getPath(TARGET)).updateNamedProfiles(changes));
+		assertEquals(written + 1, Counters.getInstance().get(CredentialsFileModifier.WRITTEN));
+	}
+	
+	/**
+	 * Scenario: One download is applied to several target credentials files at the same time. A target that cannot be written 
+	 * (its directory does not exist) fails on its own, and the other targets are still updated, each reporting how long it took.
+	 */
+	@Test
+	void Test11() throws Exception {
+		Files.copy(fs.getPath(TARGET), fs.getPath(TARGET + "2"));
+		CredentialsFileEventHandler handler = new CredentialsFileEventHandler(fs, null)
+				.addTarget(fs.getPath(TARGET), null, null)
+				.addTarget(fs.getPath("/nowhere/credentials"), CredentialsFile.Type.CREDENTIALS, null)
+				.addTarget(fs.getPath(TARGET + "2"), CredentialsFile.Type.CREDENTIALS, null);
+		long failed = Counters.getInstance().get(CredentialsFileEventHandler.FAILED);
+		
+		Map<String, NamedProfile> changes = new LinkedHashMap<String, NamedProfile>();
+		changes.put("myprofile2", new CredentialsFile(fs.getPath(SOURCE)).getDefault());
+		List<Future<Boolean>> updates = handler.update(changes);
+		
+		assertTrue(updates.get(0).get(5, TimeUnit.SECONDS));
+		assertThrows(ExecutionException.class, () -> updates.get(1).get(5, TimeUnit.SECONDS));
+		assertTrue(updates.get(2).get(5, TimeUnit.SECONDS));
+		assertEquals(failed + 1, Counters.getInstance().get(CredentialsFileEventHandler.FAILED));
+		for(String target : new String[] { TARGET, TARGET + "2" }) {
+			CredentialsFile cf = new CredentialsFile(fs.getPath(target));
+			assertUnchangedProfile(cf, 1);
+			assertChangedProfile(cf, "myprofile2");
+			assertUnchangedProfile(cf, 3);
+		}
+		for(CredentialsFileEventHandler.Target target : handler.getTargets()) {
+			assertTrue(target.getLatency() >= 0);
+		}
+	}
+	
+	/**
+	 * Scenario: A download is applied to the targets and waited for. It is not handled only if no target could be updated, so that it is not
+	 * discarded before its credentials are saved somewhere. Once closed, the handler takes no more updates.
+	 */
+	@Test
+	void Test12() throws Exception {
+		Map<String, NamedProfile> changes = new LinkedHashMap<String, NamedProfile>();
+		changes.put("myprofile2", new CredentialsFile(fs.getPath(SOURCE)).getDefault());
+		
+		CredentialsFileEventHandler failing = new CredentialsFileEventHandler(fs, null)
+				.addTarget(fs.getPath("/nowhere/credentials"), CredentialsFile.Type.CREDENTIALS, null)
+				.addTarget(fs.getPath("/neither/credentials"), CredentialsFile.Type.CREDENTIALS, null);
+		NotHandledException e = assertThrows(NotHandledException.class, () -> failing.apply(changes));
+		assertEquals(1, e.getSuppressed().length);
+		failing.close();
+		
+		CredentialsFileEventHandler handler = new CredentialsFileEventHandler(fs, null)
+				.addTarget(fs.getPath("/nowhere/credentials"), CredentialsFile.Type.CREDENTIALS, null)
+				.addTarget(fs.getPath(TARGET), null, null);
+		handler.apply(changes);
+		assertChangedProfile(new CredentialsFile(fs.getPath(TARGET)), "myprofile2");
+		
+		assertTrue(handler.removeTarget(fs.getPath("/nowhere/credentials")));
+		assertFalse(handler.removeTarget(fs.getPath("/nowhere/credentials")));
+		assertEquals(1, handler.getTargets().size());
+		handler.close();
+		assertThrows(RejectedExecutionException.class, () -> handler.update(changes));
+	}
+	
+	/**
+	 * Scenario: A named profile is added to the target credentials file, which is changed by something else before it can be written,
+	 * so the addition is made again over the changed target. The named profile handed in is copied into the target each time, and is 
+	 * itself left as it was.
+	 */
+	@Test
+	void Test13() throws IOException {
+		long merged = Counters.getInstance().get(CredentialsFileModifier.MERGED);
+		NamedProfile added = new CredentialsFile(fs.getPath(SOURCE)).getDefault();
+		Map<String, NamedProfile> changes = new LinkedHashMap<String, NamedProfile>();
+		changes.put("added_profile", added);
+		modifier = new CredentialsFileModifier(fs, fs.getPath(TARGET));
+		String content = Utils.readText(fs.getPath(TARGET));
+		Utils.writeStringToFile(content.replace("secretAccessKey1", "changedSecretAccessKey1"), fs.getPath(TARGET));
+		
+		assertTrue(modifier.updateNamedProfiles(changes));
+		assertEquals(merged + 1, Counters.getInstance().get(CredentialsFileModifier.MERGED));
+		assertTrue(added.isDefault());
+		CredentialsFile cf = new CredentialsFile(fs.getPath(TARGET));
+		assertEquals(4, cf.getNamedProfiles().size());
+		assertEquals("changedSecretAccessKey1", cf.get("myprofile1").getSecretKey());
+		assertAddedProfile(cf, "added_profile");
+	}
+	
+	/**
+	 * Scenario: A thread that holds the lock on the target credentials file tries to lock it again, and another thread tries to release it.
+	 * The second lock is refused at once instead of timing out, and the lock stays held until the thread that holds it releases it.
+	 */
+	@Test
+	void Test14() throws Exception {
+		long timeouts = Counters.getInstance().get(CredentialsFileLock.TIMEOUTS);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try(CredentialsFileLock lock = CredentialsFileLock.acquire(fs.getPath(TARGET), 0)) {
+			IOException e = assertThrows(IOException.class, () -> CredentialsFileLock.acquire(fs.getPath(TARGET), 10000));
+			assertTrue(e.getMessage().contains("already held by this thread"));
+			assertEquals(timeouts, Counters.getInstance().get(CredentialsFileLock.TIMEOUTS));
+			
+			Future<?> result = executor.submit(() -> { lock.close(); return null; });
+			ExecutionException ee = assertThrows(ExecutionException.class, () -> result.get(10, TimeUnit.SECONDS));
+			assertTrue(ee.getCause() instanceof IllegalMonitorStateException);
+			assertTrue(lock.isValid());
+		}
+		finally {
+			executor.shutdownNow();
+		}
+		try(CredentialsFileLock lock = CredentialsFileLock.acquire(fs.getPath(TARGET), 0)) {
+			assertTrue(lock.isValid());
+		}
+	}
+	
+	/**
+	 * Scenario: A download is held for a coalesce window when the handler is closed. The change is made in the target before closing 
+	 * finishes, and a download that arrives after that is refused as not handled rather than handed to threads that are gone.
+	 */
+	@Test
+	void Test15() throws Exception {
+		NamedProfile np = new CredentialsFile(fs.getPath(SOURCE)).getDefault();
+		CredentialsFileEventHandler handler = new CredentialsFileEventHandler(fs, fs.getPath(TARGET), null).setCoalesceWindow(60000);
+		handler.enqueue("myprofile2", np);
+		handler.close();
+		assertChangedProfile(new CredentialsFile(fs.getPath(TARGET)), "myprofile2");
+		
+		assertThrows(NotHandledException.class, () -> handler.enqueue("myprofile3", np));
+		handler.flush();
+		assertUnchangedProfile(new CredentialsFile(fs.getPath(TARGET)), 3);
+	}
 }
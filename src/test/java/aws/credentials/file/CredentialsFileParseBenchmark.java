@@ -0,0 +1,125 @@
+package aws.credentials.file;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import aws.credentials.SyntheticContent;
+import aws.credentials.file.CredentialsFile.Type;
+import aws.credentials.profile.NameValuePairProfileDecorator;
+import aws.credentials.profile.NamedProfileElement;
+import aws.credentials.profile.NamedProfileParser;
+import aws.credentials.profile.NamedProfileParser.Section;
+import aws.credentials.util.Utils;
+
+/**
+ * Compares the single pass NamedProfileParser with the two pass approach CredentialsFile used before it, where the text was first
+ * split into trimmed lines, then every line was tested as a header (compiling two regexes) while grouping, then tested again along 
+ * with up to five element probes per line.
+ *
+ * Run with: mvn -P benchmark test-compile exec:exec -Dbenchmark=CredentialsFileParseBenchmark
+ *
+ * @author wrh
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CredentialsFileParseBenchmark {
+
+	@Param({ "10", "100", "500" })
+	public int profiles;
+
+	private String text;
+
+	@Setup
+	public void setup() {
+		text = SyntheticContent.getCredentials(profiles);
+	}
+
+	@Benchmark
+	public List<Section> singlePass() {
+		return new NamedProfileParser(Type.CREDENTIALS).parseSections(text);
+	}
+
+	@Benchmark
+	public List<List<NameValuePairProfileDecorator>> twoPass() {
+		List<List<NameValuePairProfileDecorator>> profiles = new ArrayList<List<NameValuePairProfileDecorator>>();
+		List<String> namedProfileLines = new ArrayList<String>();
+		List<String> lines = Utils.readLines(text);
+		for (Iterator<String> iterator = lines.iterator(); iterator.hasNext();) {
+			String line = iterator.next();
+			if( ! line.isBlank()) {
+				if(isHeader(line)) {
+					if( ! namedProfileLines.isEmpty()) {
+						profiles.add(members(namedProfileLines));
+						namedProfileLines.clear();
+					}
+				}
+				else if(namedProfileLines.isEmpty()) {
+					continue;
+				}
+				namedProfileLines.add(line);
+			}
+			if( ! iterator.hasNext() && namedProfileLines.isEmpty() == false) {
+				profiles.add(members(namedProfileLines));
+			}
+		}
+		return profiles;
+	}
+
+	/**
+	 * The per profile pass of the former NamedProfile.initialize()
+	 */
+	private List<NameValuePairProfileDecorator> members(List<String> namedProfileLines) {
+		List<NameValuePairProfileDecorator> members = new ArrayList<NameValuePairProfileDecorator>();
+		for(String line : namedProfileLines) {
+			if(isHeader(line)) {
+				continue;
+			}
+			for(String shortname : new String[] { "id", "key", "token", "region", "output" }) {
+				NameValuePairProfileDecorator nvp = NamedProfileElement.getInstance(shortname, line);
+				if(nvp != null && nvp.isValid()) {
+					members.add(nvp);
+					break;
+				}
+			}
+		}
+		return members;
+	}
+
+	/**
+	 * The former per line header test: new NamedProfileHeader(line, type).isHeader()
+	 */
+	private static boolean isHeader(String line) {
+		String header = line.trim();
+		if(header.matches("^\\[.*\\]$")) {
+			String name = header.substring(1, header.length()-1);
+			if("default".equals(name)) {
+				return true;
+			}
+			String[] parts = name.split("\\s+");
+			if(parts.length > 1) {
+				name = parts[1];
+			}
+			header = String.format("[%s]", name);
+		}
+		return header.matches("(?i)^\\[(profile\\x20+)?[\\w\\.\\-]+\\]$");
+	}
+}
@@ -0,0 +1,79 @@
+package aws.credentials.file;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import aws.credentials.SyntheticContent;
+import aws.credentials.file.CredentialsFile.FsyncPolicy;
+
+/**
+ * Measures the latency of persisting a credentials file with each FsyncPolicy, against truncating the file and writing it in place 
+ * (how CredentialsFileModifier persisted before, with no fsync and no atomicity). Use it to choose the fsync policy of a deployment.
+ * 
+ * The cost of an fsync depends entirely on the file system, so run this against the directory that holds the target credentials file
+ * (/tmp is often in memory, where an fsync costs nothing):
+ * mvn -P benchmark test-compile exec:exec -Dbenchmark="CredentialsFilePersistBenchmark -jvmArgsAppend -Dbenchmark.dir=$HOME/.aws"
+ *
+ * @author wrh
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CredentialsFilePersistBenchmark {
+
+	@Param({ "TRUNCATE", "NONE", "FILE", "FILE_AND_DIRECTORY" })
+	public String policy;
+
+	@Param({ "20", "1000" })
+	public int profiles;
+
+	private Path directory;
+	private Path file;
+	private CredentialsFile credfile;
+
+	@Setup
+	public void setup() throws IOException {
+		directory = Files.createTempDirectory(Paths.get(System.getProperty("benchmark.dir", System.getProperty("java.io.tmpdir"))), "persist");
+		file = directory.resolve("credentials");
+		Files.write(file, SyntheticContent.getCredentials(profiles).getBytes(StandardCharsets.UTF_8));
+		credfile = new CredentialsFile(file);
+	}
+
+	@TearDown
+	public void teardown() throws IOException {
+		Files.deleteIfExists(file);
+		Files.deleteIfExists(directory);
+	}
+
+	@Benchmark
+	public void persist() throws IOException {
+		if("TRUNCATE".equals(policy)) {
+			credfile.persist(Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING));
+		}
+		else {
+			credfile.persist(FsyncPolicy.valueOf(policy));
+		}
+	}
+}
@@ -0,0 +1,141 @@
+package aws.credentials.file;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import aws.credentials.SyntheticContent;
+import aws.credentials.file.CredentialsFile.ReadMode;
+import aws.credentials.file.CredentialsFile.Type;
+import aws.credentials.profile.NamedProfile;
+import aws.credentials.profile.NamedProfileParser;
+import aws.credentials.util.Utils;
+
+/**
+ * Compares reading and parsing a credentials file from disk the way CredentialsFile(Path) used to (Utils.readLines, then parse the lines)
+ * with the STREAM and MAPPED read modes, and with a lazy MAPPED read that parses only the default profile.
+ *
+ * The warm benchmarks measure the average time of repeated reads once the JIT has settled. The cold benchmarks measure a single read
+ * in a fresh JVM, which is what the application sees when a download arrives after a long idle period. Note that the file is still in
+ * the OS page cache for the cold reads, since it cannot be evicted from here.
+ *
+ * Run with: mvn -P benchmark test-compile exec:exec -Dbenchmark=CredentialsFileReadBenchmark
+ *
+ * @author wrh
+ *
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CredentialsFileReadBenchmark {
+
+	@Param({ "1048576", "10485760" })
+	public int bytes;
+
+	private Path file;
+
+	@Setup
+	public void setup() throws IOException {
+		file = Files.createTempFile("credentials", null);
+		Files.write(file, SyntheticContent.getCredentialsOfSize(bytes).getBytes(StandardCharsets.UTF_8));
+	}
+
+	@TearDown
+	public void teardown() throws IOException {
+		Files.deleteIfExists(file);
+	}
+
+	private List<NamedProfile> readLines() {
+		return new NamedProfileParser(Type.CREDENTIALS).parse(Utils.readLines(file));
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@Warmup(iterations = 3, time = 1)
+	@Measurement(iterations = 5, time = 1)
+	@Fork(1)
+	public List<NamedProfile> warmReadLines() {
+		return readLines();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@Warmup(iterations = 3, time = 1)
+	@Measurement(iterations = 5, time = 1)
+	@Fork(1)
+	public CredentialsFile warmStream() {
+		return new CredentialsFile(file, ReadMode.STREAM);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@Warmup(iterations = 3, time = 1)
+	@Measurement(iterations = 5, time = 1)
+	@Fork(1)
+	public CredentialsFile warmMapped() {
+		return new CredentialsFile(file, ReadMode.MAPPED);
+	}
+
+	/**
+	 * Only the headers are parsed, and the one profile looked into, which is all the event handler needs of a file.
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@Warmup(iterations = 3, time = 1)
+	@Measurement(iterations = 5, time = 1)
+	@Fork(1)
+	public String warmMappedLazy() {
+		return new CredentialsFile(file, ReadMode.MAPPED, true).getDefault().getKeyId();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@Warmup(iterations = 0)
+	@Measurement(iterations = 1)
+	@Fork(10)
+	public List<NamedProfile> coldReadLines() {
+		return readLines();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@Warmup(iterations = 0)
+	@Measurement(iterations = 1)
+	@Fork(10)
+	public CredentialsFile coldStream() {
+		return new CredentialsFile(file, ReadMode.STREAM);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@Warmup(iterations = 0)
+	@Measurement(iterations = 1)
+	@Fork(10)
+	public CredentialsFile coldMapped() {
+		return new CredentialsFile(file, ReadMode.MAPPED);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@Warmup(iterations = 0)
+	@Measurement(iterations = 1)
+	@Fork(10)
+	public String coldMappedLazy() {
+		return new CredentialsFile(file, ReadMode.MAPPED, true).getDefault().getKeyId();
+	}
+}
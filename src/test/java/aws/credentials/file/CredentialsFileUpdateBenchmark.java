@@ -0,0 +1,85 @@
+package aws.credentials.file;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import aws.credentials.SyntheticContent;
+import aws.credentials.credential.AwsSessionToken;
+import aws.credentials.file.CredentialsFile.FsyncPolicy;
+import aws.credentials.file.CredentialsFile.ReadMode;
+import aws.credentials.file.CredentialsFile.WriteStrategy;
+
+/**
+ * Measures the latency of updating the session token of one named profile (in the middle of the file) against the size of the file,
+ * for each write strategy: read the file lazily, set the token, persist it. Each update flushes the file (FsyncPolicy.FILE).
+ * With sameLength the token alternates between two values of the same length, so a patch writes a single profile. Otherwise it 
+ * alternates between a short and a long value, so a patch shifts everything after the profile.
+ * 
+ * As with CredentialsFilePersistBenchmark, run this against the file system that holds the target credentials file:
+ * mvn -P benchmark test-compile exec:exec -Dbenchmark="CredentialsFileUpdateBenchmark -jvmArgsAppend -Dbenchmark.dir=$HOME/.aws"
+ *
+ * @author wrh
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CredentialsFileUpdateBenchmark {
+
+	@Param({ "65536", "1048576", "10485760" })
+	public int bytes;
+
+	@Param({ "REWRITE", "PATCH" })
+	public WriteStrategy strategy;
+
+	@Param({ "true", "false" })
+	public boolean sameLength;
+
+	private Path directory;
+	private Path file;
+	private String profileName;
+	private String[] tokens;
+	private int updates;
+
+	@Setup
+	public void setup() throws IOException {
+		directory = Files.createTempDirectory(Paths.get(System.getProperty("benchmark.dir", System.getProperty("java.io.tmpdir"))), "update");
+		file = directory.resolve("credentials");
+		Files.write(file, SyntheticContent.getCredentialsOfSize(bytes).getBytes(StandardCharsets.UTF_8));
+		profileName = "profile" + new CredentialsFile(file, ReadMode.STREAM, true).getNamedProfiles().size() / 2;
+		tokens = sameLength ? new String[] { "tokenA", "tokenB" } : new String[] { "short", "a-much-longer-token" };
+	}
+
+	@TearDown
+	public void teardown() throws IOException {
+		Files.deleteIfExists(file);
+		Files.deleteIfExists(directory);
+	}
+
+	@Benchmark
+	public void update() throws IOException {
+		CredentialsFile credfile = new CredentialsFile(file, ReadMode.STREAM, true);
+		credfile.get(profileName).setMember(new AwsSessionToken("aws_session_token = " + tokens[updates++ % 2]));
+		credfile.persist(FsyncPolicy.FILE, strategy);
+	}
+}
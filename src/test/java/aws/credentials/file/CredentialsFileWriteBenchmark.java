@@ -0,0 +1,115 @@
+package aws.credentials.file;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import aws.credentials.SyntheticContent;
+import aws.credentials.credential.AwsSessionToken;
+import aws.credentials.file.CredentialsFile.ReadMode;
+
+/**
+ * Compares ways of writing out a credentials file with one modified named profile, into a file (truncated first):
+ * legacy is how persist once worked (toString, getBytes, read back line by line through a BufferedReader, printed through a PrintWriter), 
+ * writer is a BufferedWriter over an OutputStreamWriter, and channel is CredentialsFile.persist(WritableByteChannel), which encodes into 
+ * a reused direct buffer and, for a MAPPED read, writes the unchanged profiles straight from the bytes read.
+ * 
+ * Bytes allocated per write are reported as gc.alloc.rate.norm when run with the gc profiler:
+ * mvn -P benchmark test-compile exec:exec -Dbenchmark="CredentialsFileWriteBenchmark -prof gc"
+ *
+ * @author wrh
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CredentialsFileWriteBenchmark {
+
+	@Param({ "1048576" })
+	public int bytes;
+
+	@Param({ "STREAM", "MAPPED" })
+	public ReadMode readMode;
+
+	private Path source;
+	private Path target;
+	private FileChannel channel;
+	private CredentialsFile credfile;
+
+	@Setup
+	public void setup() throws IOException {
+		source = Files.createTempFile("credentials", null);
+		target = Files.createTempFile("credentials", null);
+		Files.write(source, SyntheticContent.getCredentialsOfSize(bytes).getBytes(StandardCharsets.UTF_8));
+		credfile = new CredentialsFile(source, readMode, true);
+		credfile.get("profile3").setMember(new AwsSessionToken("aws_session_token = token"));
+		channel = FileChannel.open(target, StandardOpenOption.WRITE);
+	}
+
+	@TearDown
+	public void teardown() throws IOException {
+		channel.close();
+		credfile = null;
+		Files.deleteIfExists(target);
+		Files.deleteIfExists(source);
+	}
+	
+	private OutputStream truncate() throws IOException {
+		channel.truncate(0).position(0);
+		return Channels.newOutputStream(channel);
+	}
+
+	@Benchmark
+	public void legacy() throws IOException {
+		byte[] content = credfile.toString().getBytes();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(content)));
+		PrintWriter printer = new PrintWriter(truncate());
+		String line;
+		while((line = reader.readLine()) != null) {
+			printer.println(line);
+		}
+		printer.flush();
+	}
+
+	@Benchmark
+	public void writer() throws IOException {
+		Writer writer = new BufferedWriter(new OutputStreamWriter(truncate(), StandardCharsets.UTF_8));
+		credfile.getDocument().write(writer);
+		writer.flush();
+	}
+
+	@Benchmark
+	public void channel() throws IOException {
+		truncate();
+		credfile.persist(channel);
+	}
+}
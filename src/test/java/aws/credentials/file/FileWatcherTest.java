@@ -1,7 +1,9 @@
 package aws.credentials.file;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
 import java.io.IOException;
@@ -9,12 +11,18 @@ import java.nio.file.FileSystem;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Watchable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.jupiter.api.Test;
 
 import com.google.common.jimfs.Configuration;
 import com.google.common.jimfs.Jimfs;
+import com.google.common.jimfs.WatchServiceConfiguration;
 
+import aws.credentials.util.Counters;
 import aws.credentials.util.Utils;
 
 /**
@@ -32,10 +40,15 @@ class FileWatcherTest {
 	String lastMessage;
 	
 	private void startWatcher(String filepath, FileEventHandler handler) {
+		startWatcher(filepath, handler, WatchServiceConfiguration.polling(5, TimeUnit.SECONDS), FileWatcher.DEFAULT_QUIET_PERIOD);
+	}
+	
+	private void startWatcher(String filepath, FileEventHandler handler, WatchServiceConfiguration watchConfig, long quietPeriod) {
 		Configuration config = Configuration.unix().toBuilder()
 			       .setAttributeViews("basic", "owner", "posix", "unix")
 			       .setWorkingDirectory("/")
 			       .setRoots("/")
+			       .setWatchServiceConfiguration(watchConfig)
 			       .build();
 				
 		fs = Jimfs.newFileSystem(config);
@@ -43,7 +56,7 @@ class FileWatcherTest {
 		try {
 			Files.createDirectories(fs.getPath(filepath).getParent());
 			watchable = fs.getPath(filepath);
-			watcher = new FileWatcher(watchable, handler, fs);
+			watcher = new FileWatcher(watchable, handler, fs).setQuietPeriod(quietPeriod);
 		} 
 		catch (IOException e) {
 			fail("Not expecting exception while creating FileWatcher: ", e);
@@ -151,5 +164,182 @@ class FileWatcherTest {
 			stopWatcher();
 		}
 	}
-
+	
+	/**
+	 * Write a mock file several times in quick succession, as a browser does while saving a download, and assert that the 
+	 * resulting events are delivered as a single callback once the file has been quiet for a while.
+	 */
+	@Test
+	void test2() {
+		AtomicInteger callbacks = new AtomicInteger();
+		long raw = Counters.getInstance().get(FileWatcher.RAW);
+		long delivered = Counters.getInstance().get(FileWatcher.DELIVERED);
+		try {
+			startWatcher("/tmp/newCredentials", new FileEventHandler() {
+				@Override public void onUpdate(Watchable watchable) {
+					lastMessage = "updated";
+					callbacks.incrementAndGet();
+				}
+				@Override public void onCreate(Watchable watchable) {
+					lastMessage = "created";
+					callbacks.incrementAndGet();
+				}
+				@Override public void onDelete(Watchable watchable) { }
+			}, WatchServiceConfiguration.polling(10, TimeUnit.MILLISECONDS), 1000);
+			
+			for(int i = 1; i <= 5; i++) {
+				Utils.writeStringToFile("Apples\nOranges\n" + i, watchable);
+				Thread.sleep(50);
+			}
+			assertEventResult("created");
+			Thread.sleep(1500);
+			assertEquals(1, callbacks.get());
+			assertTrue(Counters.getInstance().get(FileWatcher.RAW) - raw > 1);
+			assertEquals(delivered + 1, Counters.getInstance().get(FileWatcher.DELIVERED));
+		}
+		catch(Exception e) { 
+			fail(e);
+		}
+		finally {
+			stopWatcher();
+		}
+	}
+	
+	/**
+	 * Watch the download folders of two browsers on one watcher, assert that each file's events reach its own handler, and that 
+	 * a folder unregistered while watching is no longer watched.
+	 */
+	@Test
+	void test3() {
+		Map<String, AtomicInteger> callbacks = new ConcurrentHashMap<String, AtomicInteger>();
+		FileEventHandler counting = new FileEventHandler() {
+			@Override public void onUpdate(Watchable watchable) {
+				callbacks.computeIfAbsent(watchable.toString(), k -> new AtomicInteger()).incrementAndGet();
+			}
+			@Override public void onCreate(Watchable watchable) {
+				onUpdate(watchable);
+			}
+			@Override public void onDelete(Watchable watchable) { }
+		};
+		startWatcher("/chrome/newCredentials", counting, WatchServiceConfiguration.polling(10, TimeUnit.MILLISECONDS), 0);
+		try {
+			Path firefox = fs.getPath("/firefox/newCredentials");
+			Files.createDirectories(firefox.getParent());
+			FileWatcher.Registration registration = watcher.register(firefox, counting);
+			assertEquals(2, watcher.getRegistrations().size());
+			
+			Utils.writeStringToFile("chrome", watchable);
+			Utils.writeStringToFile("firefox", firefox);
+			Utils.writeStringToFile("ignored", fs.getPath("/firefox/other"));
+			for(int i = 0; i < 100 && callbacks.size() < 2; i++) {
+				Thread.sleep(50);
+			}
+			assertEquals(2, callbacks.size());
+			assertTrue(callbacks.containsKey(watchable.toString()));
+			assertTrue(callbacks.containsKey(firefox.toString()));
+			assertTrue(watcherThread.isAlive());
+			
+			assertTrue(watcher.unregister(registration));
+			assertFalse(watcher.unregister(registration));
+			Thread.sleep(200);
+			int firefoxCallbacks = callbacks.get(firefox.toString()).get();
+			Utils.writeStringToFile("firefox again", firefox);
+			Utils.writeStringToFile("chrome again", watchable);
+			Thread.sleep(500);
+			assertEquals(firefoxCallbacks, callbacks.get(firefox.toString()).get());
+			assertTrue(callbacks.get(watchable.toString()).get() > 1);
+		}
+		catch(Exception e) { 
+			fail(e);
+		}
+		finally {
+			stopWatcher();
+		}
+	}
+	
+	/**
+	 * A handler that could not handle a download (ie: the update of its only target ran into a conflicting change) should have that
+	 * reported without the watcher stopping, so the next download is still delivered.
+	 */
+	@Test
+	void test4() {
+		AtomicInteger callbacks = new AtomicInteger();
+		startWatcher("/tmp/newCredentials", new FileEventHandler() {
+			@Override public void onUpdate(Watchable watchable) throws IOException {
+				if(callbacks.incrementAndGet() == 1) {
+					throw new NotHandledException("Could not update profile myprofile2 in any target", 
+							new CredentialsFileConflictException(fs.getPath("/root/.aws/credentials"), "myprofile2"));
+				}
+				lastMessage = "updated";
+			}
+			@Override public void onCreate(Watchable watchable) throws IOException {
+				onUpdate(watchable);
+			}
+			@Override public void onDelete(Watchable watchable) { }
+		}, WatchServiceConfiguration.polling(10, TimeUnit.MILLISECONDS), 0);
+		try {
+			Utils.writeStringToFile("Apples", watchable);
+			for(int i = 0; i < 100 && callbacks.get() == 0; i++) {
+				Thread.sleep(50);
+			}
+			assertEquals(1, callbacks.get());
+			assertNull(lastMessage);
+			Thread.sleep(100);
+			assertTrue(watcherThread.isAlive());
+			
+			Utils.writeStringToFile("Oranges", watchable);
+			assertEventResult("updated");
+			assertTrue(watcherThread.isAlive());
+		}
+		catch(Exception e) { 
+			fail(e);
+		}
+		finally {
+			stopWatcher();
+		}
+	}
+	
+	/**
+	 * A handler that fails on the debounce thread should only fail its own file. The watcher should keep watching that file and 
+	 * every other registration.
+	 */
+	@Test
+	void test5() {
+		Map<String, AtomicInteger> callbacks = new ConcurrentHashMap<String, AtomicInteger>();
+		FileEventHandler failing = new FileEventHandler() {
+			@Override public void onUpdate(Watchable watchable) {
+				callbacks.computeIfAbsent(watchable.toString(), k -> new AtomicInteger()).incrementAndGet();
+				throw new IllegalStateException("Bad download");
+			}
+			@Override public void onCreate(Watchable watchable) {
+				onUpdate(watchable);
+			}
+			@Override public void onDelete(Watchable watchable) { }
+		};
+		startWatcher("/chrome/newCredentials", failing, WatchServiceConfiguration.polling(10, TimeUnit.MILLISECONDS), 50);
+		try {
+			Path firefox = fs.getPath("/firefox/newCredentials");
+			Files.createDirectories(firefox.getParent());
+			watcher.register(firefox, getEventHandler());
+			
+			Utils.writeStringToFile("chrome", watchable);
+			for(int i = 0; i < 100 && callbacks.isEmpty(); i++) {
+				Thread.sleep(50);
+			}
+			Utils.writeStringToFile("firefox", firefox);
+			assertEventResult("created");
+			Utils.writeStringToFile("chrome again", watchable);
+			for(int i = 0; i < 100 && callbacks.get(watchable.toString()).get() < 2; i++) {
+				Thread.sleep(50);
+			}
+			assertEquals(2, callbacks.get(watchable.toString()).get());
+			assertTrue(watcherThread.isAlive());
+		}
+		catch(Exception e) { 
+			fail(e);
+		}
+		finally {
+			stopWatcher();
+		}
+	}
 }
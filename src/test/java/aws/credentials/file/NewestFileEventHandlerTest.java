@@ -0,0 +1,137 @@
+package aws.credentials.file;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Watchable;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+
+import aws.credentials.file.NewestFileEventHandler.Consume;
+import aws.credentials.util.Counters;
+import aws.credentials.util.Utils;
+
+/**
+ * Tests for handling the newest of several downloads saved under names matching a pattern.
+ *
+ * @author wrh
+ *
+ */
+class NewestFileEventHandlerTest {
+
+	FileSystem fs;
+	Path downloads;
+	List<Path> handled = new ArrayList<Path>();
+	NewestFileEventHandler handler;
+
+	@BeforeEach
+	void setup() {
+		fs = Jimfs.newFileSystem(Configuration.unix().toBuilder()
+			       .setAttributeViews("basic", "owner", "posix", "unix")
+			       .setWorkingDirectory("/")
+			       .setRoots("/")
+			       .build());
+		downloads = fs.getPath("/Users/wrh/Downloads");
+		try {
+			Files.createDirectories(downloads);
+		}
+		catch (IOException e) {
+			fail("Not expecting exception during setup: ", e);
+		}
+		handler = new NewestFileEventHandler(downloads, fs.getPathMatcher("glob:credentials*"), new FileEventHandler() {
+			@Override public void onUpdate(Watchable watchable) {
+				handled.add((Path) watchable);
+			}
+			@Override public void onCreate(Watchable watchable) {
+				handled.add((Path) watchable);
+			}
+			@Override public void onDelete(Watchable watchable) { }
+		});
+	}
+
+	private Path download(String name, long modified) throws IOException {
+		Path file = downloads.resolve(name);
+		Utils.writeStringToFile(name, file);
+		Files.setLastModifiedTime(file, FileTime.fromMillis(modified));
+		return file;
+	}
+
+	/**
+	 * Only an event for the newest matching download should be passed on, and files that do not match should not be considered.
+	 */
+	@Test
+	void Test1() throws IOException {
+		long skipped = Counters.getInstance().get(NewestFileEventHandler.SKIPPED);
+		Path first = download("credentials", 1000);
+		Path second = download("credentials (1)", 2000);
+		download("config", 3000);
+
+		assertTrue(handler.matches(second));
+		assertFalse(handler.matches(downloads.resolve("config")));
+		assertEquals(Arrays.asList(second, first), handler.getMatches());
+
+		handler.onCreate(first);
+		assertTrue(handled.isEmpty());
+		handler.onCreate(second);
+		assertEquals(Arrays.asList(second), handled);
+		assertEquals(skipped + 1, Counters.getInstance().get(NewestFileEventHandler.SKIPPED));
+	}
+
+	/**
+	 * A download no newer than the last one handled should be ignored, unless ignoring older downloads is turned off.
+	 */
+	@Test
+	void Test2() throws IOException {
+		Path second = download("credentials (1)", 2000);
+		handler.onCreate(second);
+		handler.onUpdate(second);
+		assertEquals(1, handled.size());
+
+		// The newer download is gone, leaving one older than the last handled.
+		Files.delete(second);
+		Path first = download("credentials", 1000);
+		handler.onUpdate(first);
+		assertEquals(1, handled.size());
+
+		handler.setIgnoreOlder(false).onUpdate(first);
+		assertEquals(Arrays.asList(second, first), handled);
+	}
+
+	/**
+	 * Once handled, the download and any older ones should be deleted, or rotated into a directory that keeps only the latest few.
+	 */
+	@Test
+	void Test3() throws IOException {
+		long consumed = Counters.getInstance().get(NewestFileEventHandler.CONSUMED);
+		download("credentials", 1000);
+		Path second = download("credentials (1)", 2000);
+		handler.setConsume(Consume.DELETE).onCreate(second);
+		assertTrue(handler.getMatches().isEmpty());
+		assertEquals(consumed + 2, Counters.getInstance().get(NewestFileEventHandler.CONSUMED));
+
+		handler.setConsume(Consume.ROTATE);
+		for(int i = 1; i <= NewestFileEventHandler.ROTATE_KEEP + 2; i++) {
+			handler.onCreate(download("credentials (" + i + ")", 2000 + i * 1000));
+		}
+		assertTrue(handler.getMatches().isEmpty());
+		Path rotated = downloads.resolve(NewestFileEventHandler.ROTATE_DIRECTORY);
+		assertEquals(NewestFileEventHandler.ROTATE_KEEP, Files.list(rotated).count());
+		assertTrue(Files.exists(rotated.resolve("credentials (" + (NewestFileEventHandler.ROTATE_KEEP + 2) + ")")));
+		assertFalse(Files.exists(rotated.resolve("credentials (1)")));
+		assertEquals(NewestFileEventHandler.ROTATE_KEEP + 3, handled.size());
+	}
+}
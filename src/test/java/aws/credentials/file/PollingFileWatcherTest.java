@@ -0,0 +1,186 @@
+package aws.credentials.file;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Watchable;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+
+import aws.credentials.file.Watcher.Mode;
+import aws.credentials.util.Counters;
+import aws.credentials.util.Utils;
+
+/**
+ * Tests for looking for creation of and modification to files by polling them.
+ *
+ * @author wrh
+ *
+ */
+class PollingFileWatcherTest {
+
+	FileSystem fs;
+	Path watchable;
+	List<String> messages = new ArrayList<String>();
+	FileEventHandler handler;
+
+	@BeforeEach
+	void setup() {
+		fs = Jimfs.newFileSystem(Configuration.unix().toBuilder()
+			       .setAttributeViews("basic", "owner", "posix", "unix")
+			       .setWorkingDirectory("/")
+			       .setRoots("/")
+			       .build());
+		watchable = fs.getPath("/tmp/newCredentials");
+		try {
+			Files.createDirectories(watchable.getParent());
+		}
+		catch (IOException e) {
+			fail("Not expecting exception during setup: ", e);
+		}
+		handler = new FileEventHandler() {
+			@Override public synchronized void onUpdate(Watchable watchable) {
+				messages.add("updated");
+			}
+			@Override public synchronized void onCreate(Watchable watchable) {
+				messages.add("created");
+			}
+			@Override public void onDelete(Watchable watchable) { }
+		};
+	}
+
+	/**
+	 * Creating and then modifying a watched file should each be reported once, and files not watched should not be reported.
+	 */
+	@Test
+	void Test1() throws IOException {
+		PollingFileWatcher watcher = new PollingFileWatcher(watchable, handler);
+		assertFalse(watcher.poll());
+
+		Utils.writeStringToFile("Apples\nOranges\nPears", watchable);
+		Utils.writeStringToFile("ignored", fs.getPath("/tmp/other"));
+		assertTrue(watcher.poll());
+		assertFalse(watcher.poll());
+
+		Utils.writeStringToFile("Pears\nApples\nOranges", watchable);
+		Files.setLastModifiedTime(watchable, FileTime.fromMillis(System.currentTimeMillis() + 1000));
+		assertTrue(watcher.poll());
+		assertEquals(List.of("created", "updated"), messages);
+	}
+
+	/**
+	 * A file that is touched without its content changing should be hashed to find that out, but not reported, and a file whose
+	 * metadata has not moved should not be hashed at all.
+	 */
+	@Test
+	void Test2() throws IOException {
+		Utils.writeStringToFile("Apples\nOranges\nPears", watchable);
+		PollingFileWatcher watcher = new PollingFileWatcher();
+		watcher.register(watchable.getParent(), file -> file.getFileName().toString().startsWith("new"), handler);
+
+		long hashed = Counters.getInstance().get(PollingFileWatcher.HASHED);
+		assertFalse(watcher.poll());
+		assertEquals(hashed, Counters.getInstance().get(PollingFileWatcher.HASHED));
+
+		Files.setLastModifiedTime(watchable, FileTime.fromMillis(System.currentTimeMillis() + 1000));
+		assertFalse(watcher.poll());
+		assertEquals(hashed + 1, Counters.getInstance().get(PollingFileWatcher.HASHED));
+		assertTrue(messages.isEmpty());
+	}
+
+	/**
+	 * The interval should back off while nothing changes once the active period is over, and tighten again after a change.
+	 */
+	@Test
+	void Test3() throws IOException {
+		PollingFileWatcher watcher = new PollingFileWatcher(watchable, handler)
+				.setMinInterval(10)
+				.setMaxInterval(80)
+				.setActivePeriod(0);
+		for(long expected : new long[] { 20, 40, 80, 80 }) {
+			watcher.poll();
+			assertEquals(expected, watcher.getInterval());
+		}
+		Utils.writeStringToFile("Apples", watchable);
+		watcher.poll();
+		assertEquals(10, watcher.getInterval());
+
+		watcher.setActivePeriod(60000);
+		watcher.poll();
+		assertEquals(10, watcher.getInterval());
+	}
+
+	/**
+	 * Run on a thread of its own, the watcher should pick up a new file within a few polls, and stop when told to.
+	 */
+	@Test
+	void Test4() throws Exception {
+		PollingFileWatcher watcher = new PollingFileWatcher(watchable, handler).setMinInterval(20);
+		Thread thread = new Thread(watcher);
+		thread.start();
+		try {
+			Utils.writeStringToFile("Apples", watchable);
+			for(int i = 0; i < 50 && messages.isEmpty(); i++) {
+				Thread.sleep(20);
+			}
+			assertEquals(List.of("created"), messages);
+		}
+		finally {
+			watcher.setStop();
+			thread.join(1000);
+		}
+		assertFalse(thread.isAlive());
+	}
+
+	/**
+	 * A mode other than auto should be used as is, and auto should choose native watching on a local file system.
+	 */
+	@Test
+	void Test5() {
+		assertEquals(Mode.POLL, Mode.resolve("Poll").select(watchable.getParent()));
+		assertEquals(Mode.NATIVE, Mode.resolve("native").select(watchable.getParent()));
+		assertEquals(Mode.NATIVE, Mode.AUTO.select(watchable.getParent()));
+		assertNull(Mode.resolve("inotify"));
+	}
+
+	/**
+	 * A handler that fails on one file should not keep the other watched files from being reported, nor stop the next poll.
+	 */
+	@Test
+	void Test6() throws IOException {
+		PollingFileWatcher watcher = new PollingFileWatcher(watchable, new FileEventHandler() {
+			@Override public void onUpdate(Watchable watchable) throws IOException {
+				throw new IOException("Bad download");
+			}
+			@Override public void onCreate(Watchable watchable) throws IOException {
+				onUpdate(watchable);
+			}
+			@Override public void onDelete(Watchable watchable) { }
+		});
+		Path other = fs.getPath("/tmp/otherCredentials");
+		watcher.register(other, handler);
+		Utils.writeStringToFile("Apples", watchable);
+		Utils.writeStringToFile("Apples", other);
+		assertTrue(watcher.poll());
+		assertEquals(List.of("created"), messages);
+		
+		Utils.writeStringToFile("Oranges", other);
+		Files.setLastModifiedTime(other, FileTime.fromMillis(System.currentTimeMillis() + 1000));
+		assertTrue(watcher.poll());
+		assertEquals(List.of("created", "updated"), messages);
+	}
+}
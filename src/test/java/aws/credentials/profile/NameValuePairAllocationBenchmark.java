@@ -0,0 +1,108 @@
+package aws.credentials.profile;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import aws.credentials.SyntheticContent;
+import aws.credentials.util.BasicNameValuePair;
+import aws.credentials.util.NameValuePairCaselessDecorator;
+import aws.credentials.util.NameValuePairView;
+import aws.credentials.util.Utils;
+
+/**
+ * Measures the cost per parsed line of a BasicNameValuePair (wrapped for caseless comparison) against a NameValuePairView over the
+ * same text, and of finding a named profile member the way NamedProfileParser did before and after the view was introduced.
+ * Every benchmark parses the same LINES lines of a synthetic credentials file, so scores are per line.
+ *
+ * Bytes allocated per line are reported as gc.alloc.rate.norm when run with the gc profiler:
+ * mvn -P benchmark test-compile exec:exec -Dbenchmark="NameValuePairAllocationBenchmark -prof gc"
+ *
+ * @author wrh
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NameValuePairAllocationBenchmark {
+
+	private static final int LINES = 1000;
+
+	private String text;
+	private String[] lines = new String[LINES];
+	private int[] starts = new int[LINES];
+	private int[] ends = new int[LINES];
+
+	@Setup
+	public void setup() {
+		List<String> source = Utils.readLines(SyntheticContent.getCredentials(100));
+		StringBuilder sb = new StringBuilder();
+		for(int i = 0; i < LINES; i++) {
+			lines[i] = source.get(i % source.size());
+			starts[i] = sb.length();
+			sb.append(lines[i]);
+			ends[i] = sb.length();
+			sb.append("\n");
+		}
+		text = sb.toString();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LINES)
+	public void basicPair(Blackhole bh) {
+		for(int i = 0; i < LINES; i++) {
+			NameValuePairCaselessDecorator nvp = new NameValuePairCaselessDecorator(new BasicNameValuePair(lines[i]));
+			bh.consume(nvp.isPair() && nvp.is("aws_access_key_id"));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LINES)
+	public void viewPair(Blackhole bh) {
+		for(int i = 0; i < LINES; i++) {
+			NameValuePairView nvp = new NameValuePairView(text, starts[i], ends[i]);
+			bh.consume(nvp.isPair() && nvp.is("aws_access_key_id"));
+		}
+	}
+
+	/**
+	 * The former NamedProfileParser.getMember, where a recognized name was split into name and value Strings by a BasicNameValuePair.
+	 */
+	@Benchmark
+	@OperationsPerInvocation(LINES)
+	public void memberBefore(Blackhole bh) {
+		for(int i = 0; i < LINES; i++) {
+			String line = lines[i];
+			int end = line.indexOf('=');
+			while(end > 0 && line.charAt(end - 1) <= ' ') {
+				end--;
+			}
+			NamedProfileElement element = end < 0 ? null : NamedProfileElement.fromName(line, 0, end);
+			NameValuePairProfileDecorator nvp = element == null ? null : element.instanceOf(line);
+			bh.consume(nvp != null && nvp.isValid() ? nvp : null);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LINES)
+	public void memberAfter(Blackhole bh) {
+		for(int i = 0; i < LINES; i++) {
+			bh.consume(NamedProfileParser.getMember(text, starts[i], ends[i]));
+		}
+	}
+}
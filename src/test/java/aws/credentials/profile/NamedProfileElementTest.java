@@ -0,0 +1,59 @@
+package aws.credentials.profile;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import aws.credentials.credential.AwsAccessKeyId;
+import aws.credentials.credential.AwsSecretAccessKey;
+import aws.credentials.credential.AwsSessionToken;
+import aws.credentials.credential.Output;
+import aws.credentials.credential.Region;
+
+class NamedProfileElementTest {
+
+	/**
+	 * Every element is found by its property name regardless of case, and nothing else is found.
+	 */
+	@Test
+	void Test1() {
+		for(NamedProfileElement e : NamedProfileElement.values()) {
+			assertEquals(e, NamedProfileElement.fromName(e.getPropertyName()));
+			assertEquals(e, NamedProfileElement.fromName(e.name()));
+		}
+		assertNull(NamedProfileElement.fromName("aws_access_key"));
+		assertNull(NamedProfileElement.fromName("aws_access_key_idx"));
+		assertNull(NamedProfileElement.fromName("random"));
+		assertNull(NamedProfileElement.fromName(""));
+		assertNull(NamedProfileElement.fromName((String) null));
+	}
+
+	/**
+	 * The lookup can be confined to a region of a larger line of text.
+	 */
+	@Test
+	void Test2() {
+		String line = "  Region = us-east-1";
+		assertEquals(NamedProfileElement.REGION, NamedProfileElement.fromName(line, 2, 8));
+		assertNull(NamedProfileElement.fromName(line, 2, 9));
+		assertNull(NamedProfileElement.fromName(line, 0, 8));
+	}
+
+	/**
+	 * Each element creates an instance of its own type through its factory.
+	 */
+	@Test
+	void Test3() {
+		assertTrue(NamedProfileElement.AWS_ACCESS_KEY_ID.instanceOf("aws_access_key_id = id") instanceof AwsAccessKeyId);
+		assertTrue(NamedProfileElement.AWS_SECRET_ACCESS_KEY.instanceOf("aws_secret_access_key = key") instanceof AwsSecretAccessKey);
+		assertTrue(NamedProfileElement.AWS_SESSION_TOKEN.instanceOf("aws_session_token = token") instanceof AwsSessionToken);
+		assertTrue(NamedProfileElement.REGION.instanceOf("region = us-east-1") instanceof Region);
+		assertTrue(NamedProfileElement.OUTPUT.instanceOf("output = json") instanceof Output);
+		for(NamedProfileElement e : NamedProfileElement.values()) {
+			assertEquals(e, e.instanceOf(e.getPropertyName() + " = value").getType());
+			assertNull(e.instanceOf(" "));
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package aws.credentials.profile;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import aws.credentials.SyntheticContent;
+import aws.credentials.file.CredentialsFile.Type;
+import aws.credentials.profile.NamedProfileParser.Section;
+
+/**
+ * Measures how parsing a very large credentials file scales with the number of cores parsing it.
+ * With 1 thread the parser stays on its sequential path, which is the baseline for the others.
+ * Threads beyond the number of available processors only show the overhead of splitting the text.
+ *
+ * Run with: mvn -P benchmark test-compile exec:exec -Dbenchmark=NamedProfileParserScalingBenchmark
+ *
+ * @author wrh
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class NamedProfileParserScalingBenchmark {
+
+	@Param({ "10000", "50000" })
+	public int profiles;
+
+	@Param({ "1", "2", "4", "8" })
+	public int threads;
+
+	private String text;
+	private ForkJoinPool pool;
+
+	@Setup
+	public void setup() {
+		text = SyntheticContent.getCredentials(profiles);
+		pool = new ForkJoinPool(threads);
+	}
+
+	@TearDown
+	public void teardown() {
+		pool.shutdown();
+	}
+
+	@Benchmark
+	public List<Section> parse() {
+		return new NamedProfileParser(Type.CREDENTIALS).setParallelism(pool, NamedProfileParser.PARALLEL_THRESHOLD).parseSections(text);
+	}
+}
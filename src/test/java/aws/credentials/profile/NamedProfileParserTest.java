@@ -0,0 +1,102 @@
+package aws.credentials.profile;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+
+import aws.credentials.SyntheticContent;
+import aws.credentials.file.CredentialsFile.Type;
+import aws.credentials.profile.NamedProfileParser.Section;
+import aws.credentials.util.Utils;
+
+class NamedProfileParserTest {
+
+	private NamedProfileParser parser = new NamedProfileParser(Type.CREDENTIALS);
+
+	/**
+	 * Lines before the first header are skipped, and every other line lands in exactly one named profile as either a member or "other".
+	 */
+	@Test
+	void Test1() {
+		List<NamedProfile> profiles = parser.parse(Arrays.asList(new String[] {
+			"# leading comment",
+			"junk before any header",
+			"[default]",
+			"aws_access_key_id = id0",
+			"aws_secret_access_key = key0",
+			"",
+			"[profile myprofile]",
+			"; a comment",
+			"AWS_ACCESS_KEY_ID = id1",
+			"aws_secret_access_key = ",
+			"region = us-east-1",
+			"random = apples"
+		}));
+		assertEquals(2, profiles.size());
+
+		NamedProfile np = profiles.get(0);
+		assertTrue(np.isDefault());
+		assertEquals("id0", np.getKeyId());
+		assertEquals("key0", np.getSecretKey());
+		assertEquals("[default]\naws_access_key_id = id0\naws_secret_access_key = key0", np.rawString());
+
+		np = profiles.get(1);
+		assertEquals("myprofile", np.getName());
+		assertEquals("id1", np.getKeyId());
+		assertNull(np.getSecretKey());
+		assertEquals("us-east-1", np.getRegion());
+		assertEquals(6, Utils.readLines(np.rawString()).size());
+	}
+
+	/**
+	 * A profile built by the parser must be indistinguishable from one built from the same lines by NamedProfile itself.
+	 */
+	@Test
+	void Test2() {
+		String content = SyntheticContent.getCredentials(20);
+		List<NamedProfile> profiles = parser.parse(Utils.readLines(content));
+		assertEquals(21, profiles.size());
+		for(NamedProfile np : profiles) {
+			NamedProfile expected = new NamedProfile(np.rawString(), Type.CREDENTIALS);
+			assertEquals(expected, np);
+			assertEquals(expected.rawString(), np.rawString());
+			assertEquals(expected.getRegion(), np.getRegion());
+			assertTrue(np.isValidAndTemporary());
+		}
+	}
+
+	/**
+	 * Large text parsed in parallel chunks must produce exactly the sections the sequential parse does, in the same order.
+	 */
+	@Test
+	void Test3() {
+		// Comments directly above a header must stay with it when the text is divided there.
+		String text = SyntheticContent.getCredentialsOfSize(1 << 19).replace("\n[profile", "\n; leads\n# the next\n[profile");
+		List<Section> expected = parser.parseSections(text);
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			for(boolean lazy : new boolean[] { false, true }) {
+				List<Section> sections = new NamedProfileParser(Type.CREDENTIALS, lazy).setParallelism(pool, 0).parseSections(text);
+				assertEquals(expected.size(), sections.size());
+				for(int i = 0; i < sections.size(); i++) {
+					Section s1 = expected.get(i);
+					Section s2 = sections.get(i);
+					assertEquals(s1.getStart(), s2.getStart());
+					assertEquals(s1.getHeaderStart(), s2.getHeaderStart());
+					assertEquals(s1.getEnd(), s2.getEnd());
+					assertEquals(s1.getProfile(), s2.getProfile());
+					assertEquals(s1.getProfile().rawString(), s2.getProfile().rawString());
+				}
+			}
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+}
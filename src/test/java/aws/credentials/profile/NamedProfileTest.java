@@ -10,6 +10,7 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
 import org.junit.jupiter.api.Test;
 
 import aws.credentials.AbstractMappedContentTest;
+import aws.credentials.credential.Region;
 import aws.credentials.file.CredentialsFile.Type;
 
 class NamedProfileTest extends AbstractMappedContentTest {
@@ -179,5 +180,30 @@ class NamedProfileTest extends AbstractMappedContentTest {
 		assertEquals(newprofile.toString(), np.toString());
 		assertEquals(newprofile, np);
 	}
-
+	
+	/**
+	 * Members are compared element by element, so line order and the case of member names do not matter, 
+	 * equal profiles have equal hash codes, and the recognized members always print in the same order.
+	 */
+	@Test
+	void Test5() {
+		np = new NamedProfile("[myprofile]\nregion = us-east-1\naws_access_key_id = id\naws_secret_access_key = key", Type.CREDENTIALS);
+		NamedProfile np2 = new NamedProfile("[myprofile]\nAWS_SECRET_ACCESS_KEY = key\nAWS_ACCESS_KEY_ID = id\nRegion = us-east-1", Type.CREDENTIALS);
+		assertEquals(np, np2);
+		assertEquals(np.hashCode(), np2.hashCode());
+		assertEquals("[myprofile]\naws_access_key_id = id\naws_secret_access_key = key\nregion = us-east-1\n", np.toString());
+		assertEquals("[myprofile]\nregion = us-east-1\naws_access_key_id = id\naws_secret_access_key = key", np.rawString());
+		
+		// A missing member on either side is a difference.
+		np2 = new NamedProfile("[myprofile]\naws_access_key_id = id\naws_secret_access_key = key", Type.CREDENTIALS);
+		assertNotEquals(np, np2);
+		assertNotEquals(np2, np);
+		
+		// Setting a member replaces the value of the existing one in place.
+		np2.setMember(new Region("region = us-east-1"));
+		assertEquals(np, np2);
+		np2.setMember(new Region("region = us-west-2"));
+		assertEquals("us-west-2", np2.getRegion());
+		assertNotEquals(np, np2);
+	}
 }
@@ -0,0 +1,89 @@
+package aws.credentials.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class ChannelWriterTest {
+
+	/**
+	 * Records every gathering write, and writes no more than 7 bytes at a time to show that partial writes are carried on with.
+	 */
+	private static class RecordingChannel implements GatheringByteChannel {
+		private ByteArrayOutputStream out = new ByteArrayOutputStream();
+		private List<Integer> gathered = new ArrayList<Integer>();
+		@Override public boolean isOpen() { return true; }
+		@Override public void close() { }
+		@Override public int write(ByteBuffer src) {
+			int count = Math.min(7, src.remaining());
+			for(int i = 0; i < count; i++) {
+				out.write(src.get());
+			}
+			return count;
+		}
+		@Override public long write(ByteBuffer[] srcs, int offset, int length) {
+			gathered.add(length);
+			for(int i = offset; i < offset + length; i++) {
+				if(srcs[i].hasRemaining()) {
+					return write(srcs[i]);
+				}
+			}
+			return 0;
+		}
+		@Override public long write(ByteBuffer[] srcs) { 
+			return write(srcs, 0, srcs.length); 
+		}
+	}
+	
+	private static AsciiCharSequence getAscii(String text) {
+		ByteBuffer bytes = ByteBuffer.allocateDirect(text.length());
+		bytes.put(text.getBytes(StandardCharsets.US_ASCII)).flip();
+		return new AsciiCharSequence(bytes);
+	}
+	
+	/**
+	 * Text of every kind comes out as UTF-8, in order, through a buffer far smaller than the text, and through a channel that is not gathering.
+	 */
+	@Test
+	void Test1() throws IOException {
+		AsciiCharSequence ascii = getAscii("[default]\naws_access_key_id = id0\n");
+		String unicode = "# propriétaire 🔑 中文\n";
+		String expected = "[default]\n" + unicode + "aws_access_key_id = id0\n" + "=;" + "é" + unicode;
+		
+		RecordingChannel gathering = new RecordingChannel();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for(ChannelWriter writer : new ChannelWriter[] { 
+				new ChannelWriter(gathering, ByteBuffer.allocateDirect(8)), 
+				new ChannelWriter(Channels.newChannel(out), ByteBuffer.allocate(5)) }) {
+			writer.append(ascii, 0, 10).append(unicode).append(ascii, 10, ascii.length()).append('=').append(';').append('é');
+			writer.append(unicode.substring(0, 3)).append(unicode, 3, unicode.length());
+			writer.close();
+			assertEquals(expected.getBytes(StandardCharsets.UTF_8).length, writer.getWritten());
+		}
+		assertEquals(expected, new String(gathering.out.toByteArray(), StandardCharsets.UTF_8));
+		assertEquals(expected, new String(out.toByteArray(), StandardCharsets.UTF_8));
+	}
+	
+	/**
+	 * Adjacent regions of viewed bytes and of encoded text are merged, so they are written out as one.
+	 */
+	@Test
+	void Test2() throws IOException {
+		AsciiCharSequence ascii = getAscii("[default]\naws_access_key_id = id0\n[other]\n");
+		RecordingChannel channel = new RecordingChannel();
+		ChannelWriter writer = new ChannelWriter(channel, ByteBuffer.allocateDirect(64));
+		writer.append(ascii, 0, 10).append(ascii, 10, 34).append("aws_secret").append("_access_key = key0\n").append(ascii, 34, ascii.length());
+		writer.flush();
+		assertEquals(3, channel.gathered.get(0));
+		assertEquals("[default]\naws_access_key_id = id0\naws_secret_access_key = key0\n[other]\n", new String(channel.out.toByteArray(), StandardCharsets.UTF_8));
+	}
+}
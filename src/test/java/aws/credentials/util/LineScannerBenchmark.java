@@ -0,0 +1,87 @@
+package aws.credentials.util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import aws.credentials.SyntheticContent;
+import aws.credentials.file.CredentialsFile.Type;
+import aws.credentials.profile.NamedProfileParser;
+import aws.credentials.profile.NamedProfileParser.Section;
+
+/**
+ * Compares the scalar line scanner with the one LineScanner.getInstance() provides (the vector scanner when the jdk.incubator.vector
+ * module is present) over large synthetic credentials files mapped into memory, both on their own and as the first stage of a 
+ * sequential parse. The name of the scanner in use is printed when the benchmark starts.
+ *
+ * Run with (jdk 17+ adds the module to the benchmark jvm): mvn -P benchmark test-compile exec:exec -Dbenchmark=LineScannerBenchmark
+ *
+ * @author wrh
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LineScannerBenchmark {
+
+	@Param({ "1048576", "10485760" })
+	public int bytes;
+
+	private Path file;
+	private CharSequence text;
+	private LineScanner scalar = new ScalarLineScanner();
+	private LineScanner available = LineScanner.getInstance();
+	private ForkJoinPool pool = new ForkJoinPool(1);
+
+	@Setup
+	public void setup() throws IOException {
+		file = Files.createTempFile("credentials", null);
+		Files.write(file, SyntheticContent.getCredentialsOfSize(bytes).getBytes(StandardCharsets.US_ASCII));
+		text = Utils.mapText(file);
+		System.out.println("Scanner: " + available.getClass().getSimpleName());
+	}
+
+	@TearDown
+	public void teardown() throws IOException {
+		pool.shutdown();
+		Files.deleteIfExists(file);
+	}
+
+	@Benchmark
+	public LineIndex scanScalar() {
+		return scalar.scan(text, 0, text.length());
+	}
+
+	@Benchmark
+	public LineIndex scanAvailable() {
+		return available.scan(text, 0, text.length());
+	}
+
+	/**
+	 * Parses on one thread, so the difference from the scanner alone is the cost of the rest of the parse.
+	 */
+	@Benchmark
+	public List<Section> parse() {
+		return new NamedProfileParser(Type.CREDENTIALS).setParallelism(pool, Integer.MAX_VALUE).parseSections(text);
+	}
+}
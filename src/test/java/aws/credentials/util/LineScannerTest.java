@@ -0,0 +1,88 @@
+package aws.credentials.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+import aws.credentials.SyntheticContent;
+
+class LineScannerTest {
+
+	private static CharSequence getAscii(String text) {
+		byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+		ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+		buffer.put(bytes).flip();
+		return new AsciiCharSequence(buffer);
+	}
+	
+	private static void assertSameIndex(LineIndex expected, LineIndex actual) {
+		assertEquals(expected.getNewlineCount(), actual.getNewlineCount());
+		for(int i = 0; i < expected.getNewlineCount(); i++) {
+			assertEquals(expected.getNewline(i), actual.getNewline(i));
+		}
+		assertEquals(expected.getDelimiterCount(), actual.getDelimiterCount());
+		for(int i = 0; i < expected.getDelimiterCount(); i++) {
+			assertEquals(expected.getDelimiter(i), actual.getDelimiter(i));
+		}
+		assertEquals(expected.getBracketCount(), actual.getBracketCount());
+		for(int i = 0; i < expected.getBracketCount(); i++) {
+			assertEquals(expected.getBracket(i), actual.getBracket(i));
+		}
+	}
+	
+	/**
+	 * The line breaks, delimiters and brackets of a small file, as bytes and as chars.
+	 */
+	@Test
+	void Test1() {
+		String text = "[default]\nregion = us-east-1\n# a=b\r\n\nkey=";
+		LineIndex index = new ScalarLineScanner().scan(text, 0, text.length());
+		assertEquals(4, index.getNewlineCount());
+		assertEquals(9, index.getNewline(0));
+		assertEquals(28, index.getNewline(1));
+		assertEquals(35, index.getNewline(2));
+		assertEquals(36, index.getNewline(3));
+		assertEquals(3, index.getDelimiterCount());
+		assertEquals(17, index.getDelimiter(0));
+		assertEquals(32, index.getDelimiter(1));
+		assertEquals(40, index.getDelimiter(2));
+		assertEquals(1, index.getBracketCount());
+		assertEquals(0, index.getBracket(0));
+		
+		assertSameIndex(index, new ScalarLineScanner().scan(getAscii(text), 0, text.length()));
+		assertSameIndex(index, LineScanner.getInstance().scan(getAscii(text), 0, text.length()));
+		
+		assertEquals(17, index.nextDelimiter(10, 28));
+		assertEquals(32, index.nextDelimiter(29, 35));
+		assertEquals(40, index.nextDelimiter(37, 41));
+		assertEquals(-1, index.nextDelimiter(41, 41));
+		assertEquals(0, index.nextBracket(0, 9));
+		assertEquals(-1, index.nextBracket(10, 28));
+	}
+	
+	/**
+	 * Whichever scanner is available finds the same offsets as the scalar one in a large file, including over a view that does not
+	 * start at the beginning of its buffer and a region that does not end on a vector boundary.
+	 */
+	@Test
+	void Test2() {
+		String text = SyntheticContent.getCredentialsOfSize(1 << 18);
+		CharSequence ascii = getAscii(text).subSequence(7, text.length());
+		int to = ascii.length() - 13;
+		LineIndex expected = new ScalarLineScanner().scan(text.substring(7), 3, to);
+		assertSameIndex(expected, new ScalarLineScanner().scan(ascii, 3, to));
+		assertSameIndex(expected, LineScanner.getInstance().scan(ascii, 3, to));
+	}
+	
+	/**
+	 * The vector scanner is used whenever the module it needs is present.
+	 */
+	@Test
+	void Test3() {
+		boolean vector = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+		assertEquals(vector ? "VectorLineScanner" : "ScalarLineScanner", LineScanner.getInstance().getClass().getSimpleName());
+	}
+}
@@ -1,7 +1,9 @@
 package aws.credentials.util;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import org.junit.jupiter.api.Test;
 
@@ -36,4 +38,44 @@ class NameValuePairTest {
 		assertNull(pair.getName());
 		assertNull(pair.getValue());
 	}
+	
+	@Test
+	void Test5() {
+		String text = "[default]\n  Hello = goodbye\t\nbogus\nhello =  \n = goodbye";
+		pair = new NameValuePairView(text, 10, 28);
+		assertTrue(pair.isPair());
+		assertTrue(pair.is("hello"));
+		assertTrue(pair.is("HELLO"));
+		assertFalse(pair.is("hell"));
+		assertEquals("Hello", pair.getName());
+		assertEquals("goodbye", pair.getValue());
+		assertEquals("  Hello = goodbye\t", pair.getRawText());
+		assertEquals(new BasicNameValuePair("Hello = goodbye"), pair);
+		assertEquals(new BasicNameValuePair("Hello = goodbye").hashCode(), pair.hashCode());
+		assertEquals(pair, new BasicNameValuePair("Hello = goodbye"));
+		
+		pair = new NameValuePairView(text, 29, 34);
+		assertFalse(pair.isPair());
+		assertNull(pair.getName());
+		assertNull(pair.getValue());
+		
+		pair = new NameValuePairView(text, 35, 44);
+		assertFalse(pair.isPair());
+		assertEquals("hello", pair.getName());
+		assertNull(pair.getValue());
+		assertEquals(new BasicNameValuePair("hello ="), pair);
+		assertEquals(new BasicNameValuePair("hello =").hashCode(), pair.hashCode());
+		
+		pair = new NameValuePairView(text, 45, text.length());
+		assertFalse(pair.isPair());
+		assertNull(pair.getName());
+		assertNull(pair.getValue());
+	}
+	
+	@Test
+	void Test6() {
+		pair = new NameValuePairView("  hello || goodbye	", 0, 19, "||");
+		assertEquals("hello", pair.getName());
+		assertEquals("goodbye", pair.getValue());
+	}
 }